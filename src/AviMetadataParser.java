@@ -175,7 +175,7 @@ public class AviMetadataParser {
         double fps = (double)rate / (double)scale;
         double duration = length / fps;
 
-        return new VideoMetadata((int)fps, duration);
+        return new VideoMetadata(fps, duration);
     }
 
     /** Parse an 4-byte array in little endian to int
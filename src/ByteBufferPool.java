@@ -0,0 +1,79 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte buffers of one size, e.g. one RTP packet each.
+ * <p>
+ * Direct buffers are written to a channel without an additional copy into
+ * native memory, but are expensive to allocate. Heap buffers are used on
+ * the receiving side, where the packets are parsed from the backing array.
+ * The pool keeps released buffers for reuse, so a stream in steady state
+ * does not allocate any buffer. The free list is an array based queue,
+ * which does not allocate when buffers are returned either.
+ */
+public class ByteBufferPool {
+    private final int bufferSize;
+    private final boolean direct;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final AtomicLong allocated = new AtomicLong();
+
+    /**
+     * @param bufferSize size of each buffer in bytes
+     * @param maxPooled  maximum number of free buffers kept for reuse
+     * @param direct     true: direct buffers, false: heap buffers with accessible array
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Create a pool of direct buffers.
+     *
+     * @param bufferSize size of each buffer in bytes
+     * @param maxPooled  maximum number of free buffers kept for reuse
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        this(bufferSize, maxPooled, true);
+    }
+
+    /**
+     * @return empty buffer in write mode, position 0 and limit at its capacity
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers of other pools are ignored.
+     *
+     * @param buffer buffer acquired from this pool, must not be used afterwards
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect() == direct && buffer.capacity() == bufferSize) {
+            free.offer(buffer); // dropped if the pool is full
+        }
+    }
+
+    /**
+     * @return size of each buffer in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return number of buffers allocated since the pool was created
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+}
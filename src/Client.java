@@ -8,11 +8,14 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.ListIterator;
+import java.util.Random;
 import java.util.StringTokenizer;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,13 +57,24 @@ public class Client {
     static int RTP_RCV_PORT = 25000; // port where the client will receive the RTP packets
     // static int FEC_RCV_PORT = 25002; // port where the client will receive the RTP packets
 
-    static final int MAX_FRAME_SIZE = 65536;
-    static final int RCV_RATE = 2; // interval for receiving loop
-    int jitterBufferSize = 50; // size of the input buffer => start delay
+    static final int RECEIVE_QUEUE_SIZE = 4096; // packets between receiver thread and playback
+    // the receiver thread stores the arrival time in front of the datagram in the receive buffer
+    static final int ARRIVAL_TIME_SIZE = Long.BYTES;
+    int framePeriod = FRAME_RATE; // nominal display time of an image in ms
 
-    Timer timer; // timer used to receive data from the UDP socket
+    Thread receiver; // thread used to receive data from the UDP socket
+    final SpscQueue<ByteBuffer> receivedPackets = new SpscQueue<>(RECEIVE_QUEUE_SIZE); // receiver -> decoder
+    Thread decoder; // thread used to process the received packets and restore the lost ones
     Timer timerPlay; // timer used to display the frames at correct frame rate
 
+    // RTCP variables:
+    // ----------------
+    DatagramSocket RTCPsocket; // RTP port + 1, receives sender reports and sends receiver reports
+    private RtcpHandler rtcpHandler = null;
+    InetSocketAddress serverRtcpAddress = null; // given in the SETUP response
+    Thread rtcpReceiver; // thread used to receive the sender reports
+    Timer timerRtcp; // timer used to send the receiver reports
+
     // RTSP variables
     // ----------------
     // rtsp states
@@ -154,12 +168,6 @@ public class Client {
         f.getContentPane().add(mainPanel, BorderLayout.CENTER);
         f.setSize(new Dimension(640, 800));
         f.setVisible(true);
-
-        // init timer
-        // --------------------------
-        timer = new Timer(RCV_RATE, new timerListener());
-        timer.setInitialDelay(0);
-        timer.setCoalesce(true); // combines events
     }
 
     /**
@@ -228,7 +236,7 @@ public class Client {
                     }
                 }
 
-                // Init non-blocking RTPsocket that will be used to receive data
+                // Init RTPsocket that will be used to receive data
                 try {
                     // DoneTASK construct a new DatagramSocket to receive server RTP packets on port RTP_RCV_PORT
                     RTPsocket = new DatagramSocket(RTP_RCV_PORT);
@@ -236,17 +244,31 @@ public class Client {
                     // for now FEC packets are received via RTP-Port, so keep comment below
 //                     FECsocket = new DatagramSocket(FEC_RCV_PORT);
 
-                    // DoneTASK set Timeout value of the socket to 1 ms
-                    RTPsocket.setSoTimeout(1);
                     logger.log(Level.FINE, "Socket receive buffer: " + RTPsocket.getReceiveBufferSize());
+                    decoder = new Thread(new Decoder(), "rtp-decoder");
+                    decoder.setDaemon(true);
+                    decoder.start();
+                    // blocks on the socket until it is closed at TEARDOWN
+                    receiver = new Thread(new Receiver(RTPsocket), "rtp-receiver");
+                    receiver.setDaemon(true);
+                    receiver.setPriority(Thread.MAX_PRIORITY);
+                    receiver.start();
+
+                    RTCPsocket = new DatagramSocket(RTP_RCV_PORT + 1);
+                    rtcpHandler = new RtcpHandler(new Random().nextInt(),
+                            System.getProperty("user.name") + "@" + InetAddress.getLoopbackAddress().getHostName());
+                    rtcpReceiver = new Thread(new RtcpReceiver(RTCPsocket), "rtcp-receiver");
+                    rtcpReceiver.setDaemon(true);
+                    rtcpReceiver.start();
+                    timerRtcp = new Timer(RtcpHandler.REPORT_INTERVAL, ev -> sendReceiverReport());
 
                     rtpHandler.setFecDecryptionEnabled(checkBoxFec.isSelected());
                     // Init the play timer
-                    int timerDelay = FRAME_RATE; // use default delay
+                    framePeriod = FRAME_RATE; // use default delay
                     if (framerate != 0) { // if information available, use that
-                        timerDelay = 1000 / framerate; // delay in ms
+                        framePeriod = 1000 / framerate; // delay in ms
                     }
-                    timerPlay = new Timer(timerDelay, new timerPlayListener());
+                    timerPlay = new Timer(framePeriod, new timerPlayListener());
                     timerPlay.setCoalesce(true); // combines events
 
                     // timerPlay.setInitialDelay(0);
@@ -270,6 +292,7 @@ public class Client {
                     state = READY;
                     statusLabel.setText("Status: READY");
                     logger.log(Level.INFO, "New RTSP state: READY\n");
+                    timerRtcp.start();
                 }
             } // else if state != INIT then do nothing
         }
@@ -300,7 +323,6 @@ public class Client {
                     logger.log(Level.INFO, "New RTSP state: PLAYING\n");
 
                     // start the timer
-                    timer.start();
                     timerPlay.start();
                 }
             } // else if state != READY then do nothing
@@ -332,7 +354,6 @@ public class Client {
                     logger.log(Level.INFO, "New RTSP state: READY\n");
 
                     // stop the timer
-                    timer.stop();
                     timerPlay.stop();
                     timerPlay.setInitialDelay(0);
                 }
@@ -365,10 +386,22 @@ public class Client {
                 logger.log(Level.INFO, "New RTSP state: INIT\n");
 
                 // stop the timer
-                timer.stop();
                 timerPlay.stop();
+                timerRtcp.stop();
 
-                RTPsocket.close();
+                RTPsocket.close(); // ends the receiver thread
+                RTCPsocket.close();
+                try {
+                    receiver.join();
+                    rtcpReceiver.join();
+                    decoder.interrupt();
+                    decoder.join();
+                } catch (InterruptedException ignored) {
+                }
+                ByteBuffer packet;
+                while ((packet = receivedPackets.poll()) != null) {
+                    rtpHandler.releaseReceiveBuffer(packet); // discard the rest of the stream
+                }
                 // exit
                 // System.exit(0);
             }
@@ -410,22 +443,108 @@ public class Client {
     }
 
     /**
-     * Handler for the timer event fetches the RTP-packets and displays the images
+     * Receives the RTP packets on its own thread.
+     * <p>
+     * The thread blocks on the socket and receives every queued datagram in
+     * a tight loop, directly into pooled buffers of the RTP handler. The
+     * packets are handed over to the {@link Decoder} through the lock-free
+     * {@link #receivedPackets} queue, together with their arrival time for
+     * the jitter estimation. The thread ends when the socket is closed.
      */
-    class timerListener implements ActionListener {
-        byte[] buf = new byte[MAX_FRAME_SIZE]; // allocate memory to receive UDP data from server
+    class Receiver implements Runnable {
+        private final DatagramSocket socket;
 
-        public void actionPerformed(ActionEvent e) {
+        Receiver(DatagramSocket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
             Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-            DatagramPacket rcvDp = new DatagramPacket(buf, buf.length); // RTP needs UDP socket
-            try {
-                RTPsocket.receive(rcvDp); // receive the DP from the socket:
+            DatagramPacket rcvDp = new DatagramPacket(new byte[0], 0); // RTP needs UDP socket
+            ByteBuffer buf = null; // pooled receive buffer, kept until a packet is queued
 
-                rtpHandler.processRtpPacket(rcvDp.getData(), rcvDp.getLength());
-            } catch (InterruptedIOException iioe) {
-                // System.out.println("Nothing to read");
-            } catch (IOException ioe) {
-                logger.log(Level.SEVERE, "Exception caught: " + ioe);
+            while (!socket.isClosed()) {
+                if (buf == null) buf = rtpHandler.acquireReceiveBuffer();
+                rcvDp.setData(buf.array(), buf.arrayOffset() + ARRIVAL_TIME_SIZE, buf.capacity() - ARRIVAL_TIME_SIZE);
+                try {
+                    socket.receive(rcvDp); // receive the DP directly into the buffer
+                } catch (IOException ioe) {
+                    if (!socket.isClosed()) logger.log(Level.SEVERE, "Exception caught: " + ioe);
+                    continue;
+                }
+                buf.putLong(0, System.nanoTime());
+                buf.limit(ARRIVAL_TIME_SIZE + rcvDp.getLength()).position(ARRIVAL_TIME_SIZE);
+                if (receivedPackets.offer(buf)) {
+                    buf = null; // handed over without copy
+                    LockSupport.unpark(decoder);
+                } else {
+                    buf.clear(); // decoder does not keep up, drop the packet
+                    logger.log(Level.WARNING, "Receive queue full, packet dropped");
+                }
+            }
+            if (buf != null) rtpHandler.releaseReceiveBuffer(buf);
+        }
+    }
+
+    /**
+     * Receives the RTCP sender reports of the server on its own thread, so
+     * the delay since the last report is exact for the round-trip time.
+     */
+    class RtcpReceiver implements Runnable {
+        private final DatagramSocket socket;
+
+        RtcpReceiver(DatagramSocket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
+            Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+            DatagramPacket rcvDp = new DatagramPacket(new byte[1500], 1500);
+
+            while (!socket.isClosed()) {
+                rcvDp.setLength(rcvDp.getData().length);
+                try {
+                    socket.receive(rcvDp);
+                } catch (IOException ioe) {
+                    if (!socket.isClosed()) logger.log(Level.SEVERE, "Exception caught: " + ioe);
+                    continue;
+                }
+                rtcpHandler.processRtcpPacket(rcvDp.getData(), rcvDp.getLength());
+            }
+        }
+    }
+
+    /**
+     * Send a receiver report built from the reception statistic, called by
+     * the RTCP timer on the event dispatch thread like the playback.
+     */
+    private void sendReceiverReport() {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        if (serverRtcpAddress == null) return;
+        byte[] report = rtcpHandler.createReceiverReport(rtpHandler.getReceptionStatistic());
+        try {
+            RTCPsocket.send(new DatagramPacket(report, report.length, serverRtcpAddress));
+        } catch (IOException ioe) {
+            logger.log(Level.WARNING, "RTCP not sent: " + ioe);
+        }
+    }
+
+    /**
+     * Hands the received packets to the RTP handler on its own thread, the
+     * only consumer of the queue. So the lost packets are restored by FEC
+     * when the packets arrive, independent of the play timer, which only
+     * assembles the images. The thread waits for the receiver while the
+     * queue is empty and ends when it is interrupted at TEARDOWN.
+     */
+    class Decoder implements Runnable {
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                ByteBuffer packet = receivedPackets.poll();
+                if (packet == null) {
+                    LockSupport.park(this); // woken by the receiver
+                    continue;
+                }
+                rtpHandler.processRtpPacket(packet, packet.getLong(0));
             }
         }
     }
@@ -438,12 +557,15 @@ public class Client {
 
         public void actionPerformed(ActionEvent e) {
             Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+            // adapt the playback speed to the jitter
+            timerPlay.setDelay(rtpHandler.scaledFramePeriod(framePeriod));
             ReceptionStatistic rs = rtpHandler.getReceptionStatistic();
             byte[] payload;
 
             // check buffer size and start if filled
             int puffer = rs.latestSequenceNumber - rs.playbackIndex;
-            progressBuffer.setValue(puffer);
+            progressBuffer.setMaximum(2 * rs.playoutDelay);
+            progressBuffer.setValue(rs.bufferedDelay);
             progressPosition.setValue(rs.playbackIndex);
             if (iteration % 5 == 0) {
                 setStatistics(rs);
@@ -452,7 +574,7 @@ public class Client {
             iteration++;
 
             // check for beginning of display JPEGs
-            if ((puffer < jitterBufferSize) && !videoStart) {
+            if ((rs.bufferedDelay < rs.playoutDelay) && !videoStart) {
                 return;
             } else videoStart = true;
             // check for end of display JPEGs
@@ -488,6 +610,8 @@ public class Client {
             pufferLabel.setText(
                     "Puffer: "
                             + (rs.latestSequenceNumber - rs.playbackIndex)
+                            + " // " + rs.bufferedDelay + " / " + rs.playoutDelay + " ms"
+                            + " // Jitter: " + df.format(rs.jitter) + " ms"
                             + " // aktuelle Nr. / Summe empf.: "
                             + rs.latestSequenceNumber + " / " + rs.receivedPackets
                             + "");
@@ -499,13 +623,17 @@ public class Client {
                             + " // Bilder / verloren: " + rs.requestedFrames + " / " + rs.framesLost
                             + " // verl. MP: " + df.format(rs.packetsLost / (double) rs.latestSequenceNumber * 100) + "%");
             fecLabel.setText(
-                    "FEC: korrigiert / nicht korr.: "
+                    "FEC: korrigiert / teilweise / nicht korr.: "
                             + rs.correctedPackets
                             + " / "
+                            + rs.partiallyCorrectedPackets
+                            + " / "
                             + rs.notCorrectedPackets
                             + "  nicht korr.: "
                             + df.format(rs.notCorrectedPackets / (double) rs.latestSequenceNumber * 100) + "%"
-                            + " Pr= " + df.format(rs.notCorrectedPackets / (double) rs.packetsLost * 100) + "%");
+                            + " Pr= " + df.format(rs.notCorrectedPackets / (double) rs.packetsLost * 100) + "%"
+                            + " // zu spät: " + rs.missedDeadlinePackets
+                            + " // Korrekturzeit: " + df.format(rs.recoveryLatency) + " ms");
         }
     }
 
@@ -565,7 +693,15 @@ public class Client {
                         break;
 
                     case "transport:":
-                        logger.log(Level.INFO, "");
+                        String transport = headerField.nextToken();
+                        logger.log(Level.INFO, "Transport: " + transport);
+                        int serverPorts = transport.indexOf("server_port=");
+                        if (serverPorts != -1) { // RTP and RTCP port of the server
+                            String[] ports = transport.substring(serverPorts + 12).split(";")[0].split("-");
+                            if (ports.length > 1) {
+                                serverRtcpAddress = new InetSocketAddress(rtspServer, Integer.parseInt(ports[1]));
+                            }
+                        }
                         break;
 
                     default:
@@ -635,7 +771,7 @@ public class Client {
             // otherwise, write the Session line from the RTSPid field
             if (request_type.equals("SETUP")) {
                 // DoneTASK Complete the Transport Attribute
-                rtspReq += "Transport: RTP/AVP;unicast;client_port=" + RTP_RCV_PORT + CRLF;
+                rtspReq += "Transport: RTP/AVP;unicast;client_port=" + RTP_RCV_PORT + "-" + (RTP_RCV_PORT + 1) + CRLF;
             }
 
             // SessionIS if available
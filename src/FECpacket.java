@@ -53,6 +53,7 @@
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -79,7 +80,7 @@ public class FECpacket extends RTPpacket {
 
     // *** ULP Level Header ********************
     byte[] ulpLevelHeader;
-    int protectionLength;
+    int protectionLength; // 0: the whole payload is protected at level 0
     long mask;
 
     // *** FEC Parameters **********************
@@ -118,10 +119,11 @@ public class FECpacket extends RTPpacket {
 
         extractFecHeader(); // sets the header arrays and the variables
         // removes the fec-header from the payload
-        byte[] buf = new byte[payload.length - FEC_HEADER_SIZE - ulpLevelHeader.length];
-        System.arraycopy(payload, FEC_HEADER_SIZE + ulpLevelHeader.length,
-                buf, 0, payload.length - FEC_HEADER_SIZE - ulpLevelHeader.length);
-        payload = buf;
+        int start = FEC_HEADER_SIZE + ulpLevelHeader.length;
+        // a level 1 header may follow the protected bytes
+        int end = protectionLength > 0 ? Math.min(start + protectionLength, payload.length) : payload.length;
+        payload = Arrays.copyOfRange(payload, start, end);
+        payload_size = payload.length;
     }
 
     // ##############################################################################################
@@ -173,15 +175,27 @@ public class FECpacket extends RTPpacket {
      * @param fecGroupSize     corresponding packets
      */
     public void setUlpLevelHeader(int level, int protectionLength, int fecGroupSize) {
-        // Level is always 0
-        this.protectionLength = protectionLength;
-        this.fecGroupSize = fecGroupSize;
-
         // generate mask, MSB corresponds to i=0
-        mask = 0x8000000000000000L;
+        long mask = 0x8000000000000000L;
         for (int i = 1; i < fecGroupSize; i++) {
             mask = 0x8000000000000000L | (mask >> 1);
         }
+        setUlpLevelMask(level, protectionLength, mask);
+    }
+
+    /**
+     * Sets the ULP-Variables for any mask, e.g. for packets spaced apart
+     *
+     * @param level            always 0
+     * @param protectionLength set to max Length
+     * @param mask             corresponding packets, MSB corresponds to SN base
+     */
+    public void setUlpLevelMask(int level, int protectionLength, long mask) {
+        // Level is always 0
+        this.protectionLength = protectionLength;
+        this.fecGroupSize = Long.bitCount(mask);
+        this.mask = mask;
+
         if (L == 0) {
             ulpLevelHeader = new byte[ULP_HEADER_SIZE0];
         } else {
@@ -214,7 +228,7 @@ public class FECpacket extends RTPpacket {
         // generates involved packet numbers from mask
         for (int i = 0; i < 48; i++) {
             if ((mask & 0x8000000000000000L) != 0) {
-                list.add(snBase + i);
+                list.add((snBase + i) & 0xFFFF); // account overflow of SNr (16 Bit)
             }
             mask = mask << 1;
         }
@@ -318,9 +332,7 @@ public class FECpacket extends RTPpacket {
                 data = payload;
                 payload = buf;
             }
-            for (int i = 0; i < data.length; i++) {
-                payload[i] ^= data[i];
-            }
+            XorEngine.xor(payload, data, data.length);
         }
         payload_size = payload.length;
 
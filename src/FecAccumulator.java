@@ -0,0 +1,165 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reusable XOR accumulator for one FEC group of the sender (RFC 5109).
+ * <p>
+ * The media packets are XORed from their send buffers into a payload
+ * array, which grows to the longest payload once and is cleared for the
+ * next group. The FEC packet is written with its headers directly into a
+ * send buffer, in the same format as {@link FECpacket#getpacket()}. Apart
+ * from growing the array, building a FEC packet allocates nothing.
+ */
+public class FecAccumulator {
+    private byte[] payload;
+    private int length = 0; // longest payload of the group
+    private int count = 0; // packets in the group
+    private int snBase;
+    private long mask;
+    private int lengthRecovery;
+    private int markerRecovery;
+    private int ptRecovery;
+    private int tsRecovery;
+    private int timestamp; // of the last packet
+    // unequal error protection (RFC 5109, ULP levels)
+    private int protectionLength = 0; // bytes protected at level 0, 0 for the whole payload
+    private FecAccumulator level1; // group whose payloads are also protected at level 1, null if none
+    private long level1Mask;
+
+    /**
+     * @param capacity initial size of the payload array, e.g. the MTU
+     */
+    public FecAccumulator(int capacity) {
+        payload = new byte[capacity];
+    }
+
+    /**
+     * Grow the payload array once, e.g. for a larger MTU.
+     *
+     * @param capacity size of the payload array at least
+     */
+    public void reserve(int capacity) {
+        if (payload.length < capacity) payload = Arrays.copyOf(payload, capacity);
+    }
+
+    /**
+     * Start a new group.
+     *
+     * @param snBase sequence number of the first packet
+     * @param mask   protected packets, MSB corresponds to SN base
+     */
+    public void reset(int snBase, long mask) {
+        Arrays.fill(payload, 0, length, (byte) 0);
+        length = 0;
+        count = 0;
+        this.snBase = snBase;
+        this.mask = mask;
+        lengthRecovery = 0;
+        markerRecovery = 0;
+        ptRecovery = 0;
+        tsRecovery = 0;
+        protectionLength = 0;
+        level1 = null;
+        level1Mask = 0;
+    }
+
+    /**
+     * Change the protected packets, e.g. for a group closed before it is
+     * complete.
+     *
+     * @param mask protected packets, MSB corresponds to SN base
+     */
+    public void setMask(long mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * Add a media packet to the group.
+     *
+     * @param packet RTP packet between position and limit, not modified
+     */
+    public void add(ByteBuffer packet) {
+        int start = packet.position();
+        int payloadLength = packet.remaining() - RTPpacket.HEADER_SIZE;
+        if (payloadLength > payload.length) payload = Arrays.copyOf(payload, payloadLength);
+        XorEngine.xor(payload, packet, start + RTPpacket.HEADER_SIZE, payloadLength);
+        length = Math.max(length, payloadLength);
+
+        // Header XOR -> M, PT, TS, length
+        int markerAndType = packet.get(start + 1);
+        markerRecovery ^= (markerAndType >> 7) & 1;
+        ptRecovery ^= markerAndType & 0x7F;
+        timestamp = packet.getInt(start + 4);
+        tsRecovery ^= timestamp;
+        lengthRecovery ^= payloadLength;
+        count++;
+    }
+
+    /**
+     * @return number of packets in the group
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Protect only the first bytes of the payloads at level 0. The bytes
+     * behind are protected at level 1 together with another group, so they
+     * get one FEC packet for both groups. The other group has to be written
+     * after this one.
+     *
+     * @param protectionLength bytes protected at level 0, at least 1
+     * @param level1           group added at level 1, null for level 0 only
+     * @param level1Mask       packets of both groups, MSB corresponds to SN base
+     */
+    public void setUlp(int protectionLength, FecAccumulator level1, long level1Mask) {
+        this.protectionLength = protectionLength;
+        this.level1 = level1;
+        this.level1Mask = level1Mask;
+    }
+
+    /**
+     * Write the FEC packet including RTP header.
+     *
+     * @param dst   send buffer in write mode, the packet is put at its position
+     * @param seqNr sequence number of the FEC packet
+     */
+    public void write(ByteBuffer dst, int seqNr) {
+        // time stamp of the last packet in the group, marker set as by RTPpacket
+        RTPpacket.putRtpHeader(dst, 1, RtpHandler.RTP_PAYLOAD_FEC, seqNr, timestamp, RtpHandler.SSRC);
+        int L = ((mask | level1Mask) << 16) != 0 ? 1 : 0; // long mask if a packet after the first 16 is protected
+        // FEC-Header
+        dst.put((byte) (L << 6));
+        dst.put((byte) (markerRecovery << 7 | ptRecovery));
+        dst.putShort((short) snBase);
+        dst.putInt(tsRecovery);
+        dst.putShort((short) lengthRecovery);
+        if (protectionLength == 0) {
+            // ULP Level 0 Header, protection length 0 as set by the FECpacket
+            putLevelHeader(dst, L, 0, mask);
+            dst.put(payload, 0, length);
+            return;
+        }
+
+        // shorter payloads are padded with zeros
+        int end = level1 == null ? protectionLength : Math.max(protectionLength, Math.max(length, level1.length));
+        if (end > payload.length) payload = Arrays.copyOf(payload, end);
+        putLevelHeader(dst, L, protectionLength, mask);
+        dst.put(payload, 0, protectionLength);
+        if (end > protectionLength) {
+            if (level1.length > protectionLength) {
+                XorEngine.xor(payload, protectionLength, level1.payload, protectionLength,
+                        level1.length - protectionLength);
+            }
+            length = end; // cleared with the next group
+            putLevelHeader(dst, L, end - protectionLength, level1Mask);
+            dst.put(payload, protectionLength, end - protectionLength);
+        }
+    }
+
+    private static void putLevelHeader(ByteBuffer dst, int L, int protectionLength, long mask) {
+        dst.putShort((short) protectionLength);
+        dst.putShort((short) (mask >>> 48));
+        if (L == 1) dst.putInt((int) (mask >>> 16));
+    }
+}
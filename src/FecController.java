@@ -0,0 +1,147 @@
+import java.util.Arrays;
+
+/**
+ * Chooses the FEC group size of a session from the receiver reports.
+ * <p>
+ * A group of k media packets and m FEC packets can restore m lost packets,
+ * one with the XOR parity and up to m with Reed-Solomon, so the group size
+ * trades the bandwidth overhead m/k against the residual loss. The losses
+ * are modeled as a Gilbert channel: the loss rate and the mean burst length
+ * reported by the client determine the probabilities to change between a
+ * good state without and a bad state with losses. For every group size the distribution of the losses in a
+ * group is computed, from which follows the part of the media packets which
+ * cannot be restored and the probability to lose a frame. The controller
+ * takes the largest group size which keeps the frame loss below the target.
+ * <p>
+ * The reported values are smoothed, and the new size is applied by the
+ * {@link FecHandler} with the next group, so the groups in flight keep
+ * their size and stay decodable.
+ */
+public class FecController {
+    static final int MIN_GROUP_SIZE = 2;
+    private static final double SMOOTHING = 0.3; // weight of a new report
+
+    private final double targetFrameLoss;
+    private final int repairPackets; // m, 1 for the XOR parity
+    private double lossRate = 0.0; // smoothed
+    private double burstLength = 1.0; // smoothed
+    private int reports = 0; // evaluated receiver reports
+    private int groupSize;
+
+    /**
+     * @param targetFrameLoss  maximum part of the frames which may be lost after the FEC correction
+     * @param initialGroupSize group size until the first receiver report
+     * @param repairPackets    FEC packets per group, which restore as many lost packets
+     */
+    public FecController(double targetFrameLoss, int initialGroupSize, int repairPackets) {
+        this.targetFrameLoss = targetFrameLoss;
+        this.groupSize = initialGroupSize;
+        this.repairPackets = repairPackets;
+    }
+
+    /**
+     * Update the group size with the latest receiver report.
+     *
+     * @param feedback        reception quality reported by the client
+     * @param packetsPerFrame mean number of media packets of a frame
+     * @return new group size
+     */
+    public int update(ReceptionFeedback feedback, double packetsPerFrame) {
+        if (feedback.reports == reports) return groupSize; // no new report
+        reports = feedback.reports;
+        lossRate += SMOOTHING * (feedback.fractionLost - lossRate);
+        burstLength += SMOOTHING * (feedback.meanBurstLength - burstLength);
+        groupSize = chooseGroupSize(repairPackets, lossRate, burstLength, packetsPerFrame, targetFrameLoss);
+        return groupSize;
+    }
+
+    /**
+     * @return current group size
+     */
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    /**
+     * @param repairPackets   FEC packets per group
+     * @param lossRate        part of the packets lost in the channel
+     * @param burstLength     mean number of consecutive lost packets, at least 1
+     * @param packetsPerFrame mean number of media packets of a frame
+     * @param targetFrameLoss maximum part of the frames lost after the FEC correction
+     * @return largest group size reaching the target, the minimum size if none does
+     */
+    static int chooseGroupSize(int repairPackets, double lossRate, double burstLength, double packetsPerFrame,
+                               double targetFrameLoss) {
+        for (int k = FecHandler.maxGroupSize; k > MIN_GROUP_SIZE; k--) {
+            double residual = residualLoss(k, repairPackets, lossRate, burstLength);
+            double frameLoss = 1 - Math.pow(1 - residual, Math.max(1, packetsPerFrame));
+            if (frameLoss <= targetFrameLoss) return k;
+        }
+        return MIN_GROUP_SIZE;
+    }
+
+    /**
+     * Compute the part of the packets which is lost after the FEC correction
+     * in a Gilbert channel. All lost packets of a group with more losses
+     * than FEC packets are not restored.
+     *
+     * @param k           group size, number of media packets per group
+     * @param m           FEC packets per group
+     * @param lossRate    part of the packets lost in the channel
+     * @param burstLength mean number of consecutive lost packets, at least 1
+     * @return residual loss rate
+     */
+    static double residualLoss(int k, int m, double lossRate, double burstLength) {
+        if (lossRate <= 0) return 0;
+        if (lossRate >= 1) return 1;
+        int n = k + m; // media packets and the FEC packets
+        double r = 1 / Math.max(1, burstLength); // bad -> good
+        double p = Math.min(1, lossRate * r / (1 - lossRate)); // good -> bad, keeps the loss rate
+
+        // probability of [state][lost packets] after each packet of the group
+        double[][] dist = new double[2][n + 1];
+        double[][] next = new double[2][n + 1];
+        dist[0][0] = 1 - lossRate; // first packet in the stationary distribution
+        dist[1][1] = lossRate;
+        for (int i = 1; i < n; i++) {
+            for (double[] row : next) Arrays.fill(row, 0);
+            for (int lost = 0; lost <= i; lost++) {
+                next[0][lost] += dist[0][lost] * (1 - p) + dist[1][lost] * r;
+                next[1][lost + 1] += dist[0][lost] * p + dist[1][lost] * (1 - r);
+            }
+            double[][] swap = dist;
+            dist = next;
+            next = swap;
+        }
+
+        double unrestored = 0; // expected number of packets per group
+        for (int lost = m + 1; lost <= n; lost++) {
+            unrestored += lost * (dist[0][lost] + dist[1][lost]);
+        }
+        return unrestored / n;
+    }
+
+    /**
+     * Print the chosen group sizes for some channels.
+     *
+     * @param args [packets per frame] [target frame loss] [FEC packets per group]
+     */
+    public static void main(String[] args) {
+        double packetsPerFrame = args.length > 0 ? Double.parseDouble(args[0]) : 6;
+        double target = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+        int m = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        double[] bursts = {1, 1.5, 2, 4};
+        System.out.println("group size for " + packetsPerFrame + " packets/frame, frame loss <= " + target
+                + ", " + m + " FEC packets per group");
+        System.out.print("loss   ");
+        for (double b : bursts) System.out.printf(" burst %-4.1f", b);
+        System.out.println();
+        for (double loss : new double[]{0, 0.001, 0.005, 0.01, 0.02, 0.05, 0.1, 0.2}) {
+            System.out.printf("%5.1f%% ", loss * 100);
+            for (double b : bursts) {
+                System.out.printf(" %10d", chooseGroupSize(m, loss, b, packetsPerFrame, target));
+            }
+            System.out.println();
+        }
+    }
+}
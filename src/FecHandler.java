@@ -1,6 +1,6 @@
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,38 +19,70 @@ public class FecHandler {
     static final int MJPEG = 26;
     // *** FEC Parameters -> Sender ************
     static final int maxGroupSize = 48;
-    RTPpacket rtp;
-    FECpacket fec;
-    // Receiver
-    HashMap<Integer, FECpacket> fecStack = new HashMap<>(); // list of fec packets
-    HashMap<Integer, Integer> fecNr = new HashMap<>(); // Snr of corresponding fec packet
-    HashMap<Integer, List<Integer>> fecList = new HashMap<>(); // list of involved media packets
-    int playCounter = 0; // SNr of RTP-packet to play next, initialized with first received packet
-    int FEC_PT = 127; // Type for FEC
+    FecAccumulator rowFec; // Sender: current group of consecutive packets
+    // 2D parity: column FEC over the packets spaced by the group size (SMPTE 2022-1)
+    int depth = 0; // Sender: rows of a block, column FEC only if at least 2
+    int blockDepth = 1; // Sender: rows of the current block
+    int blockCounter; // Sender: packets in the current block
+    FecAccumulator[] columnFec; // Sender: created with the first block of several rows
+    ArrayDeque<FecAccumulator> readyPackets = new ArrayDeque<>(); // Sender: completed rows and columns
+    // unequal error protection: the first bytes of a row get a FEC packet per half row (RFC 5109, ULP level 0)
+    int ulpPrefix = -1; // Sender: bytes protected per half row besides the RFC 2435 headers, -1 disables
+    boolean rowUlp; // Sender: current row uses two levels
+    int rowProtection; // Sender: protection length of level 0 in the current row
+    FecAccumulator ulpFec; // Sender: level 0 of the second half row
+    int mtu = RtpHandler.DEFAULT_MTU; // Sender: size of the accumulators, no packet is longer
+    int groupFrames = 0; // Sender: rows and blocks end with every n-th frame at the latest, 0 disables
+    // staggered rows: a FEC packet after every k packets protects the last s * k packets
+    int stagger = 1; // Sender: rows protecting each packet, 1 for consecutive rows
+    int rowStagger = 1; // Sender: staggered rows of the current block, limited by the 48 bit mask
+    int staggerCounter; // Sender: packets since the staggered rows started
+    FecAccumulator[] staggerFec; // Sender: open staggered rows, the oldest ends next
+    int frameCounter; // Sender: completed frames since the last frame end
+    // Receiver: ring of the FEC groups, indexed by their number in the order of reception
+    static final int GROUP_SLOTS = 1024; // more than the packets between FEC reception and playout
+    static final int LEVEL0 = 0; // group of a FEC packet, any mask: rows, columns, staggered rows
+    static final int TAIL = 1; // ULP level 1: bytes behind the protection length of level 0
+    static final int PROTECTING = 8; // groups kept per media packet, e.g. two staggered rows, column, level 1
+    static final int FEC_HEADER_SIZE = 10; // behind the RTP header
+    byte[][] groupData; // protected bytes of each group, copied from the FEC packet; reused with the slot
+    int[] groupSize; // protected bytes in groupData
+    int[] groupId; // number of the group in each slot, 0 if the slot is free
+    int[] groupType; // LEVEL0 or TAIL
+    int[] groupBase; // extended SN base of each group
+    long[] groupMask; // protected packets of each group, MSB corresponds to SN base
+    int[] groupLength; // protection length of level 0, 0 for the whole payload
+    int[] groupRecovery; // M and PT recovery of the FEC header (second byte)
+    int[] groupTimestamp; // TS recovery
+    int[] groupLengthRecovery; // length recovery
+    int[] protectingGroups; // numbers of the groups protecting a media packet, PROTECTING per slot, 0 if none
+    int[] pendingGroups = new int[64]; // Receiver: work list of the peeling decoder
+    int pending; // Receiver: groups in the work list
+    int[] restoredNumbers = new int[64]; // Receiver: restored packets, not yet taken
+    int restoredCount;
+    static final int RESTORE_BUFFERS = 2 * maxGroupSize; // pooled buffers for the restored packets
+    ByteBufferPool restoreBuffers; // Receiver: buffers of the restored packets
+    JitterBuffer restoredPackets; // media packets restored from the groups
+    JitterBuffer prefixPackets; // media packets restored up to the protection length of level 0
+    int[] prefixLength; // restored bytes of the payload, by slot of the prefix packets
+    int nextGroupId = 1;
+    int oldestGroupId = 1; // groups with a lower number are evicted
+    int evictedBefore = Integer.MIN_VALUE; // groups ending before this extended SN are played
     int fecSeqNr; // Sender: increased by one, starting from 0
-    int lastReceivedSeqNr; // Receiver: last received media packet
     int fecGroupSize; // FEC group size
+    volatile int nextGroupSize; // Sender: group size from the next group on
     int fecGroupCounter;
 
     // -> Receiver
     boolean useFec;
 
-    // Error Concealment
-    byte[] lastPayload = {1};
-
-    // *** Statistics for media packets ********
-    int nrReceived; // count only media at receiver
-    int nrLost; // media missing, play loop
-    int nrCorrected; // play loop
-    int nrNotCorrected; // play loop
-    int nrFramesRequested; // Video Frame
-    int nrFramesLost; // Video Frame
-
     /**
      * Constructor for Sender
      */
     public FecHandler(int size) {
         fecGroupSize = size;
+        nextGroupSize = size;
+        rowFec = new FecAccumulator(mtu);
     }
 
     /**
@@ -60,207 +92,662 @@ public class FecHandler {
      */
     public FecHandler(boolean useFec) {
         this.useFec = useFec;
+        groupData = new byte[GROUP_SLOTS][];
+        groupSize = new int[GROUP_SLOTS];
+        groupId = new int[GROUP_SLOTS];
+        groupType = new int[GROUP_SLOTS];
+        groupBase = new int[GROUP_SLOTS];
+        groupMask = new long[GROUP_SLOTS];
+        groupLength = new int[GROUP_SLOTS];
+        groupRecovery = new int[GROUP_SLOTS];
+        groupTimestamp = new int[GROUP_SLOTS];
+        groupLengthRecovery = new int[GROUP_SLOTS];
+        protectingGroups = new int[PROTECTING * GROUP_SLOTS];
+        restoredPackets = new JitterBuffer(GROUP_SLOTS);
+        prefixPackets = new JitterBuffer(GROUP_SLOTS);
+        prefixLength = new int[GROUP_SLOTS];
+        restoreBuffers = new ByteBufferPool(RtpHandler.RECEIVE_BUFFER_SIZE, RESTORE_BUFFERS, false);
     }
 
     // *************** Sender SET *******************************************************************
 
     /**
-     * *** Sender *** Saves the involved RTP packets to build the FEC packet
+     * *** Sender *** XORs the RTP packet into its row and column. The
+     * completed FEC packets have to be fetched before the next packet.
      *
-     * @param rtp RTPpacket
-     */
-    public void setRtp(RTPpacket rtp) {
-        // init new FEC packet if necessary
-        if (fec == null) {
-            fec =
-                    new FECpacket(
-                            FEC_PT, fecSeqNr, rtp.gettimestamp(), fecGroupSize, rtp.getsequencenumber());
-            fec.setUlpLevelHeader(0, 0, fecGroupSize);
+     * @param packet RTP packet between position and limit, not modified
+     */
+    public void setRtp(ByteBuffer packet) {
+        int seqNr = packet.getShort(packet.position() + 2) & 0xFFFF;
+        if (blockCounter == 0) {
+            int rows = Math.max(1, Math.min(stagger, maxGroupSize / nextGroupSize));
+            if (staggerCounter > 0 && (nextGroupSize != fecGroupSize || rows != rowStagger)) closeWindows();
+            fecGroupSize = nextGroupSize; // change the size only between blocks
+            rowStagger = rows;
+            if (rowStagger > 1 && (staggerFec == null || staggerFec.length < rowStagger)) {
+                staggerFec = new FecAccumulator[rowStagger];
+                for (int i = 0; i < rowStagger; i++) staggerFec[i] = new FecAccumulator(mtu);
+            }
+            // the column mask of D rows spans (D - 1) * size + 1 packets
+            blockDepth = depth < 2 ? 1 : Math.min(depth, (maxGroupSize - 1) / fecGroupSize + 1);
+            if (blockDepth > 1 && columnFec == null) {
+                columnFec = new FecAccumulator[maxGroupSize];
+                for (int i = 0; i < maxGroupSize; i++) columnFec[i] = new FecAccumulator(mtu);
+            }
+        }
+
+        if (rowStagger > 1) {
+            addStaggered(packet, seqNr);
+        } else {
+            addRow(packet, seqNr);
+        }
+
+        if (blockDepth > 1) {
+            int column = blockCounter % fecGroupSize;
+            if (blockCounter < fecGroupSize) columnFec[column].reset(seqNr, columnMask(blockDepth)); // first row
+            columnFec[column].add(packet);
+            if (blockCounter >= (blockDepth - 1) * fecGroupSize) readyPackets.add(columnFec[column]); // last row
         }
+        blockCounter++;
+        if (blockCounter == blockDepth * fecGroupSize) blockCounter = 0;
+
+        // frame alignment: the FEC packets of a frame follow its last packet
+        if (groupFrames > 0 && packet.get(packet.position() + 1) < 0 && ++frameCounter == groupFrames) {
+            frameCounter = 0;
+            if (fecGroupCounter > 0) closeRow();
+            if (staggerCounter > 0) closeWindows();
+            if (blockCounter > 0) closeBlock();
+        }
+    }
 
+    private void addRow(ByteBuffer packet, int seqNr) {
+        // init new FEC group if necessary, MSB of the mask corresponds to the first packet
+        int half = (fecGroupSize + 1) / 2;
+        if (fecGroupCounter == 0) {
+            rowUlp = ulpPrefix >= 0 && fecGroupSize >= 2;
+            rowFec.reset(seqNr, -1L << (Long.SIZE - (rowUlp ? half : fecGroupSize)));
+            rowProtection = Math.max(1, ulpPrefix);
+        }
+        if (rowUlp) {
+            int start = packet.position();
+            if ((packet.get(start + 1) & 0x7F) == MJPEG) { // main header and quantization tables at level 0
+                rowProtection = Math.max(rowProtection,
+                        ulpPrefix + JpegFrame.getRfc2435HeaderLength(packet, start + RTPpacket.HEADER_SIZE));
+            }
+            // a media packet is at most this long, a longer level 0 would not fit the MTU
+            rowProtection = Math.min(rowProtection, mtu - RtpHandler.IP_UDP_HEADER_SIZE - RTPpacket.HEADER_SIZE
+                    - RtpHandler.FEC_OVERHEAD - RtpHandler.FEC_LEVEL1_OVERHEAD);
+        }
+        if (rowUlp && fecGroupCounter >= half) {
+            if (ulpFec == null) ulpFec = new FecAccumulator(mtu);
+            if (fecGroupCounter == half) ulpFec.reset(seqNr, -1L << (Long.SIZE - (fecGroupSize - half)));
+            ulpFec.add(packet);
+        } else {
+            rowFec.add(packet);
+        }
         fecGroupCounter++; // count the packets in the group
-        fec.TimeStamp = rtp.gettimestamp(); // adjust the time stamp to the last packet in the group
-        fec.addRtp(rtp);
+        if (fecGroupCounter == fecGroupSize) closeRow();
+    }
+
+    /**
+     * Add a packet to all open staggered rows. Row w covers the packets
+     * w * k ... (w + s) * k - 1, so each packet is in s rows and a row ends
+     * after every k packets. The rows open at the start are shorter.
+     */
+    private void addStaggered(ByteBuffer packet, int seqNr) {
+        if (staggerCounter == 0) {
+            for (int w = 1 - rowStagger; w <= 0; w++) {
+                staggerFec[Math.floorMod(w, rowStagger)].reset(seqNr, -1L << (Long.SIZE - (w + rowStagger) * fecGroupSize));
+            }
+        } else if (staggerCounter % fecGroupSize == 0) { // replaces the row ended before
+            staggerFec[staggerCounter / fecGroupSize % rowStagger].reset(seqNr,
+                    -1L << (Long.SIZE - rowStagger * fecGroupSize));
+        }
+        for (int i = 0; i < rowStagger; i++) staggerFec[i].add(packet);
+        staggerCounter++;
+        if (staggerCounter % fecGroupSize == 0) readyPackets.add(staggerFec[staggerCounter / fecGroupSize % rowStagger]);
+    }
+
+    /**
+     * End all open staggered rows with the current packet. Rows with the
+     * same packets, which started together, are sent once.
+     */
+    private void closeWindows() {
+        long sent = 0; // bit per number of packets
+        if (staggerCounter % fecGroupSize == 0) { // the oldest row has just ended
+            sent = 1L << staggerFec[staggerCounter / fecGroupSize % rowStagger].size();
+        }
+        for (int i = 0; i < rowStagger; i++) {
+            int size = staggerFec[i].size();
+            if ((sent & 1L << size) != 0) continue;
+            sent |= 1L << size;
+            staggerFec[i].setMask(-1L << (Long.SIZE - size));
+            readyPackets.add(staggerFec[i]);
+        }
+        staggerCounter = 0;
     }
 
     /**
-     * @return True, if all RTP-packets of the group are handled
+     * Complete the current row, also before it has the group size.
+     */
+    private void closeRow() {
+        int half = (fecGroupSize + 1) / 2;
+        rowFec.setMask(-1L << (Long.SIZE - Math.min(fecGroupCounter, rowUlp ? half : fecGroupSize)));
+        readyPackets.add(rowFec);
+        if (rowUlp && fecGroupCounter > half) {
+            // the first FEC packet protects the remaining bytes of the whole row at level 1
+            ulpFec.setMask(-1L << (Long.SIZE - (fecGroupCounter - half)));
+            rowFec.setUlp(rowProtection, ulpFec, -1L << (Long.SIZE - fecGroupCounter));
+            ulpFec.setUlp(rowProtection, null, 0);
+            readyPackets.add(ulpFec);
+        }
+        fecGroupCounter = 0;
+    }
+
+    /**
+     * Complete the columns of a block which ends before its last row.
+     * Columns of a single packet are left out, the row protects it.
+     */
+    private void closeBlock() {
+        int rows = blockCounter / fecGroupSize; // complete rows
+        int rest = blockCounter % fecGroupSize; // packets in the last row
+        for (int column = 0; column < Math.min(fecGroupSize, blockCounter); column++) {
+            int packets = rows + (column < rest ? 1 : 0);
+            if (packets < 2 || packets == blockDepth) continue; // complete columns are sent already
+            columnFec[column].setMask(columnMask(packets));
+            readyPackets.add(columnFec[column]);
+        }
+        blockCounter = 0;
+    }
+
+    /**
+     * @param rows packets of the column
+     * @return mask of a column, the packets are spaced by the group size
+     */
+    private long columnMask(int rows) {
+        long mask = 0;
+        for (int row = 0; row < rows; row++) {
+            mask |= 0x8000000000000000L >>> (row * fecGroupSize);
+        }
+        return mask;
+    }
+
+    /**
+     * @return True, if all RTP-packets of a row or column are handled
      */
     public boolean isReady() {
-        return (fecGroupCounter == fecGroupSize);
+        return !readyPackets.isEmpty();
     }
 
     /**
-     * *** Sender *** Builds the FEC-RTP-Packet and resets the FEC-group
+     * *** Sender *** Writes the next completed FEC-RTP-Packet
      *
-     * @return Bitstream of FEC-Packet including RTP-Header
+     * @param dst send buffer in write mode, receives the FEC packet including RTP header
      */
-    public byte[] getPacket() {
-        // fec.printHeaders();
-        // Adjust and reset all involved variables
-        fecSeqNr++;
-        fecGroupCounter = 0;
-        byte[] buf = fec.getpacket();
-        fec = null; // reset fec
-        return buf;
+    public void getPacket(ByteBuffer dst) {
+        readyPackets.poll().write(dst, fecSeqNr++ & 0xFFFF); // in the order of sending
     }
 
     /**
-     * Reset of fec group and variables
+     * *** Sender *** Size the accumulators for the packets of the session,
+     * so they do not grow while streaming.
+     *
+     * @param mtu maximum size of the IP packets
      */
-    private void clearSendGroup() {
-        // egalTODO
+    public void setMtu(int mtu) {
+        this.mtu = mtu;
+        rowFec.reserve(mtu);
+        for (FecAccumulator[] accumulators : new FecAccumulator[][]{staggerFec, columnFec}) {
+            if (accumulators != null) for (FecAccumulator fec : accumulators) fec.reserve(mtu);
+        }
+        if (ulpFec != null) ulpFec.reserve(mtu);
     }
 
     /**
-     * *** Sender *** Posibility to set the group at run time
+     * *** Sender *** Posibility to set the group at run time. The current
+     * group is completed with the old size, so it stays decodable.
      *
      * @param size FEC Group
      */
     public void setFecGroupSize(int size) {
-        fecGroupSize = size;
+        nextGroupSize = size;
     }
 
-    // *************** Receiver PUT *****************************************************************
-
     /**
-     * Handles and store a recieved FEC packet
+     * *** Sender *** Enable the 2D parity: additional column FEC packets
+     * over the packets spaced by the group size, from the next block on.
+     * Bursts of up to one row are restored together with the row FEC.
      *
-     * @param rtp the received FEC-RTP
+     * @param depth rows of a block, limited by the 48 bit mask, less than 2 disables the columns
      */
-    public void rcvFecPacket(RTPpacket rtp) {
-        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-        // build fec from rtp
-        fec = new FECpacket(rtp.getpacket(), rtp.getpacket().length);
-        // DoneTASK remove comment for debugging
-        // fec.printHeaders();
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
 
-        // stores fec
-        int seqNrFec = fec.getsequencenumber();
-        fecSeqNr = seqNrFec; // for deletion of fec storage
-        fecStack.put(seqNrFec, fec);
+    /**
+     * *** Sender *** Enable the unequal error protection of RFC 5109: the
+     * first bytes of the packets, at least the RFC 2435 headers with the
+     * quantization tables of the first fragment, are protected by a FEC
+     * packet per half row at level 0. The remaining bytes of the row share
+     * one FEC packet at level 1, so the second FEC packet of a row is short.
+     *
+     * @param prefix bytes behind the RFC 2435 headers protected at level 0, -1 disables
+     */
+    public void setUlp(int prefix) {
+        ulpPrefix = prefix;
+    }
 
-        // get RTP List
-        ArrayList<Integer> list = fec.getRtpList();
-        logger.log(Level.FINER, "FEC: set list: " + seqNrFec + " " + list.toString());
+    /**
+     * *** Sender *** Align the rows and blocks to frames: they end with the
+     * last packet of every n-th frame, even if they are not complete. A lost
+     * packet is then repairable with the packets of its own frames, without
+     * waiting for the following frame.
+     *
+     * @param frames frames per row at most, 0 for rows of the group size only
+     */
+    public void setGroupFrames(int frames) {
+        groupFrames = frames;
+        frameCounter = 0;
+    }
 
-        // set list to get fec packet nr
-        list.forEach((E) -> fecNr.put(E, seqNrFec)); // FEC-packet
-        list.forEach((E) -> fecList.put(E, list));  // list of corresponding RTP packets
+    /**
+     * *** Sender *** Stagger the rows: a FEC packet after every k packets
+     * protects the last s * k packets, so each packet is protected by s
+     * rows at the bandwidth of one. Several losses in a row are restored by
+     * peeling them off the overlapping rows. Replaces the ULP levels.
+     *
+     * @param rows rows protecting each packet, limited by the 48 bit mask, 1 for consecutive rows
+     */
+    public void setStagger(int rows) {
+        stagger = rows;
     }
 
-    // *************** Receiver GET *****************************************************************
+    // *************** Receiver PUT *****************************************************************
 
     /**
-     * Checks if the RTP packet is reparable
+     * Handles and store a recieved FEC packet. The SN base is extended like
+     * the sequence numbers of the media packets, so the group is found by
+     * the extended sequence numbers of its packets. A FEC packet with ULP
+     * level 1 forms a second group for the bytes behind the protection
+     * length. The new groups are checked by the next {@link #recover}.
+     * The headers are read in the receive buffer, only the protected bytes
+     * are copied into the slots of the groups, so the buffer can be
+     * released afterwards.
      *
-     * @param nr Sequence Nr.
-     * @return true if possible
+     * @param packet       the received FEC-RTP packet
+     * @param mediaPackets received media packets, to extend the SN base
+     * @return extended sequence number of the last protected packet, -1 if the packet is not used
      */
-    public boolean checkCorrection(int nr, HashMap<Integer, RTPpacket> mediaPackets) {
-        FECpacket fecPacketForSn = fecStack.get(fecNr.get(nr));
-        if (fecPacketForSn == null) return false;
-        System.out.println("checkCorrection: FEC packet found for seqNr: " + nr);
+    public int rcvFecPacket(RtpPacketView packet, JitterBuffer mediaPackets) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        byte[] data = packet.array();
+        int p = packet.getPayloadStart(); // FEC header
+        int limit = p + packet.getPayloadLength();
+        int ulpHeaderSize = (data[p] & 0x40) != 0 ? 8 : 4; // long mask if L is set
+        if (limit < p + FEC_HEADER_SIZE + ulpHeaderSize) return -1;
+
+        int base = mediaPackets.extend(readInt(data, p + 2, 2));
+        int protection = readInt(data, p + FEC_HEADER_SIZE, 2);
+        long mask = readMask(data, p + FEC_HEADER_SIZE + 2, ulpHeaderSize);
+        if (mask == 0 || base + lastOffset(mask) < evictedBefore) return -1; // too late, the group is already played
+        int start = p + FEC_HEADER_SIZE + ulpHeaderSize;
+        int end = protection > 0 ? Math.min(start + protection, limit) : limit;
+        int slot = addGroup(LEVEL0, base, mask, protection, data, start, end - start);
+        groupRecovery[slot] = data[p + 1] & 0xFF;
+        groupTimestamp[slot] = readInt(data, p + 4, 4);
+        groupLengthRecovery[slot] = readInt(data, p + 8, 2);
+
+        long mask1 = 0;
+        if (protection > 0 && end + ulpHeaderSize <= limit) { // level 1 header follows the protected bytes
+            mask1 = readMask(data, end + 2, ulpHeaderSize);
+            int start1 = end + ulpHeaderSize;
+            int end1 = Math.min(start1 + readInt(data, end, 2), limit);
+            if (mask1 != 0) addGroup(TAIL, base, mask1, protection, data, start1, end1 - start1);
+        }
+        if (logger.isLoggable(Level.FINER)) {
+            logger.log(Level.FINER, "FEC: set group: " + packet.getSequenceNumber() + " base " + base
+                    + " mask " + Long.toHexString(mask));
+        }
+        return base + lastOffset(mask | mask1);
+    }
 
-        List<Integer> rtpSeqNrGroup = fecList.get(nr);
-        if (rtpSeqNrGroup == null) return false;
-        System.out.println("checkCorrection: rtpSeqNrGroup: " + rtpSeqNrGroup.toString());
-        rtpSeqNrGroup.removeIf(seqNr -> seqNr == nr);
-        if (rtpSeqNrGroup.isEmpty()) return false;
-        System.out.println("checkCorrection: rtpSeqNrGroupRest: " + rtpSeqNrGroup.toString());
+    /**
+     * Read an unsigned big-endian number.
+     */
+    private static int readInt(byte[] data, int pos, int n) {
+        int value = 0;
+        for (int i = 0; i < n; i++) value = value << 8 | (data[pos + i] & 0xFF);
+        return value;
+    }
 
-        System.out.println("checkCorrection: mediaPackets.keySet(): " + mediaPackets.keySet().toString());
+    /**
+     * @return mask of a ULP level header, MSB corresponds to SN base
+     */
+    private static long readMask(byte[] data, int pos, int ulpHeaderSize) {
+        long mask = 0;
+        for (int i = 0; i < ulpHeaderSize - 2; i++) mask |= (data[pos + i] & 0xFFL) << (56 - 8 * i);
+        return mask;
+    }
 
-        return mediaPackets.keySet().containsAll(rtpSeqNrGroup);
+    /**
+     * @return slot of the new group
+     */
+    private int addGroup(int type, int base, long mask, int protectionLength, byte[] data, int start, int length) {
+        int id = nextGroupId++;
+        int slot = id & (GROUP_SLOTS - 1); // overwrites a group at least GROUP_SLOTS groups older
+        if (groupData[slot] == null || groupData[slot].length < length) {
+            groupData[slot] = new byte[Math.max(length, RtpHandler.DEFAULT_MTU)];
+        }
+        System.arraycopy(data, start, groupData[slot], 0, length);
+        groupSize[slot] = length;
+        oldestGroupId = Math.max(oldestGroupId, id - GROUP_SLOTS + 1);
+        groupId[slot] = id;
+        groupType[slot] = type;
+        groupBase[slot] = base;
+        groupMask[slot] = mask;
+        groupLength[slot] = protectionLength;
+        for (int i = 0; i < maxGroupSize; i++) {
+            if ((mask << i) >= 0) continue;
+            // replaces a group which is evicted or protects an older packet of the slot, else the oldest
+            int first = PROTECTING * ((base + i) & (GROUP_SLOTS - 1));
+            int entry = first;
+            for (int e = first; e < first + PROTECTING; e++) {
+                if (!protects(protectingGroups[e], base + i)) {
+                    entry = e;
+                    break;
+                }
+                if (protectingGroups[e] < protectingGroups[entry]) entry = e;
+            }
+            protectingGroups[entry] = id;
+        }
+        addPending(id);
+        return slot;
     }
 
     /**
-     * Build an RTP packet from FEC and group
+     * Queue the groups of a received media packet for the next
+     * {@link #recover}: if it arrives behind their FEC packet, it may leave
+     * a single missing packet there.
      *
-     * @param nr Sequence Nr.
-     * @return RTP packet
+     * @param nr extended sequence number of the media packet
      */
-    public RTPpacket correctRtp(int nr, HashMap<Integer, RTPpacket> mediaPackets) {
-        //DoneTASK complete this method!
-        Integer fecPacketNumber = fecNr.get(nr);
-        FECpacket fecPacket = fecStack.get(fecPacketNumber);
-
-        List<Integer> rtpSeqNrGroup = fecList.get(nr);
-        rtpSeqNrGroup.removeIf((seqNr) -> seqNr == nr);
+    public void mediaReceived(int nr) {
+        addProtectingGroups(nr);
+    }
 
-        for (int rtpSeqNr : rtpSeqNrGroup) {
-//            System.out.println("correctRtp: mediaPacket: " + mediaPackets.get(rtpSeqNr));
-            fecPacket.addRtp(mediaPackets.get(rtpSeqNr));
+    private void addProtectingGroups(int nr) {
+        int first = PROTECTING * (nr & (GROUP_SLOTS - 1));
+        for (int e = first; e < first + PROTECTING; e++) {
+            if (protects(protectingGroups[e], nr)) addPending(protectingGroups[e]);
         }
+    }
+
+    private void addPending(int id) {
+        if (pending == pendingGroups.length) pendingGroups = Arrays.copyOf(pendingGroups, 2 * pending);
+        pendingGroups[pending++] = id;
+    }
+
+    /**
+     * @param mask protected packets, MSB corresponds to SN base
+     * @return distance of the last protected packet from the SN base
+     */
+    private static int lastOffset(long mask) {
+        return Long.SIZE - 1 - Long.numberOfTrailingZeros(mask);
+    }
 
-        return fecPacket.getLostRtp(nr);
+    /**
+     * @param id group number, 0 for none
+     * @param nr extended sequence number of a media packet
+     * @return true if the group is not evicted and protects the packet
+     */
+    private boolean protects(int id, int nr) {
+        int slot = id & (GROUP_SLOTS - 1);
+        int offset = nr - groupBase[slot];
+        if (id == 0 || groupId[slot] != id || offset < 0 || offset >= maxGroupSize) {
+            return false;
+        }
+        return (groupMask[slot] << offset) < 0; // the packet is part of the group
     }
 
     /**
-     * It is necessary to clear all data structures
+     * Find a group in which a media packet is the only missing one and
+     * which restores it completely.
      *
-     * @param nr Media Sequence Nr.
+     * @param nr           extended sequence number of the media packet
+     * @param mediaPackets received media packets
+     * @return slot of the group, -1 if there is none
      */
-    private void clearStack(int nr) {
-        fecStack.clear();
-        fecList.remove(nr);
+    private int findCorrectingGroup(int nr, JitterBuffer mediaPackets) {
+        int first = PROTECTING * (nr & (GROUP_SLOTS - 1));
+        for (int e = first; e < first + PROTECTING; e++) {
+            int id = protectingGroups[e];
+            int slot = id & (GROUP_SLOTS - 1);
+            if (!protects(id, nr) || groupType[slot] != LEVEL0 || groupLength[slot] != 0) continue;
+            long missing = missingPackets(slot, mediaPackets);
+            if (missing == Long.MIN_VALUE >>> (nr - groupBase[slot])) return slot; // also a group of this packet only
+        }
+        return -1;
     }
 
-    // *************** Receiver Statistics ***********************************************************
+    /**
+     * @return packets of the group which are neither received nor restored,
+     * for level 0 with a protection length also not restored up to it
+     */
+    private long missingPackets(int slot, JitterBuffer mediaPackets) {
+        int base = groupBase[slot];
+        long known = mediaPackets.receivedMask(base) | restoredPackets.receivedMask(base);
+        if (groupType[slot] != TAIL && groupLength[slot] > 0) {
+            known |= prefixPackets.receivedMask(base); // the prefixes of a row have the same length
+        }
+        return groupMask[slot] & ~known;
+    }
 
     /**
-     * @return Latest (highest) received sequence number
+     * Release the groups and restored packets which are played.
+     *
+     * @param nr extended sequence number, groups ending before are released
      */
-    public int getSeqNr() {
-        return lastReceivedSeqNr;
+    public void evictBefore(int nr) {
+        evictedBefore = Math.max(evictedBefore, nr);
+        for (int id = oldestGroupId; id < nextGroupId; id++) {
+            int slot = id & (GROUP_SLOTS - 1);
+            if (groupId[slot] == id && groupBase[slot] + lastOffset(groupMask[slot]) >= nr) {
+                break; // the following groups end later, except columns of the same block
+            }
+            if (groupId[slot] == id) groupId[slot] = 0;
+            oldestGroupId = id + 1;
+        }
+        restoredPackets.evictBefore(nr);
+        prefixPackets.evictBefore(nr);
     }
 
+    // *************** Receiver GET *****************************************************************
+
     /**
-     * @return Amount of received media packets (stored in jitter buffer)
+     * Get a restored RTP packet, or restore it from a group in which it
+     * is the only missing packet.
+     *
+     * @param nr           extended sequence Nr.
+     * @param mediaPackets received media packets
+     * @return RTP packet, null if it cannot be restored
      */
-    public int getNrReceived() {
-        return nrReceived;
+    public RtpPacketView correctRtp(int nr, JitterBuffer mediaPackets) {
+        //DoneTASK complete this method!
+        RtpPacketView packet = restoredPackets.get(nr);
+        if (packet != null) return packet;
+        int slot = findCorrectingGroup(nr, mediaPackets);
+        return slot == -1 ? null : restore(slot, nr, mediaPackets);
     }
 
     /**
-     * @return RTP-Snr of actual frame
+     * Restore media packets with a peeling decoder: every FEC packet is an
+     * equation over the media packets of its mask. An equation with a
+     * single missing packet restores it, which may leave a single missing
+     * packet in the other groups of the restored packet; these are solved
+     * next, until no equation is left. So overlapping masks, e.g. rows and
+     * columns of the 2D parity or staggered rows, restore several losses
+     * within a group. With ULP levels, the first bytes of a packet are
+     * restored at level 0 and completed by its level 1 group. Only the
+     * groups queued since the last call are checked: new groups and the
+     * groups of received or restored packets.
+     *
+     * @param mediaPackets received media packets
+     * @return number of restored packets left for {@link #nextRestored}
      */
-    public int getPlayCounter() {
-        return playCounter;
+    public int recover(JitterBuffer mediaPackets) {
+        while (pending > 0) {
+            int id = pendingGroups[--pending];
+            int slot = id & (GROUP_SLOTS - 1);
+            if (groupId[slot] != id) continue;
+            long missing = missingPackets(slot, mediaPackets);
+            int lost = groupBase[slot] + Long.numberOfLeadingZeros(missing);
+            if (Long.bitCount(missing) != 1 || lost < evictedBefore) continue;
+            boolean restored;
+            if (groupType[slot] == TAIL) {
+                restored = restoreTail(slot, lost, mediaPackets);
+            } else { // a group of one packet, e.g. the end of a frame, carries the packet itself
+                restored = restore(slot, lost, mediaPackets) != null;
+            }
+            if (!restored) continue;
+            if (restoredCount == restoredNumbers.length) {
+                restoredNumbers = Arrays.copyOf(restoredNumbers, 2 * restoredCount);
+            }
+            restoredNumbers[restoredCount++] = lost;
+            addProtectingGroups(lost); // the other groups of the packet may have a single missing packet now
+        }
+        return restoredCount;
     }
 
     /**
-     * @return Number of lost media packets (calculated at time of display)
+     * Take a packet restored by {@link #recover}, it is available from
+     * {@link #correctRtp} or, if only its first bytes are restored, from
+     * {@link #correctPrefix} until it is evicted.
+     *
+     * @return extended sequence number of the packet, -1 if there is none left
      */
-    public int getNrLost() {
-        return nrLost;
+    public int nextRestored() {
+        return restoredCount == 0 ? -1 : restoredNumbers[--restoredCount];
     }
 
     /**
-     * @return number of corrected media packets
+     * Restore the only missing packet of a group from the FEC packet and
+     * the other packets, XORed into a pooled buffer. The group stays
+     * usable. With a protection length, a longer packet is restored only up
+     * to it and kept as prefix packet.
+     *
+     * @param slot         slot of the group
+     * @param nr           extended sequence number of the missing packet
+     * @param mediaPackets received media packets
+     * @return restored packet, kept until it is played; null if the lengths do not fit
      */
-    public int getNrCorrected() {
-        return nrCorrected;
+    private RtpPacketView restore(int slot, int nr, JitterBuffer mediaPackets) {
+        int base = groupBase[slot];
+        int protection = groupLength[slot];
+        // recovery fields of the FEC header
+        int h = RTPpacket.HEADER_SIZE;
+        int marker = groupRecovery[slot] >> 7;
+        int pt = groupRecovery[slot] & 0x7F;
+        int timestamp = groupTimestamp[slot];
+        int length = groupLengthRecovery[slot];
+        long others = groupMask[slot] & ~(Long.MIN_VALUE >>> (nr - base));
+        for (long rest = others; rest != 0; ) {
+            int i = Long.numberOfLeadingZeros(rest); // next packet of the group
+            RtpPacketView packet = knownPacket(base + i, mediaPackets);
+            marker ^= packet.getMarker();
+            pt ^= packet.getPayloadType();
+            timestamp ^= packet.getTimestamp();
+            length ^= packet.getPayloadLength();
+            rest &= ~(Long.MIN_VALUE >>> i);
+        }
+        if (RTPpacket.HEADER_SIZE + length > restoreBuffers.getBufferSize()) return null; // never sent
+
+        ByteBuffer buffer = restoreBuffers.acquire();
+        RTPpacket.putRtpHeader(buffer, marker, pt, nr & 0xFFFF, timestamp, RtpHandler.SSRC);
+        byte[] data = buffer.array();
+        int end = protection > 0 ? Math.min(length, protection) : length; // restored bytes of the payload
+        int copied = Math.min(end, groupSize[slot]); // a shorter FEC payload ends with zeros
+        System.arraycopy(groupData[slot], 0, data, h, copied);
+        Arrays.fill(data, h + copied, h + length, (byte) 0);
+        while (others != 0) {
+            int i = Long.numberOfLeadingZeros(others);
+            RtpPacketView packet = knownPacket(base + i, mediaPackets); // of a prefix packet only the protected bytes
+            int xored = Math.min(packet.getPayloadLength(), end);
+            if (xored > 0) XorEngine.xor(data, h, packet.array(), packet.getPayloadStart(), xored);
+            others &= ~(Long.MIN_VALUE >>> i);
+        }
+        buffer.position(0).limit(h + length);
+        RtpPacketView packet = new RtpPacketView(buffer, restoreBuffers);
+
+        if (end < length) {
+            prefixPackets.startAt(nr - GROUP_SLOTS / 2);
+            prefixPackets.put(packet, nr);
+            prefixLength[nr & (GROUP_SLOTS - 1)] = protection;
+            return packet;
+        }
+        restoredPackets.startAt(nr - GROUP_SLOTS / 2); // leaves room for older packets restored later
+        restoredPackets.put(packet, nr);
+        return packet;
     }
 
     /**
-     * @return Number of nor correctable media packets
+     * @return received, restored or prefix packet, null if it is missing
      */
-    public int getNrNotCorrected() {
-        return nrNotCorrected;
+    private RtpPacketView knownPacket(int nr, JitterBuffer mediaPackets) {
+        RtpPacketView packet = mediaPackets.get(nr);
+        if (packet == null) packet = restoredPackets.get(nr);
+        if (packet == null) packet = prefixPackets.get(nr);
+        return packet;
     }
 
     /**
-     * @return Number of requested but lost Video frames
+     * Complete a prefix packet with the bytes behind the protection length
+     * from its level 1 group, if it is the only incomplete packet there.
+     * The level 1 payload and the other packets are XORed into the prefix
+     * packet itself.
+     *
+     * @param slot         slot of the level 1 group
+     * @param nr           extended sequence number of the incomplete packet
+     * @param mediaPackets received media packets
+     * @return true if the packet is restored
      */
-    public int getNrFramesLost() {
-        return nrFramesLost;
+    private boolean restoreTail(int slot, int nr, JitterBuffer mediaPackets) {
+        int protection = groupLength[slot];
+        RtpPacketView packet = prefixPackets.get(nr);
+        if (packet == null || prefixLength[nr & (GROUP_SLOTS - 1)] < protection) return false;
+        int length = packet.getPayloadLength() - protection;
+        if (length > groupSize[slot]) return false; // not protected up to the end
+        byte[] data = packet.array();
+        int start = packet.getPayloadStart() + protection;
+        System.arraycopy(groupData[slot], 0, data, start, length);
+        int base = groupBase[slot];
+
+        long others = groupMask[slot] & ~(Long.MIN_VALUE >>> (nr - base));
+        while (others != 0) {
+            int i = Long.numberOfLeadingZeros(others);
+            RtpPacketView other = mediaPackets.get(base + i);
+            if (other == null) other = restoredPackets.get(base + i);
+            int xored = Math.min(other.getPayloadLength() - protection, length);
+            if (xored > 0) XorEngine.xor(data, start, other.array(), other.getPayloadStart() + protection, xored);
+            others &= ~(Long.MIN_VALUE >>> i);
+        }
+
+        restoredPackets.startAt(nr - GROUP_SLOTS / 2);
+        restoredPackets.put(packet.retain(), nr); // also kept as prefix packet until it is evicted
+        return true;
     }
 
     /**
-     * @return Number of requested Video frames
+     * Get a lost media packet of which only the bytes up to the protection
+     * length of level 0 could be restored, after {@link #recover}.
+     *
+     * @param nr extended sequence Nr.
+     * @return copy of the packet, cut after the restored bytes, null if none
      */
-    public int getNrFramesRequested() {
-        return nrFramesRequested;
+    public RtpPacketView correctPrefix(int nr) {
+        RtpPacketView packet = prefixPackets.get(nr);
+        if (packet == null || restoredPackets.contains(nr)) return null;
+        int start = packet.getPayloadStart() - RTPpacket.HEADER_SIZE;
+        int length = RTPpacket.HEADER_SIZE + Math.min(packet.getPayloadLength(), prefixLength[nr & (GROUP_SLOTS - 1)]);
+        return new RtpPacketView(ByteBuffer.wrap(Arrays.copyOfRange(packet.array(), start, start + length)), null);
     }
 }
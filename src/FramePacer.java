@@ -0,0 +1,141 @@
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dedicated thread which runs a task at a fixed frame rate.
+ * <p>
+ * The send times are absolute deadlines <code>start + n * period</code>
+ * on the {@link System#nanoTime()} clock, with the period not rounded.
+ * A late frame therefore does not shift the following ones and there is
+ * no accumulated drift. To hit a deadline the thread parks until shortly
+ * before it and spins for the rest, because parking alone wakes up too
+ * late by the timer slack of the OS. If the pacer falls behind by more
+ * than a few frames (e.g. a long GC pause), the deadlines are restarted
+ * instead of sending the missed frames in a burst.
+ */
+public class FramePacer implements Pacer, Runnable {
+    static final long SPIN_THRESHOLD = 200_000; // ns before the deadline to stop parking
+    static final int MAX_LATE_FRAMES = 5; // periods behind schedule before restarting
+
+    private final String name;
+    private final double periodNanos;
+    private final Runnable task;
+    private final JitterStatistic statistic = new JitterStatistic();
+    private volatile Thread thread; // of the current run, null if stopped
+
+    /**
+     * @param name        name of the pacer thread
+     * @param periodNanos time between two runs of the task in nanoseconds
+     * @param task        task to run, e.g. sending one frame
+     */
+    public FramePacer(String name, double periodNanos, Runnable task) {
+        this.name = name;
+        this.periodNanos = periodNanos;
+        this.task = task;
+    }
+
+    /**
+     * Start running the task, the first run is immediately.
+     * The statistic is kept when the pacer is restarted.
+     */
+    @Override
+    public synchronized void start() {
+        if (thread != null) return;
+        Thread t = new Thread(this, name);
+        t.setDaemon(true);
+        t.setPriority(Thread.MAX_PRIORITY);
+        thread = t;
+        t.start();
+    }
+
+    /**
+     * Stop running the task. Can be called from the task itself. The
+     * thread of a stopped run ends even if the pacer is started again
+     * before it noticed the stop, so only one thread runs the task.
+     */
+    @Override
+    public synchronized void stop() {
+        if (thread != null) LockSupport.unpark(thread);
+        thread = null;
+    }
+
+    /**
+     * @return statistic of the send times
+     */
+    @Override
+    public JitterStatistic getStatistic() {
+        return statistic;
+    }
+
+    @Override
+    public void run() {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        long start = System.nanoTime();
+        long n = 0; // number of the next run since start
+        Thread self = Thread.currentThread();
+
+        while (thread == self) {
+            long deadline = start + (long) (n * periodNanos);
+            waitUntil(deadline, self);
+            if (thread != self) break;
+
+            statistic.add(System.nanoTime() - deadline);
+            task.run();
+            n++;
+
+            long behind = System.nanoTime() - (start + (long) (n * periodNanos));
+            if (behind > MAX_LATE_FRAMES * periodNanos) {
+                logger.log(Level.WARNING, name + ": " + behind / 1000 + " us behind schedule, restart pacing");
+                statistic.resyncs++;
+                start = System.nanoTime();
+                n = 0;
+            }
+        }
+    }
+
+    /**
+     * Wait until the deadline: park while it is far away, then spin.
+     *
+     * @param deadline absolute time on the nanoTime clock
+     * @param self     thread of the run, stops waiting when the run is stopped
+     */
+    private void waitUntil(long deadline, Thread self) {
+        long remaining;
+        while (thread == self && (remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Measure the send jitter of the pacer for an empty task.
+     *
+     * @param args [frame rate] [number of frames]
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException {
+        double framerate = args.length > 0 ? Double.parseDouble(args[0]) : 29.97;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        final int[] count = {0};
+        final Object done = new Object();
+
+        FramePacer[] self = new FramePacer[1];
+        self[0] = new FramePacer("pacer-test", 1e9 / framerate, () -> {
+            if (++count[0] == frames) {
+                self[0].stop();
+                synchronized (done) {
+                    done.notifyAll();
+                }
+            }
+        });
+        synchronized (done) {
+            self[0].start();
+            done.wait();
+        }
+        System.out.println(framerate + " fps, " + self[0].getStatistic());
+    }
+}
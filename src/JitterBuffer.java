@@ -0,0 +1,185 @@
+/**
+ * Jitter buffer of the client for the received media packets.
+ * <p>
+ * The packets are kept in a ring of fixed capacity, indexed by their
+ * extended sequence number: the 16-bit RTP sequence number plus a rollover
+ * counter in the upper bits (RFC 3550, A.1). A received sequence number is
+ * extended to the value closest to the highest one received so far, so the
+ * buffer keeps working when the sequence numbers wrap around at 65536.
+ * Lookups are O(1) without boxing, and the memory does not grow with the
+ * length of the stream: packets are evicted after playout, and if the
+ * playback falls behind by more than the capacity, the oldest packets are
+ * overwritten. Evicted packets are released to their buffer pool.
+ * <p>
+ * A bitmap of the occupied slots answers which packets of a range are
+ * received in one step, e.g. to check a FEC group against its mask.
+ */
+public class JitterBuffer {
+    private static final int FIRST_CYCLE = 0x10000; // leaves room for reordered packets before the first one
+
+    private final RtpPacketView[] ring;
+    private final int[] sequenceNumbers; // extended sequence number of the packet in each slot
+    private final long[] received; // bitmap of the occupied slots, MSB first
+    private final int mask;
+    private boolean empty = true; // nothing received yet
+    private int highest; // highest extended sequence number received
+    private int oldest; // packets before are evicted
+    private int size = 0;
+
+    /**
+     * @param capacity maximum number of packets, rounded up to a power of 2, at least 64
+     */
+    public JitterBuffer(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(Long.SIZE, capacity) - 1) << 1;
+        ring = new RtpPacketView[slots];
+        sequenceNumbers = new int[slots];
+        received = new long[slots / Long.SIZE];
+        mask = slots - 1;
+    }
+
+    /**
+     * Start an empty buffer at the given packet, for packets which are not
+     * stored in the order of their sequence numbers, e.g. restored ones.
+     *
+     * @param extSeqNr extended sequence number of the first packet to keep
+     */
+    public void startAt(int extSeqNr) {
+        if (!empty) return;
+        empty = false;
+        oldest = extSeqNr;
+        highest = extSeqNr - 1;
+    }
+
+    /**
+     * Extend a 16-bit sequence number to the extended sequence number
+     * closest to the highest one received.
+     *
+     * @param seqNr RTP sequence number, only the lower 16 bits are used
+     * @return extended sequence number
+     */
+    public int extend(int seqNr) {
+        if (empty) return FIRST_CYCLE | (seqNr & 0xFFFF);
+        return highest + (short) (seqNr - highest); // signed 16-bit distance
+    }
+
+    /**
+     * Store a received packet. The buffer takes over the reference of the
+     * packet, duplicates and packets older than the evicted ones are
+     * released immediately.
+     *
+     * @param packet received media packet
+     * @return extended sequence number of the packet
+     */
+    public int put(RtpPacketView packet) {
+        return put(packet, extend(packet.getSequenceNumber()));
+    }
+
+    /**
+     * Store a packet with a known extended sequence number, e.g. one
+     * restored by FEC.
+     *
+     * @param packet   media packet, the buffer takes over the reference
+     * @param extSeqNr extended sequence number of the packet
+     * @return extended sequence number of the packet
+     */
+    public int put(RtpPacketView packet, int extSeqNr) {
+        if (empty) {
+            empty = false;
+            highest = extSeqNr;
+            oldest = extSeqNr;
+        } else if (extSeqNr < oldest) {
+            packet.release(); // too late, already played
+            return extSeqNr;
+        }
+        if (extSeqNr - oldest >= ring.length) {
+            evictBefore(extSeqNr - ring.length + 1); // playback fell behind, overwrite the oldest packets
+        }
+        int slot = extSeqNr & mask;
+        if (ring[slot] != null) {
+            ring[slot].release(); // duplicate
+            size--;
+        }
+        ring[slot] = packet;
+        sequenceNumbers[slot] = extSeqNr;
+        received[slot >>> 6] |= Long.MIN_VALUE >>> slot; // shift distance modulo 64
+        size++;
+        highest = Math.max(highest, extSeqNr);
+        return extSeqNr;
+    }
+
+    /**
+     * @param extSeqNr extended sequence number
+     * @return packet, null if it was not received or is evicted
+     */
+    public RtpPacketView get(int extSeqNr) {
+        int slot = extSeqNr & mask;
+        RtpPacketView packet = ring[slot];
+        return packet != null && sequenceNumbers[slot] == extSeqNr ? packet : null;
+    }
+
+    /**
+     * @param extSeqNr extended sequence number
+     * @return true if the packet is in the buffer
+     */
+    public boolean contains(int extSeqNr) {
+        return get(extSeqNr) != null;
+    }
+
+    /**
+     * Get the received packets of a range as bitmap, in constant time.
+     *
+     * @param extSeqNr extended sequence number of the first packet of the range
+     * @return bit 63 - i is set if packet extSeqNr + i is in the buffer, for i = 0 ... 63
+     */
+    public long receivedMask(int extSeqNr) {
+        if (empty) return 0;
+        int slot = extSeqNr & mask;
+        int shift = slot & (Long.SIZE - 1);
+        long bits = received[slot >>> 6] << shift;
+        if (shift != 0) bits |= received[((slot >>> 6) + 1) & (received.length - 1)] >>> (Long.SIZE - shift);
+        // a slot only holds the packet of this range if the range lies between the oldest and the highest one
+        int first = oldest - extSeqNr; // range positions before the oldest packet
+        if (first > 0) bits &= first >= Long.SIZE ? 0 : -1L >>> first;
+        int last = highest - extSeqNr; // range position of the highest packet
+        if (last < Long.SIZE - 1) bits &= last < 0 ? 0 : -1L << (Long.SIZE - 1 - last);
+        return bits;
+    }
+
+    /**
+     * Release all packets before the given one.
+     *
+     * @param extSeqNr extended sequence number of the first packet to keep
+     */
+    public void evictBefore(int extSeqNr) {
+        if (empty) return;
+        for (int n = oldest; n < extSeqNr && size > 0; n++) {
+            int slot = n & mask;
+            if (ring[slot] != null && sequenceNumbers[slot] == n) {
+                ring[slot].release();
+                ring[slot] = null;
+                received[slot >>> 6] &= ~(Long.MIN_VALUE >>> slot);
+                size--;
+            }
+        }
+        oldest = Math.max(oldest, extSeqNr);
+    }
+
+    /**
+     * @return highest extended sequence number received
+     */
+    public int getHighest() {
+        return highest;
+    }
+
+    /**
+     * @return number of packets in the buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "jitter buffer " + oldest + ".." + highest + ": " + size + " packets";
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Class for statistic values of the send times of a paced stream.
+ * <p>
+ * The jitter is the difference between the planned and the actual send
+ * time of a frame. Mean and standard deviation are updated incrementally
+ * (Welford), so no samples are stored. The same statistic is used for other
+ * delays, e.g. the time packets wait in the queue of a {@link PacketPacer}.
+ */
+public class JitterStatistic {
+    private final String name;
+    public long samples = 0;
+    public long maxNanos = 0; // latest send
+    public long minNanos = Long.MAX_VALUE; // earliest send, may be negative
+    public long resyncs = 0; // pacer fell behind and restarted its deadlines
+    private double mean = 0.0;
+    private double m2 = 0.0;
+
+    /**
+     * Statistic of the send jitter.
+     */
+    public JitterStatistic() {
+        this("send jitter");
+    }
+
+    /**
+     * @param name name of the measured delay for {@link #toString()}
+     */
+    public JitterStatistic(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Add one sample.
+     *
+     * @param lateness actual minus planned send time in nanoseconds
+     */
+    public synchronized void add(long lateness) {
+        samples++;
+        if (lateness > maxNanos) maxNanos = lateness;
+        if (lateness < minNanos) minNanos = lateness;
+        double delta = lateness - mean;
+        mean += delta / samples;
+        m2 += delta * (lateness - mean);
+    }
+
+    /**
+     * @return mean lateness in microseconds
+     */
+    public synchronized double getMeanMicros() {
+        return mean / 1000.0;
+    }
+
+    /**
+     * @return standard deviation of the lateness in microseconds
+     */
+    public synchronized double getStdDevMicros() {
+        return samples > 1 ? Math.sqrt(m2 / (samples - 1)) / 1000.0 : 0.0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        String s = String.format("%s: n=%d mean=%.1fus stddev=%.1fus max=%.1fus",
+                name, samples, getMeanMicros(), getStdDevMicros(), maxNanos / 1000.0);
+        return resyncs > 0 ? s + " resyncs=" + resyncs : s;
+    }
+}
@@ -1,4 +1,5 @@
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -21,6 +22,14 @@ public class JpegFrame {
   public static final byte[] DQT_MARKER = new byte[] { MARKER_TAG_START, (byte) 0xDB };
   public static final byte[] DRI_MARKER = new byte[] { MARKER_TAG_START, (byte) 0xDD };
 
+  /* Restart Count 0x3FFF: Pakete sind nicht an Restart-Intervallen ausgerichtet (RFC-2435, 3.1.7). */
+  public static final int RESTART_COUNT_UNKNOWN = 0x3FFF;
+  /* F- und L-Bit im dritten Byte des Restart-Headers. */
+  public static final int RESTART_FIRST = 0x80;
+  public static final int RESTART_LAST = 0x40;
+  /* Werte je Fragment im Fragmentplan: Offset, Länge, F/L-Bits, Restart Count. */
+  public static final int PLAN_FIELDS = 4;
+
   /* Codelens und Symbol-Tabellen zur BErechnung der Huffmann-Tabellen, entnommen aus RFC-2435. */
   private static byte[] LUM_DC_CODELENS = {
       (byte) 0x00, (byte) 0x01, (byte) 0x05, (byte) 0x01, (byte) 0x01, (byte) 0x01, (byte) 0x01, (byte) 0x01,
@@ -100,7 +109,15 @@ public class JpegFrame {
   private int width;
   private boolean dri;
   private int restartInterval;
+  /* Restart-Header (RFC-2435, 3.1.7), Vorgabe: ganzes Bild, Zähler unbekannt. */
+  private boolean restartFirst = true;
+  private boolean restartLast = true;
+  private int restartCount = RESTART_COUNT_UNKNOWN;
+  private byte[][] intervals; // Restart-Intervalle des Payloads, nur nach combineRestartIntervals
   private byte[] payload;
+  /* Bereich des Payloads im Array, beim Empfang ein Ausschnitt des Empfangspuffers. */
+  private int payloadStart;
+  private int payloadLength;
 
   private JpegFrame() {
   }
@@ -114,37 +131,34 @@ public class JpegFrame {
   public static JpegFrame getFromJpegBytes(final byte[] jpegBytes) {
 
     // Prüfe ob SOI vorhanden ist.
-    final byte[] start = Arrays.copyOf(jpegBytes, 2);
-    if (!Arrays.equals(start, SOI_MARKER)) {
+    if (!isMarker(jpegBytes, 0, SOI_MARKER)) {
       throw new IllegalStateException("SOI Marker nicht gefunden.");
     }
 
-    // Überspringe SOI
-    byte[] data = Arrays.copyOfRange(jpegBytes, 2, jpegBytes.length);
+    // Überspringe SOI, die Segmente werden über ihre Position gelesen statt das Bild jeweils zu kopieren
+    int pos = 2;
     final JpegFrame jpegFrame = new JpegFrame();
     boolean headerFinish = false;
 
-    while (!headerFinish && data.length > 4) {
+    while (!headerFinish && jpegBytes.length - pos > 4) {
       // Ermittle das nächste Header-Segment
-      final byte[] marker = Arrays.copyOf(data, 2); // Segment-Marker
-      final byte[] section = Arrays.copyOfRange(data, 2, data.length); // Segmentdaten
-      final int section_size = byteArrayToInt(Arrays.copyOf(section, 2)); // Segmentlänge
-      final byte[] section_body = Arrays.copyOfRange(data, 4, data.length); // Segment Body
+      final int section_size = byteArrayToInt(Arrays.copyOfRange(jpegBytes, pos + 2, pos + 4)); // Segmentlänge
+      final int body = pos + 4; // Segment Body
 
       // Prüfe, welcher Marker gelesen wurde.
-      if (Arrays.equals(marker, DQT_MARKER)) {
-        if (section_body[0] != 0x00) {
+      if (isMarker(jpegBytes, pos, DQT_MARKER)) {
+        if (jpegBytes[body] != 0x00) {
           throw new IllegalStateException("Nur 8-bit Präzesion wird unterstützt.");
         }
 
         /* Quantisierungstabelle (QT) ist 64 Byte lang. */
         jpegFrame.setNbQTables(section_size / 65); // Anzahl QT
-        jpegFrame.setQTables(Arrays.copyOfRange(section_body, 1, jpegFrame.nbQTables * 65)); // Daten der (QT)
-      } else if (Arrays.equals(marker, SOF0_MARKER)) {
+        jpegFrame.setQTables(Arrays.copyOfRange(jpegBytes, body + 1, body + jpegFrame.nbQTables * 65)); // Daten der (QT)
+      } else if (isMarker(jpegBytes, pos, SOF0_MARKER)) {
         // Höhe und Breite des Bildes.
-        final int height = byteArrayToInt(Arrays.copyOfRange(section_body, 1, 3));
+        final int height = byteArrayToInt(Arrays.copyOfRange(jpegBytes, body + 1, body + 3));
         jpegFrame.setHeight(height);
-        final int width = byteArrayToInt(Arrays.copyOfRange(section_body, 3, 5));
+        final int width = byteArrayToInt(Arrays.copyOfRange(jpegBytes, body + 3, body + 5));
         jpegFrame.setWidth(width);
 
         if (width > 2040 || height > 2040) {
@@ -159,33 +173,40 @@ public class JpegFrame {
         // Y - 0x21, Cb - 0x11, Cr - 0x11 => yuvj422p
 
         // Only 3 components are supported by RFC 2435
-        final int numComponents = byteArrayToInt(Arrays.copyOfRange(section_body, 5, 6));
+        final int numComponents = jpegBytes[body + 5] & 0xFF;
         if (numComponents != 3) {
           throw new IllegalStateException("Es werden nur 3 Sampling-Komponenten durch RFC-2435 unterstützt.");
         }
         for (int j = 0; j < 3; j++) {
-          final int idx = 6 + j * 3;
-          final int integer = byteArrayToInt(Arrays.copyOfRange(section_body, idx, idx + 1));
+          final int idx = body + 6 + j * 3;
+          final int integer = jpegBytes[idx] & 0xFF;
 
           if (integer == 1) {
-            jpegFrame.setYSamplingFactor(byteArrayToInt(Arrays.copyOfRange(section_body, idx + 1, idx + 2)));
-          } else if (!Arrays.equals(new byte[] { (byte) 0x11 }, Arrays.copyOfRange(section_body, idx + 1, idx + 2))) {
+            jpegFrame.setYSamplingFactor(jpegBytes[idx + 1] & 0xFF);
+          } else if (jpegBytes[idx + 1] != (byte) 0x11) {
             throw new IllegalStateException("Sampling Faktor ist nit unterstützt durch RFC-2435.");
           }
         }
-      } else if (Arrays.equals(marker, DRI_MARKER)) {
+      } else if (isMarker(jpegBytes, pos, DRI_MARKER)) {
         jpegFrame.setDri(true);
-        jpegFrame.setRestartInterval(byteArrayToInt(Arrays.copyOf(data, 2)));
-      } else if (Arrays.equals(marker, SOS_MARKER)) {
+        jpegFrame.setRestartInterval(byteArrayToInt(Arrays.copyOfRange(jpegBytes, body, body + 2)));
+      } else if (isMarker(jpegBytes, pos, SOS_MARKER)) {
         headerFinish = true;
       }
 
-      data = Arrays.copyOfRange(data, 2 + section_size, data.length);
+      pos += 2 + section_size;
     }
-    jpegFrame.setPayload(data);
+    jpegFrame.setPayload(Arrays.copyOfRange(jpegBytes, Math.min(pos, jpegBytes.length), jpegBytes.length));
     return jpegFrame;
   }
 
+  /**
+   * Prüft, ob an der Position der angegebene Marker steht.
+   */
+  private static boolean isMarker(final byte[] data, final int pos, final byte[] marker) {
+    return pos + 1 < data.length && data[pos] == marker[0] && data[pos + 1] == marker[1];
+  }
+
   /**
    * Erstellt aud den Payloaddaten eines RTP-Paketes eine neue Instanz des JpegFrame.
    *
@@ -193,33 +214,51 @@ public class JpegFrame {
    * @return ertslltes JpegFrame
    */
   public static JpegFrame getFromRtpPayload(final byte[] payload) {
+    return getFromRtpPayload(payload, 0, payload.length);
+  }
+
+  /**
+   * Erstellt aus dem Payload eines RTP-Paketes im Empfangspuffer eine neue Instanz des JpegFrame. Die Header werden
+   * direkt im Puffer gelesen, der JPEG-Payload wird nicht kopiert: das Fragment verweist auf den Puffer, bis es mit
+   * {@link #combineToOneFrame(List)} oder {@link #combineRestartIntervals(List, JpegFrame)} zusammengesetzt wurde.
+   *
+   * @param data   Empfangspuffer
+   * @param start  Beginn des RTP-Payloads im Puffer
+   * @param length Länge des RTP-Payloads
+   * @return erstelltes JpegFrame
+   */
+  public static JpegFrame getFromRtpPayload(final byte[] data, final int start, final int length) {
     final JpegFrame jpegFrame = new JpegFrame();
 
-    jpegFrame.offset = byteArrayToInt(Arrays.copyOfRange(payload, 1, 4));
+    jpegFrame.offset = readInt(data, start + 1, 3);
 
-    final int type = byteArrayToInt(Arrays.copyOfRange(payload, 4, 5));
+    final int type = readInt(data, start + 4, 1);
     // Setze y_sampling_factor und dri entsprechend
     jpegFrame.setSamplingFactorAndDriFromType(type);
 
-    final int q = byteArrayToInt(Arrays.copyOfRange(payload, 5, 6));
-    jpegFrame.width = byteArrayToInt(Arrays.copyOfRange(payload, 6, 7)) * 8;
-    jpegFrame.height = byteArrayToInt(Arrays.copyOfRange(payload, 7, 8)) * 8;
+    final int q = readInt(data, start + 5, 1);
+    jpegFrame.width = readInt(data, start + 6, 1) * 8;
+    jpegFrame.height = readInt(data, start + 7, 1) * 8;
     if (jpegFrame.dri) { // Restart-Header is present
-      jpegFrame.restartInterval = byteArrayToInt(Arrays.copyOfRange(payload, 8, 10));
+      jpegFrame.restartInterval = readInt(data, start + 8, 2);
+      final int flagsAndCount = readInt(data, start + 10, 2);
+      jpegFrame.restartFirst = (flagsAndCount & (RESTART_FIRST << 8)) != 0;
+      jpegFrame.restartLast = (flagsAndCount & (RESTART_LAST << 8)) != 0;
+      jpegFrame.restartCount = flagsAndCount & 0x3FFF;
     }
 
     final int offsetToQuantizationHeader = 8 + (jpegFrame.dri ? 4 : 0);
     if (q >= 127 && jpegFrame.offset == 0) { // Analyse der Quantization Table erfolgt
       // nur im ersten Paket eines Frames.
-      final int length = byteArrayToInt(Arrays.copyOfRange(payload, offsetToQuantizationHeader + 2, offsetToQuantizationHeader + 4));
-      final byte[] quantizationTableData = Arrays.copyOfRange(payload, offsetToQuantizationHeader + 4, offsetToQuantizationHeader + 4 + length);
+      final int qTableLength = readInt(data, start + offsetToQuantizationHeader + 2, 2);
+      final int qTableStart = start + offsetToQuantizationHeader + 4;
 
-      jpegFrame.nbQTables = length / 64; // Quantisierungstabelle ist stets 64 Byte lang
+      jpegFrame.nbQTables = qTableLength / 64; // Quantisierungstabelle ist stets 64 Byte lang
       jpegFrame.qTables = new byte[(jpegFrame.nbQTables * 65) - 1];
       for (int i = 0; i < jpegFrame.nbQTables; i++) {
-        System.arraycopy(quantizationTableData, 64 * i, jpegFrame.qTables, 65 * i, 64);
+        System.arraycopy(data, qTableStart + 64 * i, jpegFrame.qTables, 65 * i, 64);
         if (i > 0) {
-          jpegFrame.qTables[65 * i + 64] = 0x00;
+          jpegFrame.qTables[65 * i - 1] = (byte) i; // Pq/Tq der folgenden Tabelle im DQT-Segment
         }
       }
     }
@@ -227,10 +266,40 @@ public class JpegFrame {
     /* Quantisierungstabelle ist nur im ersten Paket enthalten. Länge ergibt sich aus vier fixen Bytes sowie je Tabelle 64 Byte. */
     final int quantizationTableHeaderLength = jpegFrame.offset == 0 ? 4 + jpegFrame.nbQTables * 64 : 0;
     final int offsetToPayload = offsetToQuantizationHeader + quantizationTableHeaderLength;
-    jpegFrame.setPayload(Arrays.copyOfRange(payload, offsetToPayload, payload.length));
+    jpegFrame.setPayload(data, start + offsetToPayload, length - offsetToPayload);
     return jpegFrame;
   }
 
+  /**
+   * Ermittelt die Länge der RFC-2435-Header eines Fragments: Main-Header, Restart-Header und im ersten Fragment der
+   * Header mit den Quantisierungstabellen. Der Sender schützt diese Bytes mit zusätzlichen FEC-Paketen.
+   *
+   * @param data  Puffer mit dem Fragment, z.B. der Sendepuffer
+   * @param start absolute Position des RTP-Payloads im Puffer
+   * @return Länge der Header in Bytes
+   */
+  public static int getRfc2435HeaderLength(final ByteBuffer data, final int start) {
+    final int offset = data.getInt(start) & 0xFFFFFF;
+    final int type = data.get(start + 4) & 0xFF;
+    final int q = data.get(start + 5) & 0xFF;
+    int length = 8 + (type >= 64 && type < 128 ? 4 : 0); // Typen 64 - 127 mit Restart-Header
+    if (q >= 128 && offset == 0) {
+      length += 4 + (data.getShort(start + length + 2) & 0xFFFF);
+    }
+    return length;
+  }
+
+  /**
+   * Liest eine vorzeichenlose Big-Endian-Zahl aus dem Puffer.
+   */
+  private static int readInt(final byte[] data, final int pos, final int n) {
+    int value = 0;
+    for (int i = 0; i < n; i++) {
+      value = value << 8 | (data[pos + i] & 0xFF);
+    }
+    return value;
+  }
+
   /**
    * Kombiniere Liste von RTP-Paketen zu einem JPEG
    * @param list der RTP-Pakete
@@ -259,17 +328,18 @@ public class JpegFrame {
 
     final JpegFrame result = frames.get(0);
     if (frames.size() == 1) {
+      result.setPayload(result.getPayload()); // vom Empfangspuffer lösen
       return result;
     }
 
     // Add all Bytes of each payload part to a list
 
     final JpegFrame lastJpeg = frames.get(frames.size() - 1);
-    final int length = lastJpeg.getPayload().length + lastJpeg.getOffset();
+    final int length = lastJpeg.payloadLength + lastJpeg.getOffset();
     byte[] jpeg = new byte[length];
 
     for (final JpegFrame frame : frames) {
-      System.arraycopy(frame.getPayload(), 0, jpeg, frame.getOffset(), frame.getPayload().length);
+      System.arraycopy(frame.payload, frame.payloadStart, jpeg, frame.getOffset(), frame.payloadLength);
     }
 
     result.setPayload(jpeg);
@@ -294,7 +364,7 @@ public class JpegFrame {
     if (nb_qtables > 0 && offset == 0) {
       headerLength = headerLength + 4 + (nb_qtables * 64);
     }
-    headerLength = headerLength + payload.length;
+    headerLength = headerLength + payloadLength;
     final byte[] rfcHeader = new byte[headerLength];
     idx++;
     rfcHeader[idx] = 0; // type-specfic
@@ -319,9 +389,9 @@ public class JpegFrame {
       idx++;
       rfcHeader[idx] = (byte) (this.restartInterval & 0xff);
       idx++;
-      rfcHeader[idx] = (byte) (0xff);
+      rfcHeader[idx] = (byte) ((restartFirst ? RESTART_FIRST : 0) | (restartLast ? RESTART_LAST : 0) | (restartCount >> 8));
       idx++;
-      rfcHeader[idx] = (byte) (0xff);
+      rfcHeader[idx] = (byte) (restartCount & 0xff);
       idx++;
     }
 
@@ -343,13 +413,318 @@ public class JpegFrame {
     }
 
     // Zuletzt JPEG-Payload
-    System.arraycopy(payload, 0, rfcHeader, idx, payload.length);
+    System.arraycopy(payload, payloadStart, rfcHeader, idx, payloadLength);
 
     return rfcHeader;
   }
 
+  /**
+   * Teilt den JPEG-Payload in Fragmente gemäß RFC-2435, 3.1.3 auf. Jedes Fragment enthält den vollständigen
+   * RFC-2435-Header mit dem Offset seiner Daten, die Quantisierungstabellen nur das erste Fragment.
+   *
+   * @param maxSize maximale Länge eines Fragments inklusive der RFC-2435-Header
+   * @return Liste der Fragmente in Sendereihenfolge
+   */
+  public List<byte[]> getAsRfc2435Fragments(final int maxSize) {
+    return toByteArrays(planRfc2435Fragments(maxSize, false));
+  }
+
+  /**
+   * Teilt den JPEG-Payload an den Restart-Markern in Fragmente gemäß RFC-2435, 3.1.7 auf. Ein Fragment enthält nur
+   * ganze Restart-Intervalle, ein Intervall welches nicht in ein Fragment passt wird mit den F- und L-Bits auf mehrere
+   * Fragmente verteilt. Der Restart Count ist die Nummer des ersten Intervalls im Fragment. Jedes vollständig
+   * empfangene Intervall kann so unabhängig von den anderen dekodiert werden.
+   * <p>
+   * Bilder ohne DRI werden wie von {@link #getAsRfc2435Fragments(int)} nur nach der Größe aufgeteilt.
+   *
+   * @param maxSize maximale Länge eines Fragments inklusive der RFC-2435-Header
+   * @return Liste der Fragmente in Sendereihenfolge
+   */
+  public List<byte[]> getAsRfc2435RestartFragments(final int maxSize) {
+    return toByteArrays(planRfc2435Fragments(maxSize, true));
+  }
+
+  private List<byte[]> toByteArrays(final int[] plan) {
+    final List<byte[]> fragments = new ArrayList<>();
+    for (int i = 0; i < plan.length / PLAN_FIELDS; i++) {
+      final byte[] fragment = new byte[getRfc2435FragmentLength(plan, i)];
+      putRfc2435Fragment(ByteBuffer.wrap(fragment), plan, i);
+      fragments.add(fragment);
+    }
+    return fragments;
+  }
+
+  /**
+   * Plant die Aufteilung des JPEG-Payloads in Fragmente, ohne Daten zu kopieren. Je Fragment enthält der Plan
+   * {@link #PLAN_FIELDS} Werte: Offset, Länge, F/L-Bits des Restart-Headers und Restart Count. Die Fragmente werden
+   * mit {@link #putRfc2435Fragment(ByteBuffer, int[], int)} direkt in den Sendepuffer geschrieben.
+   *
+   * @param maxSize        maximale Länge eines Fragments inklusive der RFC-2435-Header
+   * @param restartAligned an Restart-Intervallen ausrichten (nur bei Bildern mit DRI)
+   * @return Plan der Fragmente in Sendereihenfolge
+   */
+  public int[] planRfc2435Fragments(final int maxSize, final boolean restartAligned) {
+    final int headerLength = 8 + (dri ? 4 : 0);
+    final int qTableHeaderLength = nbQTables > 0 ? 4 + nbQTables * 64 : 0;
+    if (maxSize <= headerLength + qTableHeaderLength) {
+      throw new IllegalArgumentException("Fragmentgröße zu klein für die RFC-2435-Header: " + maxSize);
+    }
+    int[] plan = new int[PLAN_FIELDS * (payloadLength / (maxSize - headerLength) + 2)];
+    int n = 0; // Anzahl Fragmente
+
+    if (!restartAligned || !hasRestartMarkers()) {
+      int pos = 0;
+      do {
+        final int room = maxSize - headerLength - (pos == 0 ? qTableHeaderLength : 0);
+        final int length = Math.min(room, payloadLength - pos);
+        plan = addFragment(plan, n++, pos, length, RESTART_FIRST | RESTART_LAST, RESTART_COUNT_UNKNOWN);
+        pos += length;
+      } while (pos < payloadLength);
+      return Arrays.copyOf(plan, PLAN_FIELDS * n);
+    }
+
+    final int[] bounds = restartBoundaries(payload, payloadStart, payloadLength);
+    final int nbIntervals = bounds.length - 1;
+    int k = 0; // nächstes Intervall
+    while (k < nbIntervals) {
+      final int room = maxSize - headerLength - (bounds[k] == 0 ? qTableHeaderLength : 0);
+      if (bounds[k + 1] - bounds[k] > room) {
+        // Intervall zu groß: über mehrere Fragmente verteilen
+        int pos = bounds[k];
+        while (pos < bounds[k + 1]) {
+          final int length = Math.min(maxSize - headerLength - (pos == 0 ? qTableHeaderLength : 0), bounds[k + 1] - pos);
+          final int flags = (pos == bounds[k] ? RESTART_FIRST : 0) | (pos + length == bounds[k + 1] ? RESTART_LAST : 0);
+          plan = addFragment(plan, n++, pos, length, flags, k);
+          pos += length;
+        }
+        k++;
+      } else {
+        // so viele ganze Intervalle wie möglich
+        int last = k + 1;
+        while (last < nbIntervals && bounds[last + 1] - bounds[k] <= room) {
+          last++;
+        }
+        plan = addFragment(plan, n++, bounds[k], bounds[last] - bounds[k], RESTART_FIRST | RESTART_LAST, k);
+        k = last;
+      }
+    }
+    return Arrays.copyOf(plan, PLAN_FIELDS * n);
+  }
+
+  private static int[] addFragment(int[] plan, final int i, final int offset, final int length, final int flags,
+      final int count) {
+    if (plan.length < PLAN_FIELDS * (i + 1)) {
+      plan = Arrays.copyOf(plan, plan.length * 2);
+    }
+    plan[PLAN_FIELDS * i] = offset;
+    plan[PLAN_FIELDS * i + 1] = length;
+    plan[PLAN_FIELDS * i + 2] = flags;
+    plan[PLAN_FIELDS * i + 3] = count & 0x3FFF;
+    return plan;
+  }
+
+  /**
+   * @param plan Plan aus {@link #planRfc2435Fragments(int, boolean)}
+   * @param i    Nummer des Fragments
+   * @return Länge des Fragments inklusive der RFC-2435-Header
+   */
+  public int getRfc2435FragmentLength(final int[] plan, final int i) {
+    final int offset = plan[PLAN_FIELDS * i];
+    return 8 + (dri ? 4 : 0) + (offset == 0 && nbQTables > 0 ? 4 + nbQTables * 64 : 0) + plan[PLAN_FIELDS * i + 1];
+  }
+
+  /**
+   * Schreibt ein Fragment mit seinen RFC-2435-Headern an die aktuelle Position des Puffers.
+   *
+   * @param dst  Zielpuffer, z.B. der Sendepuffer hinter dem RTP-Header
+   * @param plan Plan aus {@link #planRfc2435Fragments(int, boolean)}
+   * @param i    Nummer des Fragments
+   */
+  public void putRfc2435Fragment(final ByteBuffer dst, final int[] plan, final int i) {
+    final int fragmentOffset = plan[PLAN_FIELDS * i];
+    final int length = plan[PLAN_FIELDS * i + 1];
+    final int flags = plan[PLAN_FIELDS * i + 2];
+    final int count = plan[PLAN_FIELDS * i + 3];
+
+    dst.put((byte) 0); // type-specific
+    dst.put((byte) (fragmentOffset >> 16));
+    dst.put((byte) (fragmentOffset >> 8));
+    dst.put((byte) fragmentOffset);
+    dst.put((byte) getType());
+    dst.put((byte) 255); // Q
+    dst.put((byte) (((width + 7) & ~7) >> 3)); // Breite Aufgerundet auf 8ter Kompliment und geteilt durch 8
+    dst.put((byte) (((height + 7) & ~7) >> 3)); // Höhe
+
+    if (dri) {
+      dst.put((byte) (restartInterval >> 8));
+      dst.put((byte) restartInterval);
+      dst.put((byte) (flags | (count >> 8)));
+      dst.put((byte) count);
+    }
+
+    if (fragmentOffset == 0 && nbQTables > 0) {
+      dst.put((byte) 0);
+      dst.put((byte) 0);
+      dst.put((byte) (64 * nbQTables >> 8));
+      dst.put((byte) (64 * nbQTables));
+      for (int t = 0; t < nbQTables; t++) {
+        dst.put(qTables, 65 * t, 64);
+      }
+    }
+
+    dst.put(payload, payloadStart + fragmentOffset, length);
+  }
+
+  /**
+   * Ermittelt die Grenzen der Restart-Intervalle im Payload. Ein Intervall endet nach seinem RST-Marker, das letzte
+   * am Ende des Payloads (inklusive EOI).
+   *
+   * @param data   Array mit dem JPEG-Payload (entropiekodierte Daten)
+   * @param start  Beginn des Payloads im Array
+   * @param length Länge des Payloads
+   * @return Startpositionen der Intervalle relativ zum Payload, gefolgt von der Länge der Daten
+   */
+  private static int[] restartBoundaries(final byte[] data, final int start, final int length) {
+    final List<Integer> bounds = new ArrayList<>();
+    bounds.add(0);
+    for (int i = 0; i < length - 1; i++) {
+      // 0xFF in den Daten wird durch 0x00 maskiert, 0xFFD0 - 0xFFD7 sind immer RST-Marker
+      if (data[start + i] == MARKER_TAG_START && (data[start + i + 1] & 0xF8) == 0xD0 && i + 2 < length) {
+        bounds.add(i + 2);
+        i++;
+      }
+    }
+    bounds.add(length);
+    final int[] result = new int[bounds.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Setzt ein Bild aus an Restart-Intervallen ausgerichteten Fragmenten zusammen (siehe
+   * {@link #getAsRfc2435RestartFragments(int)}). Fehlende Intervalle werden durch das Intervall an derselben Stelle
+   * des Referenzbildes ersetzt, der Bildbereich zeigt dann den vorherigen Inhalt. Fehlt das erste Fragment, werden die
+   * Quantisierungstabellen des Referenzbildes verwendet.
+   *
+   * @param frames    empfangene Fragmente eines Bildes in Reihenfolge der Offsets
+   * @param reference zuletzt zusammengesetztes Bild mit gleichem Format, kann null sein
+   * @return zusammengesetztes Bild oder null, wenn ein Intervall nicht ersetzt werden kann
+   */
+  public static JpegFrame combineRestartIntervals(final List<JpegFrame> frames, final JpegFrame reference) {
+    if (frames == null || frames.isEmpty()) {
+      return null;
+    }
+    final JpegFrame result = frames.get(0);
+    final int nbIntervals = result.getNbRestartIntervals();
+    final byte[][] intervals = new byte[nbIntervals][];
+    if (result.offset != 0) {
+      if (reference == null || reference.qTables == null) {
+        return null; // keine Quantisierungstabellen
+      }
+      result.nbQTables = reference.nbQTables;
+      result.qTables = reference.qTables;
+    }
+
+    int i = 0;
+    while (i < frames.size()) {
+      final JpegFrame frame = frames.get(i);
+      if (frame.restartFirst && frame.restartLast) {
+        // ganze Intervalle, aufteilen an den RST-Markern
+        final int[] bounds = restartBoundaries(frame.payload, frame.payloadStart, frame.payloadLength);
+        for (int b = 0; b < bounds.length - 1 && frame.restartCount + b < nbIntervals; b++) {
+          intervals[frame.restartCount + b] = Arrays.copyOfRange(frame.payload, frame.payloadStart + bounds[b],
+              frame.payloadStart + bounds[b + 1]);
+        }
+        i++;
+      } else {
+        // Teile eines Intervalls, nur vollständig und lückenlos verwendbar
+        int end = i;
+        boolean contiguous = frame.restartFirst;
+        while (end + 1 < frames.size() && frames.get(end + 1).restartCount == frame.restartCount
+            && !frames.get(end + 1).restartFirst) {
+          final JpegFrame previous = frames.get(end);
+          contiguous &= frames.get(end + 1).offset == previous.offset + previous.payloadLength;
+          end++;
+        }
+        final JpegFrame lastPart = frames.get(end);
+        if (contiguous && lastPart.restartLast && frame.restartCount < nbIntervals) {
+          final byte[] interval = new byte[lastPart.offset + lastPart.payloadLength - frame.offset];
+          for (int j = i; j <= end; j++) {
+            final JpegFrame part = frames.get(j);
+            System.arraycopy(part.payload, part.payloadStart, interval, part.offset - frame.offset, part.payloadLength);
+          }
+          intervals[frame.restartCount] = interval;
+        } else if (frame.restartFirst) {
+          // abgeschnittenes Fragment, z.B. nur der Anfang per FEC wiederhergestellt: vollständige Intervalle verwenden
+          final int[] bounds = restartBoundaries(frame.payload, frame.payloadStart, frame.payloadLength);
+          for (int b = 0; b < bounds.length - 2 && frame.restartCount + b < nbIntervals; b++) {
+            intervals[frame.restartCount + b] = Arrays.copyOfRange(frame.payload, frame.payloadStart + bounds[b],
+                frame.payloadStart + bounds[b + 1]);
+          }
+        }
+        i = end + 1;
+      }
+    }
+
+    // fehlende Intervalle aus dem Referenzbild übernehmen
+    final boolean referenceUsable = reference != null && reference.intervals != null
+        && reference.intervals.length == nbIntervals && reference.width == result.width
+        && reference.height == result.height;
+    int length = 0;
+    for (int k = 0; k < nbIntervals; k++) {
+      if (intervals[k] == null) {
+        if (!referenceUsable) {
+          return null;
+        }
+        intervals[k] = reference.intervals[k];
+      }
+      length += intervals[k].length;
+    }
+
+    final byte[] jpeg = new byte[length];
+    int pos = 0;
+    for (final byte[] interval : intervals) {
+      System.arraycopy(interval, 0, jpeg, pos, interval.length);
+      pos += interval.length;
+    }
+    result.offset = 0;
+    result.intervals = intervals;
+    result.setPayload(jpeg);
+    return result;
+  }
+
+  /**
+   * @return true, wenn das Bild Restart-Marker enthält
+   */
+  public boolean hasRestartMarkers() {
+    return dri && restartInterval > 0;
+  }
+
+  /**
+   * @return true, wenn das Fragment an Restart-Intervallen ausgerichtet ist
+   */
+  public boolean hasRestartCount() {
+    return hasRestartMarkers() && restartCount != RESTART_COUNT_UNKNOWN;
+  }
+
+  /**
+   * Berechnet die Anzahl der Restart-Intervalle aus Bildgröße, MCU-Größe und Restart-Intervall.
+   *
+   * @return Anzahl der Restart-Intervalle eines Bildes
+   */
+  public int getNbRestartIntervals() {
+    final int mcuHeight = ySamplingFactor == 0x22 ? 16 : 8;
+    final int mcus = ((width + 15) / 16) * ((height + mcuHeight - 1) / mcuHeight);
+    return (mcus + restartInterval - 1) / restartInterval;
+  }
+
   public byte[] getPayload() {
-    return payload;
+    if (payloadStart == 0 && payloadLength == payload.length) {
+      return payload;
+    }
+    return Arrays.copyOfRange(payload, payloadStart, payloadStart + payloadLength);
   }
 
   public int getOffset() {
@@ -425,7 +800,8 @@ public class JpegFrame {
     result.add((byte) 0x00); // Successive approximation bit position (high, low)
 
     boolean marker = false;
-    for (final byte b : payload) {
+    for (int i = payloadStart; i < payloadStart + payloadLength; i++) {
+      final byte b = payload[i];
       if (b == MARKER_TAG_START) {
         marker = true;
       } else if (marker && b == EOI_MARKER[1]) {
@@ -475,7 +851,16 @@ public class JpegFrame {
   }
 
   public void setPayload(final byte[] payload) {
-    this.payload = payload;
+    setPayload(payload, 0, payload.length);
+  }
+
+  /**
+   * Setzt einen Ausschnitt eines Arrays als Payload, ohne ihn zu kopieren.
+   */
+  public void setPayload(final byte[] data, final int start, final int length) {
+    this.payload = data;
+    this.payloadStart = start;
+    this.payloadLength = length;
   }
 
   /**
@@ -0,0 +1,361 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking control engine for RTSP connections.
+ * <p>
+ * The connections are multiplexed on a small number of selector threads.
+ * Every connection owns one receive and one send buffer, which are reused
+ * for all requests. Received bytes are split into lines as soon as they
+ * arrive, a request is passed to its {@link RtspSession} when the empty
+ * line terminating the header was read. Idle connections therefore cost
+ * only their buffers and a selection key, no thread.
+ * <p>
+ * The sessions handle the requests on the executor of the
+ * {@link SessionManager}, because DESCRIBE and SETUP read the video file.
+ * The response is handed back to the selector thread, which writes it, so
+ * a slow request does not stall the other connections of the selector.
+ * The requests of one connection are handled one after the other.
+ */
+public class NioRtspServer {
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_REQUEST_SIZE = 16384; // larger requests close the connection
+
+    private final SessionManager manager;
+    private final int port;
+    private final SelectorLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+    private int nextLoop = 0; // round robin distribution of new connections
+
+    /**
+     * @param manager         manager creating the sessions
+     * @param port            RTSP listening port
+     * @param selectorThreads number of threads multiplexing the connections
+     * @throws IOException if a selector could not be opened
+     */
+    public NioRtspServer(SessionManager manager, int port, int selectorThreads) throws IOException {
+        this.manager = manager;
+        this.port = port;
+        loops = new SelectorLoop[Math.max(1, selectorThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop(Selector.open());
+        }
+    }
+
+    /**
+     * Accept and serve connections until {@link #close()} is called (blocking).
+     * <p>
+     * The calling thread runs the first selector loop, which also accepts
+     * the new connections.
+     *
+     * @throws IOException if the listening channel could not be opened
+     */
+    public void run() throws IOException {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        logger.log(Level.INFO, "RTSP server (NIO, " + loops.length + " selector threads) listening on port " + port);
+
+        for (int i = 1; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "rtsp-selector-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        loops[0].run();
+    }
+
+    /**
+     * Stop accepting connections and stop all selector threads.
+     */
+    public void close() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {
+        }
+        for (SelectorLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    private void accept() {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        SocketChannel channel;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                SelectorLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                loop.add(channel);
+            }
+        } catch (IOException ex) {
+            if (running) logger.log(Level.WARNING, "Accept failed: " + ex);
+        }
+    }
+
+    /**
+     * Thread multiplexing a share of the connections.
+     */
+    private class SelectorLoop implements Runnable {
+        final Selector selector;
+        final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Runnable> completed = new ConcurrentLinkedQueue<>(); // handled requests
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void add(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, "Selector failed: " + ex);
+                    return;
+                }
+                registerPending();
+                Runnable task;
+                while ((task = completed.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.flush();
+                    } catch (IOException | RuntimeException ex) {
+                        if (!connection.session.isClosed()) {
+                            logger.log(Level.WARNING, "Session " + connection.session.getSessionId()
+                                    + ": exception caught: " + ex);
+                        }
+                        connection.close();
+                    }
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void registerPending() {
+            Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                RtspSession session = manager.createSession(channel.socket().getInetAddress(), channel);
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key, session));
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Session could not be registered: " + ex);
+                    session.close(); // closes the channel as well
+                }
+            }
+        }
+
+        /**
+         * Handle the next request of a connection on the executor, unless
+         * one is handled already.
+         *
+         * @param connection connection with a pending request
+         */
+        void dispatch(Connection connection) {
+            if (connection.handling || connection.requests.isEmpty()) return;
+            connection.handling = true;
+            RtspRequest request = connection.requests.poll();
+            manager.execute(() -> {
+                String response;
+                try {
+                    response = connection.session.handle(request);
+                } catch (IOException | RuntimeException ex) {
+                    completed.add(() -> connection.fail(ex));
+                    selector.wakeup();
+                    return;
+                }
+                completed.add(() -> connection.respond(response));
+                selector.wakeup();
+            });
+        }
+    }
+
+    /**
+     * State of one RTSP connection: buffers and incremental request framing.
+     */
+    private static class Connection {
+        final SelectorLoop loop;
+        final SocketChannel channel;
+        final SelectionKey key;
+        final RtspSession session;
+        final ArrayList<String> lines = new ArrayList<>(); // lines of the current request
+        final ArrayDeque<RtspRequest> requests = new ArrayDeque<>(); // complete, not yet handled
+        boolean handling = false; // a request is handled on the executor
+        ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); // write mode
+        ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); // write mode
+        int lineStart = 0; // start of the current line in the receive buffer
+
+        Connection(SelectorLoop loop, SocketChannel channel, SelectionKey key, RtspSession session) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.session = session;
+        }
+
+        /**
+         * Read all available bytes and handle the completed requests.
+         */
+        void read() throws IOException {
+            int n;
+            while ((n = channel.read(in)) > 0) {
+                frame();
+                if (!in.hasRemaining()) grow();
+            }
+            if (n < 0) {
+                Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.INFO,
+                        "Session " + session.getSessionId() + ": connection closed by client");
+                close();
+            }
+        }
+
+        /**
+         * Split the received bytes into lines and pass each complete
+         * request to the session. Consumed bytes are removed from the buffer.
+         */
+        private void frame() {
+            byte[] data = in.array();
+            int end = in.position();
+            int scan = lineStart;
+            for (int i = scan; i < end; i++) {
+                if (data[i] != '\n') continue;
+                int lineEnd = (i > lineStart && data[i - 1] == '\r') ? i - 1 : i;
+                int length = lineEnd - lineStart;
+                if (length > 0) {
+                    lines.add(new String(data, lineStart, length, StandardCharsets.ISO_8859_1));
+                } else if (!lines.isEmpty()) {
+                    handleRequest();
+                }
+                lineStart = i + 1;
+            }
+
+            // drop consumed bytes, keep the incomplete line
+            if (lineStart > 0) {
+                System.arraycopy(data, lineStart, data, 0, end - lineStart);
+                in.position(end - lineStart);
+                lineStart = 0;
+            }
+        }
+
+        private void handleRequest() {
+            Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+            logger.log(Level.INFO, "*** Request received ***\n");
+            requests.add(RtspRequest.parse(lines));
+            lines.clear();
+            loop.dispatch(this);
+        }
+
+        /**
+         * Write the response of a handled request and handle the next one.
+         * Runs on the selector thread.
+         *
+         * @param response response, null if none is sent
+         */
+        void respond(String response) {
+            handling = false;
+            if (!key.isValid()) return; // closed meanwhile
+            try {
+                send(response);
+            } catch (IOException ex) {
+                fail(ex);
+                return;
+            }
+            loop.dispatch(this);
+        }
+
+        /**
+         * Close the connection after a failed request. Runs on the selector
+         * thread.
+         *
+         * @param ex cause
+         */
+        void fail(Exception ex) {
+            handling = false;
+            if (!session.isClosed()) {
+                Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.WARNING,
+                        "Session " + session.getSessionId() + ": exception caught: " + ex);
+            }
+            close();
+        }
+
+        private void send(String response) throws IOException {
+            if (response != null) {
+                byte[] bytes = response.getBytes(StandardCharsets.ISO_8859_1);
+                if (out.remaining() < bytes.length) {
+                    ByteBuffer larger = ByteBuffer.allocate(out.position() + bytes.length);
+                    out.flip();
+                    larger.put(out);
+                    out = larger;
+                }
+                out.put(bytes);
+                flush();
+            }
+        }
+
+        private void grow() throws IOException {
+            if (in.capacity() >= MAX_REQUEST_SIZE) {
+                throw new IOException("RTSP request exceeds " + MAX_REQUEST_SIZE + " bytes");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            larger.put(in);
+            in = larger;
+        }
+
+        /**
+         * Write pending response bytes, wait for OP_WRITE if the socket
+         * buffer is full.
+         */
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            if (out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            out.compact();
+        }
+
+        void close() {
+            key.cancel();
+            session.close(); // closes the channel as well
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Runs a task periodically at the frame rate of a stream.
+ * <p>
+ * Implemented by the dedicated {@link FramePacer} thread and by the tasks of
+ * the shared {@link TimingWheel}.
+ */
+public interface Pacer {
+    /**
+     * Start running the task, the first run is immediately.
+     */
+    void start();
+
+    /**
+     * Stop running the task. Can be called from the task itself.
+     */
+    void stop();
+
+    /**
+     * @return statistic of the send times
+     */
+    JitterStatistic getStatistic();
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Pacing stage between the packetizer and the socket of a session.
+ * <p>
+ * The packets of a frame (media and FEC) are not sent back to back but
+ * spread over a part of the frame interval. A token bucket limits the
+ * bursts: its rate is chosen per frame so that the queued bytes are sent
+ * within the spread time, its depth is a few packets. Packets which do not
+ * find enough tokens wait in the queue, the queue is drained by one-shot
+ * timeouts on the shared {@link TimingWheel}. The time a packet waits in
+ * the queue is recorded in a {@link JitterStatistic}.
+ * <p>
+ * The packets are pooled send buffers. The queue is a ring of buffers and
+ * enqueue times which only grows, so queueing does not allocate in steady
+ * state. A buffer goes back to the pool after it was sent or discarded.
+ */
+public class PacketPacer {
+    private final Sender sender;
+    private final Consumer<IOException> errorHandler;
+    private final TimingWheel wheel;
+    private final double spreadNanos; // time for sending the packets of one frame
+    private final double depth; // bytes of the token bucket
+    private final ByteBufferPool pool;
+    private ByteBuffer[] queue = new ByteBuffer[64]; // ring, power of 2
+    private long[] enqueued = new long[64]; // enqueue times of the packets
+    private int head = 0; // index of the oldest packet
+    private int queued = 0; // number of packets in the ring
+    private final JitterStatistic queueDelay = new JitterStatistic("queue delay");
+    private int queuedBytes = 0;
+    private int maxQueuedPackets = 0;
+    private double tokens; // bytes
+    private double rate = 0; // bytes per nanosecond
+    private long lastRefill = System.nanoTime();
+    private boolean drainScheduled = false;
+    private boolean closed = false;
+    private final Runnable drainTask = this::scheduledDrain;
+
+    /**
+     * Sends a packet to the socket, e.g. with simulated packet loss.
+     */
+    public interface Sender {
+        /**
+         * @param packet packet to send between position and limit, the buffer
+         *               is released afterwards and must not be kept
+         * @throws IOException if the packet could not be sent
+         */
+        void send(ByteBuffer packet) throws IOException;
+    }
+
+    /**
+     * @param sender       sends the packets to the socket
+     * @param errorHandler called when a packet sent from the timing wheel failed, the pacer is closed then
+     * @param wheel        timing wheel for draining the queue
+     * @param pool         pool the sent packets are returned to
+     * @param periodNanos  frame period in nanoseconds
+     * @param spread       part of the frame period to spread the packets of a frame over,
+     *                     0 sends them immediately
+     * @param burstBytes   depth of the token bucket in bytes
+     */
+    public PacketPacer(Sender sender, Consumer<IOException> errorHandler, TimingWheel wheel, ByteBufferPool pool,
+                       double periodNanos, double spread, int burstBytes) {
+        this.sender = sender;
+        this.errorHandler = errorHandler;
+        this.wheel = wheel;
+        this.pool = pool;
+        this.spreadNanos = periodNanos * spread;
+        this.depth = burstBytes;
+        this.tokens = burstBytes;
+    }
+
+    /**
+     * Queue the packets of a frame and send as many as the bucket allows.
+     *
+     * @param packets packets of the frame in sending order, taken over by the pacer
+     * @throws IOException if a packet could not be sent
+     */
+    public synchronized void send(List<ByteBuffer> packets) throws IOException {
+        if (closed) {
+            for (ByteBuffer packet : packets) pool.release(packet);
+            return;
+        }
+        if (spreadNanos <= 0) { // no pacing
+            for (int i = 0; i < packets.size(); i++) {
+                try {
+                    sender.send(packets.get(i));
+                } catch (IOException ex) {
+                    for (int j = i; j < packets.size(); j++) pool.release(packets.get(j));
+                    throw ex;
+                }
+                pool.release(packets.get(i));
+            }
+            return;
+        }
+        long now = System.nanoTime();
+        for (ByteBuffer packet : packets) {
+            if (queued == queue.length) grow();
+            int tail = (head + queued++) & (queue.length - 1);
+            queue[tail] = packet;
+            enqueued[tail] = now;
+            queuedBytes += packet.remaining();
+        }
+        maxQueuedPackets = Math.max(maxQueuedPackets, queued);
+
+        refill(now);
+        rate = queuedBytes / spreadNanos;
+        drain();
+    }
+
+    /**
+     * Discard the queued packets and stop draining.
+     */
+    public synchronized void close() {
+        closed = true;
+        while (queued > 0) pool.release(poll());
+        queuedBytes = 0;
+    }
+
+    /**
+     * @return statistic of the time the packets waited in the queue
+     */
+    public JitterStatistic getQueueDelay() {
+        return queueDelay;
+    }
+
+    private void grow() {
+        ByteBuffer[] packets = new ByteBuffer[queue.length * 2];
+        long[] times = new long[queue.length * 2];
+        for (int i = 0; i < queued; i++) {
+            packets[i] = queue[(head + i) & (queue.length - 1)];
+            times[i] = enqueued[(head + i) & (queue.length - 1)];
+        }
+        queue = packets;
+        enqueued = times;
+        head = 0;
+    }
+
+    private ByteBuffer poll() {
+        ByteBuffer packet = queue[head];
+        queue[head] = null;
+        head = (head + 1) & (queue.length - 1);
+        queued--;
+        return packet;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(depth, tokens + rate * (now - lastRefill));
+        lastRefill = now;
+    }
+
+    /**
+     * Send the packets covered by the tokens, schedule the rest.
+     */
+    private void drain() throws IOException {
+        long now = System.nanoTime();
+        refill(now);
+        while (queued > 0) {
+            int length = queue[head].remaining();
+            if (tokens < length && tokens < depth) break; // larger packets need a full bucket
+            queueDelay.add(now - enqueued[head]);
+            ByteBuffer packet = poll();
+            queuedBytes -= length;
+            tokens -= length;
+            try {
+                sender.send(packet);
+            } finally {
+                pool.release(packet);
+            }
+        }
+
+        if (queued > 0 && !drainScheduled) {
+            drainScheduled = true;
+            long wait = (long) ((Math.min(queue[head].remaining(), depth) - tokens) / rate);
+            wheel.schedule(now + wait, drainTask);
+        }
+    }
+
+    /**
+     * Drain the queue from the timing wheel. A failed packet closes the
+     * pacer and is passed to the error handler, like the exception of
+     * {@link #send(List)} on the unpaced path.
+     */
+    private void scheduledDrain() {
+        IOException failure;
+        synchronized (this) {
+            drainScheduled = false;
+            if (closed) return;
+            try {
+                drain();
+                return;
+            } catch (IOException ex) {
+                failure = ex;
+                close();
+            }
+        }
+        errorHandler.accept(failure); // outside the lock, the handler may close the session
+    }
+
+    @Override
+    public synchronized String toString() {
+        return queueDelay + " max queue=" + maxQueuedPackets;
+    }
+}
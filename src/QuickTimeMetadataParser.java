@@ -150,7 +150,7 @@ public class QuickTimeMetadataParser {
             smplCount = 0;
             smplDuration = 0;
 
-            return new VideoMetadata((int)fps, dur);
+            return new VideoMetadata(fps, dur);
         } else {
             return null;
         }
@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -92,6 +93,18 @@ public class RTPpacket {
     }
 
 
+    // --------------------------
+    // Write a RTP header with the default fields directly into a send buffer
+    // --------------------------
+    public static void putRtpHeader(ByteBuffer dst, int Marker, int PType, int SeqNb, int Time, int Ssrc) {
+        dst.put((byte) (2 << 6)); // Version 2, no padding, extension and CSRC
+        dst.put((byte) (Marker << 7 | PType));
+        dst.putShort((short) SeqNb);
+        dst.putInt(Time);
+        dst.putInt(Ssrc);
+    }
+
+
     // --------------------------
     // Constructor of an RTPpacket object from the packet bistream
     // --------------------------
@@ -116,6 +129,7 @@ public class RTPpacket {
             System.arraycopy(packet, HEADER_SIZE, payload, 0, packet_size - HEADER_SIZE);
 
             // interpret the changing fields of the header:
+            Marker = (header[1] >> 7) & 1;
             PayloadType = header[1] & 127;
             SequenceNumber = unsigned_int(header[3]) + 256 * unsigned_int(header[2]);
             TimeStamp =
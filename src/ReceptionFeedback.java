@@ -0,0 +1,20 @@
+/**
+ * Reception quality of a session as reported by the client in RTCP
+ * receiver reports (RFC 3550, 6.4.2).
+ */
+public class ReceptionFeedback {
+    public int reports = 0; // number of received receiver reports
+    public double fractionLost = 0.0; // of the packets expected since the previous report, 0.0 ... 1.0
+    public int cumulativeLost = 0; // packets lost since the beginning of the reception
+    public int highestSequenceNumber = 0; // extended, as counted by the client
+    public double jitter = 0.0; // interarrival jitter in ms
+    public double meanBurstLength = 1.0; // consecutive lost packets, since the previous loss report
+    public double roundTripTime = -1.0; // in ms, -1 if not known yet
+    public long lastReportNanos = 0; // arrival of the latest report on the nanoTime clock
+
+    @Override
+    public String toString() {
+        return String.format("receiver reports: n=%d lost=%.1f%% (%d) bursts=%.1f jitter=%.1fms rtt=%.1fms",
+                reports, fractionLost * 100, cumulativeLost, meanBurstLength, jitter, roundTripTime);
+    }
+}
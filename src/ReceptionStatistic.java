@@ -5,12 +5,21 @@
  */
 public class ReceptionStatistic {
     public int correctedPackets = 0;
+    public int partiallyCorrectedPackets = 0; // only the first bytes restored (ULP level 0)
+    public int missedDeadlinePackets = 0; // restorable only after their frame was played
+    public double recoveryLatency = 0; // mean time in ms from detecting a loss to restoring it by FEC
     public int framesLost = 0;
+    public int framesConcealed = 0; // incomplete, lost restart intervals replaced
     public int notCorrectedPackets = 0;
     public int packetsLost = 0;
+    public int lossBursts = 0; // runs of consecutive lost packets
     public int playbackIndex = -1;
     public int receivedPackets = 0;
     public int requestedFrames = 0;
+    public int firstSequenceNumber = -1; // extended, -1 if nothing received yet
     public int latestSequenceNumber = -1;
+    public double jitter = 0; // interarrival jitter in ms (RFC 3550, 6.4.1)
+    public int playoutDelay = 0; // target of the buffered media in ms
+    public int bufferedDelay = 0; // media received ahead of the playback in ms
 }
 
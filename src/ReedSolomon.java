@@ -0,0 +1,232 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(2^8) with a Cauchy matrix.
+ * <p>
+ * From k data symbols of equal length, m repair symbols are computed as
+ * repair j = sum over i of C[j][i] * data i, with C[j][i] = 1 / (x_j + y_i),
+ * x_j = j and y_i = m + i. Every square submatrix of a Cauchy matrix is
+ * invertible, so any k of the k + m symbols restore the data: up to m lost
+ * data symbols are recovered from the same number of repair symbols.
+ * <p>
+ * The multiplication uses a table of all products (64 KB), so encoding and
+ * decoding is one table lookup and one XOR per byte and coefficient.
+ */
+public class ReedSolomon {
+    static final int MAX_SYMBOLS = 256; // k + m, the elements of the field
+    private static final int POLYNOMIAL = 0x11D; // x^8 + x^4 + x^3 + x^2 + 1
+    private static final int[] EXP = new int[2 * 255];
+    private static final int[] LOG = new int[256];
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            EXP[i + 255] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x > 0xFF) x ^= POLYNOMIAL;
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    /**
+     * @return product in GF(2^8)
+     */
+    static int mul(int a, int b) {
+        return MUL[a][b] & 0xFF;
+    }
+
+    /**
+     * @param a element, not 0
+     * @return multiplicative inverse in GF(2^8)
+     */
+    static int inverse(int a) {
+        if (a == 0) throw new ArithmeticException("0 has no inverse");
+        return EXP[255 - LOG[a]];
+    }
+
+    /**
+     * @param j repair symbol, 0 ... m - 1
+     * @param i data symbol, 0 ... k - 1
+     * @param m number of repair symbols
+     * @return coefficient of data symbol i in repair symbol j
+     */
+    static int coefficient(int j, int i, int m) {
+        return inverse(j ^ (m + i)); // addition in GF(2^8) is XOR
+    }
+
+    /**
+     * Add the multiple of a symbol: dst += c * src.
+     *
+     * @param dst    destination, at least length bytes
+     * @param src    source, at least length bytes
+     * @param c      factor
+     * @param length number of bytes
+     */
+    static void mulAdd(byte[] dst, byte[] src, int c, int length) {
+        if (c == 0) return;
+        if (c == 1) {
+            XorEngine.xor(dst, src, length);
+            return;
+        }
+        byte[] row = MUL[c];
+        for (int n = 0; n < length; n++) {
+            dst[n] ^= row[src[n] & 0xFF];
+        }
+    }
+
+    /**
+     * Compute a repair symbol.
+     *
+     * @param data   k data symbols, each at least length bytes
+     * @param k      number of data symbols
+     * @param m      number of repair symbols
+     * @param j      repair symbol to compute, 0 ... m - 1
+     * @param repair receives the repair symbol, at least length bytes, cleared before
+     * @param length symbol length
+     */
+    static void encode(byte[][] data, int k, int m, int j, byte[] repair, int length) {
+        Arrays.fill(repair, 0, length, (byte) 0);
+        for (int i = 0; i < k; i++) {
+            mulAdd(repair, data[i], coefficient(j, i, m), length);
+        }
+    }
+
+    /**
+     * Restore the lost data symbols.
+     *
+     * @param data    k data symbols, null if lost, the lost ones are filled in
+     * @param repairs m repair symbols, null if not received
+     * @param length  symbol length
+     * @return false if more data symbols are lost than repair symbols received
+     */
+    static boolean decode(byte[][] data, byte[][] repairs, int length) {
+        int k = data.length;
+        int m = repairs.length;
+        int[] lost = new int[k];
+        int nLost = 0;
+        for (int i = 0; i < k; i++) {
+            if (data[i] == null) lost[nLost++] = i;
+        }
+        if (nLost == 0) return true;
+        int[] rows = new int[nLost]; // received repair symbols used for the lost ones
+        int nRows = 0;
+        for (int j = 0; j < m && nRows < nLost; j++) {
+            if (repairs[j] != null) rows[nRows++] = j;
+        }
+        if (nRows < nLost) return false;
+
+        // right side: repair symbols without the contribution of the received data
+        byte[][] sums = new byte[nLost][];
+        for (int r = 0; r < nLost; r++) {
+            sums[r] = Arrays.copyOf(repairs[rows[r]], length);
+            for (int i = 0; i < k; i++) {
+                if (data[i] != null) mulAdd(sums[r], data[i], coefficient(rows[r], i, m), length);
+            }
+        }
+        // the coefficients of the lost symbols form a Cauchy matrix, which is invertible
+        int[][] matrix = new int[nLost][nLost];
+        for (int r = 0; r < nLost; r++) {
+            for (int c = 0; c < nLost; c++) {
+                matrix[r][c] = coefficient(rows[r], lost[c], m);
+            }
+        }
+        int[][] inverse = invert(matrix);
+        for (int c = 0; c < nLost; c++) {
+            byte[] symbol = new byte[length];
+            for (int r = 0; r < nLost; r++) {
+                mulAdd(symbol, sums[r], inverse[c][r], length);
+            }
+            data[lost[c]] = symbol;
+        }
+        return true;
+    }
+
+    /**
+     * Invert a matrix with the Gauss-Jordan elimination.
+     *
+     * @param matrix square matrix, destroyed
+     * @return inverse
+     * @throws ArithmeticException if the matrix is singular
+     */
+    static int[][] invert(int[][] matrix) {
+        int n = matrix.length;
+        int[][] inverse = new int[n][n];
+        for (int i = 0; i < n; i++) inverse[i][i] = 1;
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && matrix[pivot][col] == 0) pivot++;
+            if (pivot == n) throw new ArithmeticException("singular matrix");
+            int[] swap = matrix[col];
+            matrix[col] = matrix[pivot];
+            matrix[pivot] = swap;
+            swap = inverse[col];
+            inverse[col] = inverse[pivot];
+            inverse[pivot] = swap;
+
+            int factor = inverse(matrix[col][col]);
+            for (int c = 0; c < n; c++) {
+                matrix[col][c] = mul(matrix[col][c], factor);
+                inverse[col][c] = mul(inverse[col][c], factor);
+            }
+            for (int row = 0; row < n; row++) {
+                int f = matrix[row][col];
+                if (row == col || f == 0) continue;
+                for (int c = 0; c < n; c++) {
+                    matrix[row][c] ^= mul(f, matrix[col][c]);
+                    inverse[row][c] ^= mul(f, inverse[col][c]);
+                }
+            }
+        }
+        return inverse;
+    }
+
+    /**
+     * Check the recovery of random erasures and measure the throughput.
+     *
+     * @param args [k] [m] [symbol length]
+     */
+    public static void main(String[] args) {
+        int k = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int m = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int length = args.length > 2 ? Integer.parseInt(args[2]) : 1400;
+        Random random = new Random(1);
+        byte[][] data = new byte[k][length];
+        for (byte[] symbol : data) random.nextBytes(symbol);
+        byte[][] repairs = new byte[m][length];
+
+        int rounds = 2000;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int j = 0; j < m; j++) encode(data, k, m, j, repairs[j], length);
+            encodeNanos += System.nanoTime() - start;
+
+            // lose up to m of the k + m symbols
+            byte[][] received = data.clone();
+            byte[][] receivedRepairs = repairs.clone();
+            for (int n = random.nextInt(m + 1); n > 0; n--) {
+                int symbol = random.nextInt(k + m);
+                if (symbol < k) received[symbol] = null;
+                else receivedRepairs[symbol - k] = null;
+            }
+            start = System.nanoTime();
+            if (!decode(received, receivedRepairs, length)) throw new AssertionError("not decodable");
+            decodeNanos += System.nanoTime() - start;
+            for (int i = 0; i < k; i++) {
+                if (!Arrays.equals(received[i], data[i])) throw new AssertionError("symbol " + i + " differs");
+            }
+        }
+        System.out.printf("k=%d m=%d, %d bytes: encode %.0f MB/s, decode %.1f us per group, all restored%n",
+                k, m, length, rounds * (double) k * length / (encodeNanos / 1e3), decodeNanos / 1e3 / rounds);
+    }
+}
@@ -0,0 +1,314 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reed-Solomon FEC: m repair packets per group of k media packets.
+ * <p>
+ * In contrast to the XOR parity of the {@link FecHandler}, which restores
+ * one lost packet per group, any m lost media packets of a group are
+ * restored (see {@link ReedSolomon}). The repair packets have their own
+ * payload type {@link RtpHandler#RTP_PAYLOAD_RS}.
+ * <p>
+ * Each media packet is protected as symbol of a recovery header and the
+ * payload, padded with zeros to the longest symbol of the group:
+ * <pre>
+ *  0                   1                   2                   3
+ *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |        payload length         |M|     PT      |   reserved    |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                           timestamp                           |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * </pre>
+ * A repair packet carries the RS header after the RTP header, followed by
+ * one repair symbol:
+ * <pre>
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |            SN base            |       k       |       m       |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |  repair index |   reserved    |         symbol length         |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * </pre>
+ */
+public class RsFecHandler {
+    static final int RS_HEADER_SIZE = 8;
+    static final int SYMBOL_HEADER_SIZE = 8;
+    static final int MAX_REPAIR_PACKETS = 16;
+    // Sender
+    private int groupSize; // k
+    private volatile int nextGroupSize; // from the next group on
+    private final int repairPackets; // m
+    private final byte[][] symbols = new byte[FecHandler.maxGroupSize][];
+    private int symbolCount = 0; // media packets in the current group
+    private int symbolLength = 0; // longest symbol of the current group
+    private int snBase;
+    private int lastTimestamp;
+    private int repairSeqNr = 0;
+    private int groupFrames = 0; // a group ends with every n-th frame at the latest, 0 for fixed groups
+    private int frameCounter = 0; // completed frames in the current group
+    private boolean frameEnd = false; // the current group ends with the frame
+    // Receiver: ring of the groups, indexed by the extended SN base
+    private byte[][][] repairs; // received repair symbols of each group, null if the slot is free
+    private int[] repairCount;
+    private int[] groupBase;
+    private int[] groupK;
+    private int[] groupLength; // symbol length
+    private byte[][][] restored; // data symbols after decoding, null before
+    private int[] protectingGroup; // extended SN base of the group protecting a media packet
+    private int oldestGroup = -1; // groups with a lower SN base are evicted
+
+    /**
+     * Constructor for Sender
+     *
+     * @param size          group size k
+     * @param repairPackets repair packets m per group
+     */
+    public RsFecHandler(int size, int repairPackets) {
+        groupSize = size;
+        nextGroupSize = size;
+        this.repairPackets = repairPackets;
+    }
+
+    /**
+     * Constructor for Receiver
+     */
+    public RsFecHandler() {
+        repairPackets = 0;
+        repairs = new byte[FecHandler.GROUP_SLOTS][][];
+        repairCount = new int[FecHandler.GROUP_SLOTS];
+        groupBase = new int[FecHandler.GROUP_SLOTS];
+        groupK = new int[FecHandler.GROUP_SLOTS];
+        groupLength = new int[FecHandler.GROUP_SLOTS];
+        restored = new byte[FecHandler.GROUP_SLOTS][][];
+        protectingGroup = new int[FecHandler.GROUP_SLOTS];
+    }
+
+    // *************** Sender *********************************************************************
+
+    /**
+     * *** Sender *** Add a media packet to the current group.
+     *
+     * @param packet RTP packet between position and limit, not modified
+     */
+    public void setRtp(ByteBuffer packet) {
+        int start = packet.position();
+        int payloadLength = packet.remaining() - RTPpacket.HEADER_SIZE;
+        if (symbolCount == 0) {
+            groupSize = nextGroupSize; // change the size only between groups
+            snBase = packet.getShort(start + 2) & 0xFFFF;
+            symbolLength = 0;
+        }
+        byte[] symbol = new byte[SYMBOL_HEADER_SIZE + payloadLength];
+        ByteBuffer header = ByteBuffer.wrap(symbol);
+        header.putShort((short) payloadLength);
+        header.put(packet.get(start + 1)); // marker and payload type
+        header.put((byte) 0);
+        lastTimestamp = packet.getInt(start + 4);
+        header.putInt(lastTimestamp);
+        packet.get(start + RTPpacket.HEADER_SIZE, symbol, SYMBOL_HEADER_SIZE, payloadLength);
+        symbols[symbolCount++] = symbol;
+        symbolLength = Math.max(symbolLength, symbol.length);
+        if (groupFrames > 0 && packet.get(start + 1) < 0 && ++frameCounter == groupFrames) { // marker bit
+            frameEnd = true;
+        }
+    }
+
+    /**
+     * @return True, if all RTP-packets of the group are handled
+     */
+    public boolean isReady() {
+        return symbolCount == groupSize || frameEnd;
+    }
+
+    /**
+     * *** Sender *** Build the repair packets of the group and start a new group.
+     *
+     * @param packets receives the repair packets including RTP header
+     */
+    public void getPackets(List<byte[]> packets) {
+        for (int i = 0; i < symbolCount; i++) {
+            if (symbols[i].length < symbolLength) symbols[i] = Arrays.copyOf(symbols[i], symbolLength);
+        }
+        for (int j = 0; j < repairPackets; j++) {
+            byte[] packet = new byte[RTPpacket.HEADER_SIZE + RS_HEADER_SIZE + symbolLength];
+            ByteBuffer buffer = ByteBuffer.wrap(packet);
+            RTPpacket.putRtpHeader(buffer, 0, RtpHandler.RTP_PAYLOAD_RS, repairSeqNr++ & 0xFFFF,
+                    lastTimestamp, RtpHandler.SSRC);
+            buffer.putShort((short) snBase);
+            buffer.put((byte) symbolCount);
+            buffer.put((byte) repairPackets);
+            buffer.put((byte) j);
+            buffer.put((byte) 0);
+            buffer.putShort((short) symbolLength);
+
+            byte[] repair = new byte[symbolLength];
+            ReedSolomon.encode(symbols, symbolCount, repairPackets, j, repair, symbolLength);
+            buffer.put(repair);
+            packets.add(packet);
+        }
+        Arrays.fill(symbols, null);
+        symbolCount = 0;
+        frameCounter = 0;
+        frameEnd = false;
+    }
+
+    /**
+     * *** Sender *** Set the group size, the current group is completed with the old size.
+     *
+     * @param size FEC Group
+     */
+    public void setFecGroupSize(int size) {
+        nextGroupSize = size;
+    }
+
+    /**
+     * *** Sender *** Align the groups to frames: a group ends with the last
+     * packet of its n-th frame, even if it has less than k packets, so the
+     * repair packets of a frame follow it directly.
+     *
+     * @param frames frames per group at most, 0 for groups of k packets only
+     */
+    public void setGroupFrames(int frames) {
+        groupFrames = frames;
+    }
+
+    // *************** Receiver *******************************************************************
+
+    /**
+     * Store a received repair packet.
+     *
+     * @param rtp          the received repair packet
+     * @param mediaPackets received media packets, to extend the SN base
+     * @return extended sequence number of the last protected packet, -1 if the packet is not used
+     */
+    public int rcvRepairPacket(RTPpacket rtp, JitterBuffer mediaPackets) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        if (rtp.getpayload_length() < RS_HEADER_SIZE) return -1;
+        ByteBuffer payload = ByteBuffer.wrap(rtp.payload, 0, rtp.getpayload_length());
+        int base = mediaPackets.extend(payload.getShort() & 0xFFFF);
+        int k = payload.get() & 0xFF;
+        int m = payload.get() & 0xFF;
+        int j = payload.get() & 0xFF;
+        payload.get();
+        int length = payload.getShort() & 0xFFFF;
+        if (k == 0 || k > FecHandler.maxGroupSize || j >= m || payload.remaining() < length) return -1;
+
+        if (oldestGroup == -1) oldestGroup = base;
+        if (base < oldestGroup) return -1; // too late, the group is already played
+        int slot = base & (FecHandler.GROUP_SLOTS - 1);
+        if (repairs[slot] == null || groupBase[slot] != base) { // first repair packet of the group
+            repairs[slot] = new byte[m][];
+            repairCount[slot] = 0;
+            groupBase[slot] = base;
+            groupK[slot] = k;
+            groupLength[slot] = length;
+            restored[slot] = null;
+            for (int i = 0; i < k; i++) {
+                protectingGroup[(base + i) & (FecHandler.GROUP_SLOTS - 1)] = base;
+            }
+        }
+        if (m != repairs[slot].length || length != groupLength[slot] || repairs[slot][j] != null) return -1;
+        repairs[slot][j] = Arrays.copyOfRange(rtp.payload, RS_HEADER_SIZE, RS_HEADER_SIZE + length);
+        repairCount[slot]++;
+        if (logger.isLoggable(Level.FINER)) {
+            logger.log(Level.FINER, "RS: repair " + j + "/" + m + " for group " + base + " k=" + k);
+        }
+        return base + k - 1;
+    }
+
+    /**
+     * Find the group which protects a media packet.
+     *
+     * @param nr extended sequence number of the media packet
+     * @return slot of the group, -1 if no repair packet was received for it
+     */
+    private int findGroup(int nr) {
+        int base = protectingGroup[nr & (FecHandler.GROUP_SLOTS - 1)];
+        int slot = base & (FecHandler.GROUP_SLOTS - 1);
+        if (repairs[slot] == null || groupBase[slot] != base || nr < base || nr - base >= groupK[slot]) return -1;
+        return slot;
+    }
+
+    /**
+     * Checks if the RTP packet is reparable: not more media packets of its
+     * group are missing than repair packets are received. Constant time,
+     * without side effects.
+     *
+     * @param nr           extended sequence Nr.
+     * @param mediaPackets received media packets
+     * @return true if possible
+     */
+    public boolean checkCorrection(int nr, JitterBuffer mediaPackets) {
+        int slot = findGroup(nr);
+        if (slot == -1) return false;
+        if (restored[slot] != null) return true;
+        long group = -1L << (Long.SIZE - groupK[slot]);
+        int missing = Long.bitCount(group & ~mediaPackets.receivedMask(groupBase[slot]));
+        return missing <= repairCount[slot];
+    }
+
+    /**
+     * Restore a media packet. All missing packets of the group are decoded
+     * at once and kept for the following ones.
+     *
+     * @param nr           extended sequence Nr.
+     * @param mediaPackets received media packets
+     * @return RTP packet, null if the received packets do not fit to the repair packets
+     */
+    public RtpPacketView correctRtp(int nr, JitterBuffer mediaPackets) {
+        int slot = findGroup(nr);
+        int base = groupBase[slot];
+        int length = groupLength[slot];
+        if (restored[slot] == null) {
+            byte[][] data = new byte[groupK[slot]][];
+            for (int i = 0; i < data.length; i++) {
+                RtpPacketView packet = mediaPackets.get(base + i);
+                if (packet == null) continue;
+                int payloadLength = packet.getPayloadLength();
+                if (SYMBOL_HEADER_SIZE + payloadLength > length) return null;
+                byte[] symbol = new byte[length];
+                ByteBuffer header = ByteBuffer.wrap(symbol);
+                header.putShort((short) payloadLength);
+                header.put((byte) (packet.getMarker() << 7 | packet.getPayloadType()));
+                header.put((byte) 0);
+                header.putInt(packet.getTimestamp());
+                System.arraycopy(packet.array(), packet.getPayloadStart(), symbol, SYMBOL_HEADER_SIZE, payloadLength);
+                data[i] = symbol;
+            }
+            if (!ReedSolomon.decode(data, repairs[slot], length)) return null;
+            restored[slot] = data;
+        }
+
+        ByteBuffer symbol = ByteBuffer.wrap(restored[slot][nr - base]);
+        int payloadLength = symbol.getShort() & 0xFFFF;
+        int markerAndType = symbol.get() & 0xFF;
+        symbol.get();
+        int timestamp = symbol.getInt();
+        if (SYMBOL_HEADER_SIZE + payloadLength > length) return null;
+        ByteBuffer packet = ByteBuffer.allocate(RTPpacket.HEADER_SIZE + payloadLength);
+        RTPpacket.putRtpHeader(packet, markerAndType >> 7, markerAndType & 0x7F, nr & 0xFFFF, timestamp,
+                RtpHandler.SSRC);
+        packet.put(symbol.array(), SYMBOL_HEADER_SIZE, payloadLength);
+        return new RtpPacketView(packet.flip(), null);
+    }
+
+    /**
+     * Release the groups which are played.
+     *
+     * @param nr extended sequence number, groups with a lower SN base are released
+     */
+    public void evictBefore(int nr) {
+        if (oldestGroup == -1) return;
+        for (int base = Math.max(oldestGroup, nr - FecHandler.GROUP_SLOTS); base < nr; base++) {
+            int slot = base & (FecHandler.GROUP_SLOTS - 1);
+            if (groupBase[slot] == base) {
+                repairs[slot] = null;
+                restored[slot] = null;
+            }
+        }
+        oldestGroup = Math.max(oldestGroup, nr);
+    }
+}
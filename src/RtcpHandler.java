@@ -0,0 +1,200 @@
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates and evaluates the RTCP reports of a session (RFC 3550, 6.4).
+ * <p>
+ * On the server, the handler counts the sent media packets for the sender
+ * reports and evaluates the receiver reports of the client into a
+ * {@link ReceptionFeedback}, including the round-trip time from the LSR and
+ * DLSR fields (RFC 3550, 6.4.1). On the client, it remembers the last sender
+ * report and creates the receiver reports from the {@link ReceptionStatistic}
+ * of the {@link RtpHandler}. Like the RTP handler, it does not use sockets.
+ */
+public class RtcpHandler {
+    public static final int REPORT_INTERVAL = 1000; // ms, shorter than the 5 s of RFC 3550, 6.2, for live feedback
+    private static final long NTP_OFFSET = 2208988800L; // seconds from 1900 to 1970
+
+    private final int ssrc;
+    private final String cname;
+    // server side
+    private int packetCount = 0;
+    private int octetCount = 0;
+    private int lastRtpTimestamp; // of the last sent media packet
+    private long lastRtpTimestampNanos; // sampling time of the last timestamp
+    private final ReceptionFeedback feedback = new ReceptionFeedback();
+    // client side
+    private int senderSsrc = 0;
+    private int lastSr = 0; // middle 32 bits of the NTP timestamp of the last SR
+    private long lastSrNanos; // arrival of the last SR
+    private int expectedPrior = 0;
+    private int receivedPrior = 0;
+    // loss report of the client
+    private int lostPrior = 0;
+    private int burstsPrior = 0;
+
+    /**
+     * @param ssrc  synchronization source of this side
+     * @param cname canonical name of this side, e.g. user@host
+     */
+    public RtcpHandler(int ssrc, String cname) {
+        this.ssrc = ssrc;
+        this.cname = cname;
+    }
+
+    /**
+     * @return wallclock time in the NTP timestamp format: seconds since 1900 as 32.32 fixed point
+     */
+    static long ntpTimestamp() {
+        Instant now = Instant.now();
+        long fraction = ((long) now.getNano() << 32) / 1_000_000_000L;
+        return (now.getEpochSecond() + NTP_OFFSET) << 32 | fraction;
+    }
+
+    // *************** Server *****************************************************************
+
+    /**
+     * Count a sent RTP packet for the next sender report.
+     *
+     * @param packet RTP packet between position and limit, not modified
+     */
+    public synchronized void packetSent(ByteBuffer packet) {
+        int start = packet.position();
+        if ((packet.get(start + 1) & 0x7F) != RtpHandler.RTP_PAYLOAD_JPEG) return; // media only, as counted by the client
+        int timestamp = packet.getInt(start + 4);
+        if (packetCount == 0 || timestamp != lastRtpTimestamp) {
+            lastRtpTimestamp = timestamp;
+            lastRtpTimestampNanos = System.nanoTime();
+        }
+        packetCount++;
+        octetCount += packet.remaining() - RTPpacket.HEADER_SIZE;
+    }
+
+    /**
+     * @return number of sent media packets
+     */
+    public synchronized int getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * @return true if media packets were sent, which are reported in a SR
+     */
+    public synchronized boolean isSender() {
+        return packetCount > 0;
+    }
+
+    /**
+     * Create a sender report for the current time. The RTP timestamp is
+     * extrapolated from the timestamp of the last sent frame.
+     *
+     * @return RTCP compound packet
+     */
+    public synchronized byte[] createSenderReport() {
+        RtcpPacket report = new RtcpPacket();
+        report.packetType = RtcpPacket.SR;
+        report.ssrc = ssrc;
+        report.cname = cname;
+        report.ntpTimestamp = ntpTimestamp();
+        report.rtpTimestamp = lastRtpTimestamp + (int) ((System.nanoTime() - lastRtpTimestampNanos)
+                / 1000 * RtpHandler.RTP_CLOCK_RATE / 1_000_000);
+        report.packetCount = packetCount;
+        report.octetCount = octetCount;
+        return report.getPacket();
+    }
+
+    /**
+     * @return reception quality reported by the client
+     */
+    public ReceptionFeedback getFeedback() {
+        return feedback;
+    }
+
+    // *************** Client *****************************************************************
+
+    /**
+     * Create a receiver report from the reception statistic (RFC 3550, A.3).
+     *
+     * @param rs current statistic of the RTP handler
+     * @return RTCP compound packet
+     */
+    public synchronized byte[] createReceiverReport(ReceptionStatistic rs) {
+        RtcpPacket report = new RtcpPacket();
+        report.packetType = RtcpPacket.RR;
+        report.ssrc = ssrc;
+        report.cname = cname;
+
+        if (rs.firstSequenceNumber != -1) { // nothing received yet: report without block
+            int expected = rs.latestSequenceNumber - rs.firstSequenceNumber + 1;
+            int lost = expected - rs.receivedPackets;
+            int expectedInterval = expected - expectedPrior;
+            int lostInterval = expectedInterval - (rs.receivedPackets - receivedPrior);
+            expectedPrior = expected;
+            receivedPrior = rs.receivedPackets;
+
+            report.hasReportBlock = true;
+            report.sourceSsrc = senderSsrc;
+            report.fractionLost = expectedInterval == 0 || lostInterval <= 0
+                    ? 0 : (lostInterval << 8) / expectedInterval;
+            report.cumulativeLost = Math.max(-0x800000, Math.min(0x7FFFFF, lost));
+            // count the cycles from the first packet
+            report.highestSequenceNumber = rs.latestSequenceNumber - (rs.firstSequenceNumber & ~0xFFFF);
+            report.jitter = (int) (rs.jitter * RtpHandler.RTP_CLOCK_RATE / 1000);
+            if (lastSr != 0) {
+                report.lastSr = lastSr;
+                report.delaySinceLastSr = (int) ((System.nanoTime() - lastSrNanos) * 65536 / 1_000_000_000L);
+            }
+            report.hasLossReport = true;
+            report.lostPackets = rs.packetsLost;
+            report.lossBursts = rs.lossBursts;
+        }
+        return report.getPacket();
+    }
+
+    // *************** Both sides *************************************************************
+
+    /**
+     * Evaluate a received RTCP packet: a SR on the client, a RR on the server.
+     *
+     * @param data   received packet
+     * @param length length of the packet
+     * @return true if the packet contained a report
+     */
+    public synchronized boolean processRtcpPacket(byte[] data, int length) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        long now = System.nanoTime();
+        RtcpPacket report = RtcpPacket.parse(data, length);
+        if (report == null) {
+            logger.log(Level.FINE, "RTCP: no report in packet of " + length + " bytes");
+            return false;
+        }
+        logger.log(Level.FINE, "RTCP: " + report);
+
+        if (report.packetType == RtcpPacket.SR) {
+            senderSsrc = report.ssrc;
+            lastSr = (int) (report.ntpTimestamp >>> 16);
+            lastSrNanos = now;
+        }
+        if (report.hasReportBlock && report.sourceSsrc == ssrc) {
+            feedback.reports++;
+            feedback.fractionLost = report.fractionLost / 256.0;
+            feedback.cumulativeLost = report.cumulativeLost;
+            feedback.highestSequenceNumber = report.highestSequenceNumber;
+            feedback.jitter = (0xFFFFFFFFL & report.jitter) * 1000.0 / RtpHandler.RTP_CLOCK_RATE;
+            if (report.lastSr != 0) {
+                int arrival = (int) (ntpTimestamp() >>> 16);
+                int rtt = arrival - report.lastSr - report.delaySinceLastSr; // in 1/65536 s
+                if (rtt >= 0) feedback.roundTripTime = rtt * 1000.0 / 65536;
+            }
+            feedback.lastReportNanos = now;
+        }
+        if (report.hasLossReport && report.lossBursts > burstsPrior) {
+            feedback.meanBurstLength = (report.lostPackets - lostPrior) / (double) (report.lossBursts - burstsPrior);
+            lostPrior = report.lostPackets;
+            burstsPrior = report.lossBursts;
+        }
+        return true;
+    }
+}
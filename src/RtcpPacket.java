@@ -0,0 +1,221 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * RTCP sender and receiver report (RFC 3550, 6.4).
+ * <p>
+ * A report is sent as compound packet followed by a SDES packet with the
+ * CNAME of the sender (RFC 3550, 6.1). Only one report block is supported,
+ * as a session has one sender and one receiver. The receiver may add an
+ * APP packet (RFC 3550, 6.7) named "LOSS" with the number of lost packets
+ * and of loss bursts, which tells the sender how bursty the losses are.
+ * When parsing a compound packet, other RTCP packet types are skipped.
+ */
+public class RtcpPacket {
+
+  /*
+    0                   1                   2                   3
+    0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |V=2|P|    RC   |   PT=SR=200   |             length            | header
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |                         SSRC of sender                        |
+   +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+
+   |              NTP timestamp, most significant word             | sender
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+ info,
+   |             NTP timestamp, least significant word             | SR only
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |                         RTP timestamp                         |
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |                     sender's packet count                     |
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |                      sender's octet count                     |
+   +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+
+   |                 SSRC_1 (SSRC of first source)                 | report
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+ block
+   | fraction lost |       cumulative number of packets lost       |   1
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |           extended highest sequence number received           |
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |                      interarrival jitter                      |
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |                         last SR (LSR)                         |
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |                   delay since last SR (DLSR)                  |
+   +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+
+   The RR (PT=201) has the same layout without the sender info.
+   */
+
+    static final int SR = 200;
+    static final int RR = 201;
+    static final int SDES = 202;
+    static final int APP = 204;
+    private static final int LOSS = 0x4C4F5353; // name of the APP packet: "LOSS"
+    private static final int CNAME = 1; // SDES item
+    private static final int SENDER_INFO_SIZE = 20;
+    private static final int REPORT_BLOCK_SIZE = 24;
+
+    public int packetType = RR; // SR or RR
+    public int ssrc; // sender of the report
+    public String cname = ""; // canonical name of the sender
+    // sender info, only SR
+    public long ntpTimestamp;
+    public int rtpTimestamp;
+    public int packetCount;
+    public int octetCount;
+    // report block
+    public boolean hasReportBlock = false;
+    public int sourceSsrc; // source the block reports about
+    public int fractionLost; // fixed point with the binary point at the left edge
+    public int cumulativeLost; // 24 bit, signed
+    public int highestSequenceNumber; // extended
+    public int jitter; // in timestamp units
+    public int lastSr; // middle 32 bits of the NTP timestamp of the last SR, 0 if none
+    public int delaySinceLastSr; // in units of 1/65536 s
+    // loss report, APP packet
+    public boolean hasLossReport = false;
+    public int lostPackets; // cumulative, before the FEC correction
+    public int lossBursts; // cumulative, runs of consecutive lost packets
+
+    /**
+     * Build the compound packet of the report and the SDES packet.
+     *
+     * @return RTCP compound packet
+     */
+    public byte[] getPacket() {
+        byte[] name = cname.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(name.length, 255);
+        int reportSize = 8 + (packetType == SR ? SENDER_INFO_SIZE : 0) + (hasReportBlock ? REPORT_BLOCK_SIZE : 0);
+        int sdesSize = (8 + 2 + nameLength + 4) & ~3; // at least one null octet ends the item list
+        int appSize = hasLossReport ? 20 : 0;
+        ByteBuffer packet = ByteBuffer.allocate(reportSize + sdesSize + appSize);
+
+        packet.put((byte) (2 << 6 | (hasReportBlock ? 1 : 0)));
+        packet.put((byte) packetType);
+        packet.putShort((short) (reportSize / 4 - 1));
+        packet.putInt(ssrc);
+        if (packetType == SR) {
+            packet.putLong(ntpTimestamp);
+            packet.putInt(rtpTimestamp);
+            packet.putInt(packetCount);
+            packet.putInt(octetCount);
+        }
+        if (hasReportBlock) {
+            packet.putInt(sourceSsrc);
+            packet.putInt(fractionLost << 24 | cumulativeLost & 0xFFFFFF);
+            packet.putInt(highestSequenceNumber);
+            packet.putInt(jitter);
+            packet.putInt(lastSr);
+            packet.putInt(delaySinceLastSr);
+        }
+
+        packet.put((byte) (2 << 6 | 1)); // one chunk
+        packet.put((byte) SDES);
+        packet.putShort((short) (sdesSize / 4 - 1));
+        packet.putInt(ssrc);
+        packet.put((byte) CNAME);
+        packet.put((byte) nameLength);
+        packet.put(name, 0, nameLength);
+        packet.position(reportSize + sdesSize); // zeros: end of the item list and padding
+
+        if (hasLossReport) {
+            packet.put((byte) (2 << 6)); // subtype 0
+            packet.put((byte) APP);
+            packet.putShort((short) (appSize / 4 - 1));
+            packet.putInt(ssrc);
+            packet.putInt(LOSS);
+            packet.putInt(lostPackets);
+            packet.putInt(lossBursts);
+        }
+        return packet.array();
+    }
+
+    /**
+     * Parse a received compound packet.
+     *
+     * @param data   received packet
+     * @param length length of the packet
+     * @return report, null if the packet does not contain a SR or RR
+     */
+    public static RtcpPacket parse(byte[] data, int length) {
+        ByteBuffer packet = ByteBuffer.wrap(data, 0, length);
+        RtcpPacket report = null;
+        String cname = "";
+        boolean hasLossReport = false;
+        int lostPackets = 0;
+        int lossBursts = 0;
+
+        while (packet.remaining() >= 4) {
+            int start = packet.position();
+            int first = packet.get() & 0xFF;
+            int type = packet.get() & 0xFF;
+            int size = ((packet.getShort() & 0xFFFF) + 1) * 4;
+            if (first >> 6 != 2 || size > length - start) break; // not a valid RTCP packet
+            int count = first & 0x1F;
+
+            if ((type == SR || type == RR) && report == null && size >= 8) {
+                report = new RtcpPacket();
+                report.packetType = type;
+                report.ssrc = packet.getInt();
+                if (type == SR && size >= 8 + SENDER_INFO_SIZE) {
+                    report.ntpTimestamp = packet.getLong();
+                    report.rtpTimestamp = packet.getInt();
+                    report.packetCount = packet.getInt();
+                    report.octetCount = packet.getInt();
+                }
+                if (count > 0 && packet.position() + REPORT_BLOCK_SIZE <= start + size) {
+                    report.hasReportBlock = true;
+                    report.sourceSsrc = packet.getInt();
+                    int lost = packet.getInt();
+                    report.fractionLost = lost >>> 24;
+                    report.cumulativeLost = lost << 8 >> 8; // sign extension of 24 bit
+                    report.highestSequenceNumber = packet.getInt();
+                    report.jitter = packet.getInt();
+                    report.lastSr = packet.getInt();
+                    report.delaySinceLastSr = packet.getInt();
+                }
+            } else if (type == SDES && count > 0 && size >= 10) {
+                packet.getInt(); // SSRC of the first chunk
+                if (packet.get() == CNAME) {
+                    int nameLength = Math.min(packet.get() & 0xFF, start + size - packet.position());
+                    cname = new String(data, packet.position(), nameLength, StandardCharsets.UTF_8);
+                }
+            } else if (type == APP && size >= 20) {
+                packet.getInt(); // SSRC
+                if (packet.getInt() == LOSS) {
+                    hasLossReport = true;
+                    lostPackets = packet.getInt();
+                    lossBursts = packet.getInt();
+                }
+            }
+            packet.position(start + size);
+        }
+
+        if (report != null) {
+            report.cname = cname;
+            report.hasLossReport = hasLossReport;
+            report.lostPackets = lostPackets;
+            report.lossBursts = lossBursts;
+        }
+        return report;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(packetType == SR ? "SR" : "RR");
+        s.append(" from ").append(Integer.toHexString(ssrc)).append(" (").append(cname).append(")");
+        if (packetType == SR) {
+            s.append(" packets=").append(packetCount).append(" octets=").append(0xFFFFFFFFL & octetCount);
+        }
+        if (hasReportBlock) {
+            s.append(" fraction lost=").append(fractionLost).append("/256")
+                    .append(" lost=").append(cumulativeLost)
+                    .append(" highest=").append(highestSequenceNumber)
+                    .append(" jitter=").append(jitter);
+        }
+        if (hasLossReport) {
+            s.append(" loss bursts=").append(lossBursts).append("/").append(lostPackets);
+        }
+        return s.toString();
+    }
+}
@@ -1,7 +1,8 @@
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -10,12 +11,30 @@ import java.util.logging.Logger;
  * Handler for RTP packets.
  * <p>
  * Processes all RTP packets and provides JPEG images for displaying
+ * <p>
+ * On the client, the packets may be processed on another thread than the
+ * playback: the methods of the receiver are synchronized, packets are
+ * restored by FEC on arrival and only the images are assembled on the
+ * playback.
  *
  * @author Emanuel Günther
  */
 public class RtpHandler {
     public static final int RTP_PAYLOAD_FEC = 127; // assumed as in RFC 5109, 10.1
+    public static final int RTP_PAYLOAD_RS = 126; // dynamic, Reed-Solomon repair packets
     public static final int RTP_PAYLOAD_JPEG = 26;
+    public static final int SSRC = 0; // synchronization source of the server
+    public static final int DEFAULT_MTU = 1500; // Ethernet
+    static final int IP_UDP_HEADER_SIZE = 28; // IPv4 without options + UDP
+    static final int FEC_OVERHEAD = 18; // FEC header + ULP level header with long mask, more than RS + symbol header
+    static final int FEC_LEVEL1_OVERHEAD = 8; // ULP level 1 header with long mask
+    public static final int RECEIVE_BUFFER_SIZE = 9216; // jumbo frame, larger packets are truncated
+    private static final int POOLED_RECEIVE_BUFFERS = 1024;
+    private static final int JITTER_BUFFER_CAPACITY = 4096; // packets
+    static final int RTP_CLOCK_RATE = 90000; // Hz, JPEG (RFC 2435, 3.)
+    private static final int JITTER_FACTOR = 4; // playout delay above the frame period, in multiples of the jitter
+    private static final int MAX_PLAYOUT_DELAY = 2000; // ms
+    private static final double MAX_TIME_SCALE = 0.1; // maximum change of the playback speed
     private static final byte[] defaultKey = new byte[]{
             (byte) 0xE1, (byte) 0xF9, (byte) 0x7A, (byte) 0x0D, (byte) 0x3E, (byte) 0x01, (byte) 0x8B, (byte) 0xE0,
             (byte) 0xD6, (byte) 0x4F, (byte) 0xA3, (byte) 0x2C, (byte) 0x06, (byte) 0xDE, (byte) 0x41, (byte) 0x39};
@@ -24,16 +43,39 @@ public class RtpHandler {
             (byte) 0xEB, (byte) 0xB6, (byte) 0x96, (byte) 0x0B, (byte) 0x3A, (byte) 0xAB, (byte) 0xE6};
     private EncryptionMode encryptionMode;
     private FecHandler fecHandler = null;
+    private RsFecHandler rsFecHandler = null; // Reed-Solomon instead of XOR parity on the server
     private JpegEncryptionHandler jpegEncryptionHandler = null;
     private SrtpHandler srtpHandler = null;
     // server side
-    private int currentSeqNb = 0; // sequence number of current frame
+    private int currentSeqNb = 0; // sequence number of the last sent packet
+    private int currentFrameNb = 0; // number of the last sent frame
+    private int mtu = DEFAULT_MTU;
+    private int fecOverhead = FEC_OVERHEAD; // bytes a FEC packet adds to the longest media packet of its group
+    private boolean restartAligned = true; // cut fragments at restart markers
     private boolean fecEncodingEnabled = false; // server side
+    private final ArrayDeque<ByteBuffer> fecPackets = new ArrayDeque<>(); // completed, not yet sent
+    private final List<byte[]> repairPackets = new ArrayList<>(); // of the completed RS group
     // client side
     private boolean fecDecodingEnabled = false; // client side
-    private HashMap<Integer, RTPpacket> mediaPackets = null;
-    private int playbackIndex = -1;
-    private HashMap<Integer, List<Integer>> sameTimestamps = null;
+    private JitterBuffer mediaPackets = null;
+    private JitterBuffer recoveredPackets = null; // restored by FEC on the arrival of a packet
+    private JitterBuffer partialPackets = null; // first bytes restored by the ULP of the FEC on arrival
+    private long[] lossDetected = null; // ns, arrival of the packet behind a gap, by extended sequence number
+    private int lastMissedIndex = -1; // extended sequence number of the last packet restorable too late
+    private int recoveries = 0; // packets restored on arrival
+    private long recoveryNanos = 0; // sum of the times from detecting the losses to restoring them
+    private ByteBufferPool receiveBuffers = null; // backing the packets in mediaPackets
+    private int playbackIndex = -1; // extended sequence number of the last played packet
+    private int lastLostIndex = -2; // extended sequence number of the last lost packet
+    private JpegFrame referenceFrame = null; // last image, replaces lost restart intervals
+    private int playbackTimestamp; // timestamp of the last played image
+    private boolean framePlayed = false; // playbackTimestamp belongs to a frame taken from the buffer
+    private boolean frameComplete; // all fragments of the last frame up to the marker are there
+    private int latestTimestamp; // timestamp of the packet with the highest sequence number
+    private long firstArrival; // ns, arrival times are counted from the first packet
+    private int lastTransit; // relative transit time of the previous frame in timestamp units
+    private int jitterTimestamp; // timestamp of the last frame counted for the jitter
+    private double jitter = 0; // interarrival jitter in timestamp units (RFC 3550, 6.4.1)
     private ReceptionStatistic statistics = null;
 
     /**
@@ -42,9 +84,20 @@ public class RtpHandler {
      * @param fecGroupSize Group size for FEC packets. If the value is 0, FEC will be disabled.
      */
     public RtpHandler(int fecGroupSize) {
+        this(fecGroupSize, 0);
+    }
+
+    /**
+     * Create a new RtpHandler as server.
+     *
+     * @param fecGroupSize  Group size for FEC packets. If the value is 0, FEC will be disabled.
+     * @param repairPackets Reed-Solomon repair packets per group, 0 for the XOR parity of RFC 5109
+     */
+    public RtpHandler(int fecGroupSize, int repairPackets) {
         if (fecGroupSize > 0) {
             fecEncodingEnabled = true;
-            fecHandler = new FecHandler(fecGroupSize);
+            if (repairPackets > 0) rsFecHandler = new RsFecHandler(fecGroupSize, repairPackets);
+            else fecHandler = new FecHandler(fecGroupSize);
         }
     }
 
@@ -56,38 +109,33 @@ public class RtpHandler {
     public RtpHandler(boolean useFec) {
         fecDecodingEnabled = useFec;
         fecHandler = new FecHandler(useFec);
-        mediaPackets = new HashMap<>();
-        sameTimestamps = new HashMap<>();
+        rsFecHandler = new RsFecHandler();
+        mediaPackets = new JitterBuffer(JITTER_BUFFER_CAPACITY);
+        recoveredPackets = new JitterBuffer(JITTER_BUFFER_CAPACITY);
+        partialPackets = new JitterBuffer(JITTER_BUFFER_CAPACITY);
+        lossDetected = new long[JITTER_BUFFER_CAPACITY];
+        receiveBuffers = new ByteBufferPool(RECEIVE_BUFFER_SIZE, POOLED_RECEIVE_BUFFERS, false);
         statistics = new ReceptionStatistic();
     }
 
     /**
-     * Retrieve the current FEC packet, if it is available.
+     * Retrieve the next completed FEC packet, if it is available.
      *
-     * @return FEC packet as byte array, null if no such packet available
+     * @return FEC packet in a send buffer of the pool, in read mode, null if no such packet available
      */
-    public byte[] createFecPacket() {
-        if (!isFecPacketAvailable()) {
-            return null;
-        }
-
-        byte[] fecPacket = fecHandler.getPacket();
-        byte[] encryptedPacket = null;
-
-        switch (encryptionMode) {
-            case SRTP -> {
-                encryptedPacket = srtpHandler.transformToSrtp(new RTPpacket(fecPacket, fecPacket.length));
-                if (encryptedPacket != null) {
-                    fecPacket = encryptedPacket;
-                }
-            }
-            case JPEG, JPEG_ATTACK -> {
-            }
-            default -> {
-            }
-        }
+    public ByteBuffer createFecPacket() {
+        return fecPackets.poll();
+    }
 
-        return fecPacket;
+    /**
+     * Encrypt the FEC packet of a completed group and queue it for sending.
+     *
+     * @param fecPacket send buffer in write mode with the FEC or repair packet
+     */
+    private void addFecPacket(ByteBuffer fecPacket) {
+        fecPacket.flip();
+        if (encryptionMode == EncryptionMode.SRTP) srtpHandler.transformToSrtp(fecPacket);
+        fecPackets.add(fecPacket);
     }
 
     /**
@@ -95,9 +143,12 @@ public class RtpHandler {
      *
      * @return Object with statistic values
      */
-    public ReceptionStatistic getReceptionStatistic() {
+    public synchronized ReceptionStatistic getReceptionStatistic() {
         // update values which are used internally and that are not just statistic
         statistics.playbackIndex = playbackIndex;
+        statistics.jitter = jitter * 1000 / RTP_CLOCK_RATE;
+        statistics.bufferedDelay = bufferedDelay();
+        statistics.recoveryLatency = recoveries == 0 ? 0 : recoveryNanos / 1e6 / recoveries;
 
         return statistics;
     }
@@ -108,22 +159,48 @@ public class RtpHandler {
      * @return bolean value if FEC packet available
      */
     public boolean isFecPacketAvailable() {
-        if (fecEncodingEnabled) {
-            return fecHandler.isReady();
-        } else {
-            return false;
-        }
+        return !fecPackets.isEmpty();
     }
 
     /**
-     * Transform a JPEG image to an RTP packet.
+     * Set the MTU of the path to the client. The frames are fragmented so
+     * that every RTP and FEC packet fits into one IP packet.
+     *
+     * @param mtu maximum size of an IP packet in bytes
+     */
+    public void setMtu(int mtu) {
+        this.mtu = mtu;
+        if (fecEncodingEnabled && rsFecHandler == null) fecHandler.setMtu(mtu);
+    }
+
+    /**
+     * Set the packetization of images with restart markers.
+     *
+     * @param restartAligned true: fragments contain whole restart intervals
+     *                       (RFC 2435, 3.1.7), false: fragments are cut at any byte
+     */
+    public void setRestartAligned(boolean restartAligned) {
+        this.restartAligned = restartAligned;
+    }
+
+    /**
+     * Transform a JPEG image to RTP packets in send buffers.
      * <p>
-     * Takes care of all steps inbetween.
+     * Takes care of all steps inbetween. The image is fragmented according
+     * to RFC 2435, 3.1.3: all packets of the image have the same timestamp,
+     * the last one has the marker bit set. Header and fragment are written
+     * directly into buffers of the pool and encrypted there, so the packets
+     * are not copied on the way to the channel. The FEC packets of the
+     * groups completed by the image are available afterwards via
+     * {@link #createFecPacket()}.
      *
      * @param jpegImage JPEG image as byte array
-     * @return RTP packet as byte array
+     * @param framerate exact frame rate of the video, e.g. 29.97, as used for pacing the frames
+     * @param pool      pool providing the send buffers, at least one MTU each
+     * @param packets   receives the RTP packets in sending order, in read mode
      */
-    public byte[] jpegToRtpPacket(final byte[] jpegImage, int framerate) {
+    public void jpegToRtpBuffers(final byte[] jpegImage, double framerate, ByteBufferPool pool,
+                                 List<ByteBuffer> packets) {
         Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
 
         byte[] image = switch (encryptionMode) {
@@ -132,34 +209,47 @@ public class RtpHandler {
             default -> jpegImage;
         };
 
-        byte[] payload;
+        int maxPayloadSize = mtu - IP_UDP_HEADER_SIZE - RTPpacket.HEADER_SIZE;
+        if (fecEncodingEnabled) maxPayloadSize -= fecOverhead;
         JpegFrame frame = JpegFrame.getFromJpegBytes(image);
-        payload = frame.getAsRfc2435Bytes();
-
-        currentSeqNb++;
-
-        // Build an RTPpacket object containing the image
-        // time has to be in scale with 90000 Hz (RFC 2435, 3.)
-        RTPpacket packet = new RTPpacket(
-                RTP_PAYLOAD_JPEG, currentSeqNb,
-                currentSeqNb * (90000 / framerate),
-                payload, payload.length);
+        int[] plan = frame.planRfc2435Fragments(maxPayloadSize, restartAligned);
+        int nbFragments = plan.length / JpegFrame.PLAN_FIELDS;
+
+        // time has to be in scale with 90000 Hz (RFC 2435, 3.), not rounded per frame to follow the pacer
+        currentFrameNb++;
+        int timestamp = (int) (long) (currentFrameNb * (double) RTP_CLOCK_RATE / framerate);
+
+        for (int i = 0; i < nbFragments; i++) {
+            currentSeqNb++;
+            int marker = i == nbFragments - 1 ? 1 : 0; // last packet of the frame
+
+            ByteBuffer packet = pool.acquire();
+            RTPpacket.putRtpHeader(packet, marker, RTP_PAYLOAD_JPEG, currentSeqNb & 0xFFFF, timestamp, SSRC);
+            frame.putRfc2435Fragment(packet, plan, i);
+            packet.flip();
+
+            if (fecEncodingEnabled && rsFecHandler != null) {
+                rsFecHandler.setRtp(packet);
+                if (rsFecHandler.isReady()) {
+                    rsFecHandler.getPackets(repairPackets);
+                    for (byte[] repair : repairPackets) addFecPacket(pool.acquire().put(repair));
+                    repairPackets.clear();
+                }
+            } else if (fecEncodingEnabled) {
+                fecHandler.setRtp(packet); // XORed directly from the send buffer
+                while (fecHandler.isReady()) {
+                    ByteBuffer fecPacket = pool.acquire();
+                    fecHandler.getPacket(fecPacket);
+                    addFecPacket(fecPacket);
+                }
+            }
 
-        if (fecEncodingEnabled) {
-            fecHandler.setRtp(packet);
+            if (encryptionMode == EncryptionMode.SRTP) srtpHandler.transformToSrtp(packet);
+            packets.add(packet);
         }
-
-        byte[] packetData =
-                switch (encryptionMode) {
-                    case SRTP -> srtpHandler.transformToSrtp(packet);
-                    case JPEG, JPEG_ATTACK -> null;
-                    default -> null;
-                };
-
-        if (packetData == null) {
-            packetData = packet.getpacket();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Frame " + currentFrameNb + ": " + nbFragments + " RTP packets");
         }
-        return packetData;
     }
 
     /**
@@ -172,23 +262,25 @@ public class RtpHandler {
      */
     public byte[] nextPlaybackImage() {
         Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-        statistics.requestedFrames++;
-        playbackIndex++;
+        byte[] image = null;
+        synchronized (this) { // the fragments are released by the packet processing
+            statistics.requestedFrames++;
+            playbackIndex++;
 
-        ArrayList<RTPpacket> packetList = packetsForNextImage();
-        if (packetList == null) {
-            return null;
-        }
-
-        byte[] image;
-        try {
-            image = JpegFrame.combineToOneImage(packetList);
-        } catch (Exception ignored) {
-            return null;
+            ArrayList<RtpPacketView> packetList = packetsForNextImage();
+            if (packetList != null) {
+                try {
+                    image = combineImage(packetList, frameComplete);
+                } catch (Exception ignored) {
+                }
+            }
+            evictPlayedPackets();
+            if (image == null) {
+                statistics.framesLost++;
+                return null;
+            }
         }
-        logger.log(Level.FINE, "Display TS: "
-                + (packetList.get(0).gettimestamp() & 0xFFFFFFFFL)
-                + " size: " + image.length);
+        logger.log(Level.FINE, "Display TS: " + image.length + " bytes");
 
         byte[] decryptedImage = null;
         switch (encryptionMode) {
@@ -214,69 +306,184 @@ public class RtpHandler {
     }
 
     /**
-     * Process and store a received RTP packet.
+     * Get an empty buffer for receiving the next packet, which is handed
+     * to {@link #processRtpPacket(ByteBuffer)} afterwards.
+     *
+     * @return heap buffer of {@link #RECEIVE_BUFFER_SIZE} bytes in write mode
+     */
+    public ByteBuffer acquireReceiveBuffer() {
+        return receiveBuffers.acquire();
+    }
+
+    /**
+     * Return a buffer from {@link #acquireReceiveBuffer()} which is not
+     * processed, e.g. a packet discarded at TEARDOWN.
+     *
+     * @param buffer buffer to return to the pool
+     */
+    public void releaseReceiveBuffer(ByteBuffer buffer) {
+        receiveBuffers.release(buffer);
+    }
+
+    /**
+     * Process and store a received RTP packet without copying it.
+     * <p>
+     * The packet is decrypted within the buffer and kept in the jitter
+     * buffer as {@link RtpPacketView}. The buffer goes back to the pool when
+     * the packet is evicted after playback.
+     *
+     * @param buffer buffer from {@link #acquireReceiveBuffer()} with the packet
+     *               between position and limit, taken over by the handler
+     */
+    public void processRtpPacket(ByteBuffer buffer) {
+        processRtpPacket(buffer, System.nanoTime());
+    }
+
+    /**
+     * Process and store a received RTP packet without copying it.
      *
-     * @param packetData the received RTP packet as byte array
+     * @param buffer       buffer from {@link #acquireReceiveBuffer()} with the packet
+     *                     between position and limit, taken over by the handler
+     * @param arrivalNanos arrival time of the packet from {@link System#nanoTime()}
      */
-    public void processRtpPacket(byte[] packetData, int packetLength) {
+    public synchronized void processRtpPacket(ByteBuffer buffer, long arrivalNanos) {
         Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-        RTPpacket packet = new RTPpacket(packetData, packetLength);
-        int seqNr = packet.getsequencenumber();
+        if (encryptionMode == EncryptionMode.SRTP) {
+            srtpHandler.retrieveFromSrtp(buffer); // left as received if not possible
+        }
+        RtpPacketView packet = new RtpPacketView(buffer, receiveBuffers);
+        if (!packet.isValid()) {
+            packet.release();
+            return;
+        }
+        int seqNr = packet.getSequenceNumber();
+        int timestamp = packet.getTimestamp(); // the packet may be released by the jitter buffer
+        int pt = packet.getPayloadType();
 
-        RTPpacket decryptedPacket = null;
-        switch (encryptionMode) {
-            case SRTP -> {
-                decryptedPacket = srtpHandler.retrieveFromSrtp(packet.getpacket());
-                if (decryptedPacket != null) {
-                    packet = decryptedPacket;
+        if (pt == RTP_PAYLOAD_JPEG) {
+            statistics.receivedPackets++;
+            int highest = mediaPackets.getHighest();
+            int extSeqNr = mediaPackets.put(packet);
+            if (playbackIndex != -1) {
+                // the packets of a gap are lost from now on
+                for (int n = Math.max(highest + 1, extSeqNr - lossDetected.length); n < extSeqNr; n++) {
+                    lossDetected[n & (lossDetected.length - 1)] = arrivalNanos;
                 }
+                fecHandler.mediaReceived(extSeqNr); // behind its FEC packet, it may complete a group
+                recoverOnArrival(extSeqNr < highest ? highest : -1, arrivalNanos); // late, also for Reed-Solomon
             }
-            case JPEG, JPEG_ATTACK -> {
+            statistics.latestSequenceNumber = mediaPackets.getHighest();
+            if (extSeqNr == mediaPackets.getHighest()) latestTimestamp = timestamp;
+
+            // set the correct index for beginning the playback
+            if (playbackIndex == -1) {
+                playbackIndex = extSeqNr - 1;
+                statistics.firstSequenceNumber = extSeqNr;
+                playbackTimestamp = timestamp;
+                firstArrival = arrivalNanos;
+                lastTransit = -timestamp;
+                jitterTimestamp = timestamp - 1;
             }
-            default -> {
+            if (timestamp - jitterTimestamp > 0) updateJitter(timestamp, arrivalNanos); // first packet of a frame
+            if (logger.isLoggable(Level.FINER)) {
+                logger.log(Level.FINER, "FEC: set media nr: " + seqNr + " (" + extSeqNr + ")");
             }
+        } else if (pt == RTP_PAYLOAD_FEC) {
+            // the FEC handler copies the protected bytes, the buffer goes back to the pool
+            fecHandler.rcvFecPacket(packet, mediaPackets);
+            packet.release();
+            recoverOnArrival(-1, arrivalNanos);
+        } else if (pt == RTP_PAYLOAD_RS) {
+            recoverOnArrival(rsFecHandler.rcvRepairPacket(packet.toRtpPacket(), mediaPackets), arrivalNanos);
+            packet.release();
+        } else {
+            packet.release(); // ignore packet
         }
 
-        // set the correct index for beginning the playback
-        if (playbackIndex == -1) {
-            playbackIndex = seqNr - 1;
+        if (logger.isLoggable(Level.FINER)) {
+            logger.log(Level.FINER,
+                    "---------------- Receiver -----------------------"
+                            + "\r\n"
+                            + "Got RTP packet with SeqNum # "
+                            + seqNr
+                            + " TimeStamp: "
+                            + (0xFFFFFFFFL & timestamp) // cast to long
+                            + " ms, of type "
+                            + pt
+                            + " Size: " + packet.getLength());
         }
+    }
 
-        int pt = packet.getpayloadtype();
-
-        if (pt == RTP_PAYLOAD_JPEG) {
-            statistics.receivedPackets++;
-            statistics.latestSequenceNumber = seqNr;
-            mediaPackets.put(seqNr, packet);
-
-            int ts = packet.gettimestamp();
-            List<Integer> tmpTimestamps = sameTimestamps.get(ts);
-            if (tmpTimestamps == null) {
-                tmpTimestamps = new ArrayList<>();
+    /**
+     * Restore the lost packets as soon as their FEC groups allow it, so the
+     * playback only looks them up. The XOR groups are peeled only where the
+     * received packet changed them. The packets of played frames are given
+     * up: if one of them is restored now, it is counted as missed deadline.
+     *
+     * @param last         extended sequence number of the last packet a Reed-Solomon group of the received
+     *                     packet may restore, -1 if there is none
+     * @param arrivalNanos arrival time of the received packet
+     */
+    private void recoverOnArrival(int last, long arrivalNanos) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        if (!fecDecodingEnabled || playbackIndex == -1) return;
+        int highest = mediaPackets.getHighest();
+        fecHandler.recover(mediaPackets);
+        for (int nr = fecHandler.nextRestored(); nr != -1; nr = fecHandler.nextRestored()) {
+            if (nr <= playbackIndex) {
+                statistics.missedDeadlinePackets++; // too late
+                continue;
             }
-            tmpTimestamps.add(seqNr);
-            sameTimestamps.put(ts, tmpTimestamps);
-            logger.log(Level.FINER, "FEC: set media nr: " + seqNr);
-            logger.log(Level.FINER, "FEC: set sameTimestamps: " + (0xFFFFFFFFL & ts)
-                    + " " + tmpTimestamps.toString());
-        } else if (pt == RTP_PAYLOAD_FEC) {
-            fecHandler.rcvFecPacket(packet);
+            RtpPacketView packet = fecHandler.correctRtp(nr, mediaPackets);
+            if (packet != null) {
+                storeRecovered(packet.retain(), nr, highest, arrivalNanos);
+                if (logger.isLoggable(Level.FINER)) logger.log(Level.FINER, "FEC: restored on arrival: " + nr);
+            } else if ((packet = restoredPrefix(nr)) != null) {
+                partialPackets.startAt(nr - FecHandler.GROUP_SLOTS / 2);
+                partialPackets.put(packet, nr);
+            }
+        }
+        if (last == -1) return;
+
+        for (int nr = last - 2 * FecHandler.maxGroupSize + 1; nr <= last; nr++) {
+            if (mediaPackets.contains(nr) || recoveredPackets.contains(nr)) continue;
+            if (!rsFecHandler.checkCorrection(nr, mediaPackets)) continue;
+            if (nr <= playbackIndex) { // too late, no FEC work
+                if (nr > lastMissedIndex && nr >= playbackIndex - FecHandler.maxGroupSize) {
+                    statistics.missedDeadlinePackets++;
+                    lastMissedIndex = nr;
+                }
+                continue;
+            }
+            RtpPacketView packet = rsFecHandler.correctRtp(nr, mediaPackets);
+            if (packet != null) storeRecovered(packet, nr, highest, arrivalNanos);
         }
-        // else: ignore packet
+    }
 
-        logger.log(Level.FINER,
-                "---------------- Receiver -----------------------"
-                        + "\r\n"
-                        + "Got RTP packet with SeqNum # "
-                        + packet.getsequencenumber()
-                        + " TimeStamp: "
-                        + (0xFFFFFFFFL & packet.gettimestamp()) // cast to long
-                        + " ms, of type "
-                        + pt
-                        + " Size: " + packet.getlength());
+    /**
+     * @param packet       restored packet, taken over
+     * @param nr           extended sequence number of the packet
+     * @param highest      highest received sequence number
+     * @param arrivalNanos arrival time of the packet which completed the restoration
+     */
+    private void storeRecovered(RtpPacketView packet, int nr, int highest, long arrivalNanos) {
+        recoveredPackets.startAt(nr - FecHandler.GROUP_SLOTS / 2); // leaves room for older packets
+        recoveredPackets.put(packet, nr);
+        // a packet behind the highest one is lost as the last of its group
+        recoveries++;
+        if (nr < highest) recoveryNanos += arrivalNanos - lossDetected[nr & (lossDetected.length - 1)];
+    }
 
-        // DoneTASK remove comment for debugging
-        packet.printheader(); // print rtp header bitstream for debugging
+    /**
+     * Release the packets which are played and not needed anymore to
+     * correct a later packet of their FEC group.
+     */
+    private void evictPlayedPackets() {
+        mediaPackets.evictBefore(playbackIndex - FecHandler.maxGroupSize);
+        recoveredPackets.evictBefore(playbackIndex + 1);
+        partialPackets.evictBefore(playbackIndex + 1);
+        fecHandler.evictBefore(playbackIndex - FecHandler.maxGroupSize);
+        rsFecHandler.evictBefore(playbackIndex - FecHandler.maxGroupSize);
     }
 
     /**
@@ -285,7 +492,7 @@ public class RtpHandler {
      * @param mode The encryption mode.
      * @return true if successful, false otherwise
      */
-    public boolean setEncryption(EncryptionMode mode) {
+    public synchronized boolean setEncryption(EncryptionMode mode) {
         if (currentSeqNb > 0 || (statistics != null && statistics.latestSequenceNumber > 0)) {
             // Do not change encryption when already started.
             return false;
@@ -329,43 +536,146 @@ public class RtpHandler {
      *
      * @param enabled Use the FEC error correction or not.
      */
-    public void setFecDecryptionEnabled(boolean enabled) {
+    public synchronized void setFecDecryptionEnabled(boolean enabled) {
         fecDecodingEnabled = enabled;
     }
 
+    /**
+     * Enable the 2D parity of the XOR FEC: column FEC packets over the
+     * packets spaced by the group size.
+     *
+     * @param depth rows of a block, less than 2 disables the column FEC
+     */
+    public void setFecDepth(int depth) {
+        if (fecEncodingEnabled && rsFecHandler == null) fecHandler.setDepth(depth);
+    }
+
+    /**
+     * Enable the unequal error protection of the XOR FEC: the RFC 2435
+     * headers and the first bytes of the packets get a FEC packet per half
+     * group.
+     *
+     * @param prefix bytes behind the RFC 2435 headers protected more strongly, -1 disables
+     */
+    public void setFecUlp(int prefix) {
+        if (fecEncodingEnabled && rsFecHandler == null) {
+            fecHandler.setUlp(prefix);
+            fecOverhead = FEC_OVERHEAD + (prefix >= 0 ? FEC_LEVEL1_OVERHEAD : 0); // both level headers
+        }
+    }
+
+    /**
+     * Stagger the rows of the XOR FEC: a FEC packet after every k packets
+     * protects the last s * k packets. Replaces the ULP levels.
+     *
+     * @param rows rows protecting each packet, 1 for consecutive rows
+     */
+    public void setFecStagger(int rows) {
+        if (fecEncodingEnabled && rsFecHandler == null) fecHandler.setStagger(rows);
+    }
+
+    /**
+     * Align the FEC groups to frames: a group ends with the last packet of
+     * every n-th frame at the latest.
+     *
+     * @param frames frames per group at most, 0 for groups of the group size only
+     */
+    public void setFecGroupFrames(int frames) {
+        if (!fecEncodingEnabled) return;
+        if (rsFecHandler != null) rsFecHandler.setGroupFrames(frames);
+        else fecHandler.setGroupFrames(frames);
+    }
+
     /**
      * Set a new group size for the FEC error handling.
      *
      * @param newGroupSize new group size
      */
     public void setFecGroupSize(int newGroupSize) {
-        fecHandler.setFecGroupSize(newGroupSize);
+        if (!fecEncodingEnabled) return;
+        if (rsFecHandler != null) rsFecHandler.setFecGroupSize(newGroupSize);
+        else fecHandler.setFecGroupSize(newGroupSize);
+    }
+
+    /**
+     * Update the interarrival jitter with the first received packet of a
+     * frame (RFC 3550, 6.4.1 and A.8). The other fragments share its
+     * timestamp but are spread over the frame by the sender's packet pacer,
+     * so they would add the pacing to the network jitter. The transit time
+     * is relative, as the clocks of server and client are not synchronized;
+     * only its variation counts.
+     *
+     * @param timestamp    RTP timestamp of the packet
+     * @param arrivalNanos arrival time of the packet in ns
+     */
+    private void updateJitter(int timestamp, long arrivalNanos) {
+        long arrival = (arrivalNanos - firstArrival) / 1000 * RTP_CLOCK_RATE / 1_000_000; // in timestamp units
+        int transit = (int) arrival - timestamp; // wraps like the 32-bit timestamps
+        int d = Math.abs(transit - lastTransit);
+        lastTransit = transit;
+        jitterTimestamp = timestamp;
+        jitter += (d - jitter) / 16.0;
+    }
+
+    /**
+     * @return media time in ms received ahead of the last played image
+     */
+    private int bufferedDelay() {
+        return (int) Math.max(0, (latestTimestamp - playbackTimestamp) * 1000L / RTP_CLOCK_RATE);
+    }
+
+    /**
+     * Time-scale the playback to keep the buffered media close to the
+     * playout delay.
+     * <p>
+     * The playout delay is one frame period plus a multiple of the current
+     * jitter, so it is as small as the network allows and grows when the
+     * arrival times vary. If more media is buffered, the images are shown up
+     * to {@link #MAX_TIME_SCALE} faster to reduce the latency, if less is
+     * buffered, slower to let the buffer fill up again.
+     *
+     * @param framePeriod nominal display time of an image in ms
+     * @return display time of the next image in ms
+     */
+    public synchronized int scaledFramePeriod(int framePeriod) {
+        int playoutDelay = (int) Math.min(MAX_PLAYOUT_DELAY,
+                framePeriod + JITTER_FACTOR * jitter * 1000 / RTP_CLOCK_RATE);
+        statistics.playoutDelay = playoutDelay;
+
+        double deviation = (bufferedDelay() - playoutDelay) / (double) playoutDelay;
+        double scale = 1 - MAX_TIME_SCALE * Math.max(-1, Math.min(1, deviation));
+        return (int) Math.round(framePeriod * scale);
     }
 
     /**
      * Get the RTP packet with the given sequence number.
      * <p>
-     * This is the main method for getting RTP packets. It currently
-     * includes error correction via FEC, but can be extended in the future.
+     * This is the main method for getting RTP packets. Lost packets are
+     * taken from the ones restored by FEC on arrival, no FEC work is left
+     * for the playback.
      *
-     * @param number Sequence number of the RTP packet
+     * @param number extended sequence number of the RTP packet
      * @return RTP packet, null if not available and not correctable
      */
-    private RTPpacket obtainMediaPacket(final int number) {
+    private RtpPacketView obtainMediaPacket(final int number) {
         Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-        int index = number % 0x10000; // account overflow of SNr (16 Bit)
-        RTPpacket packet = mediaPackets.get(index);
+        int index = number & 0xFFFF; // sequence number of the packet (16 Bit)
+        RtpPacketView packet = mediaPackets.get(number);
         logger.log(Level.FINE, "FEC: get RTP nu: " + index);
 
         if (packet == null) {
             statistics.packetsLost++;
+            if (number != lastLostIndex + 1) statistics.lossBursts++;
+            lastLostIndex = number;
             logger.log(Level.WARNING, "FEC: Media lost: " + index);
 
-            boolean fecCorrectable = fecHandler.checkCorrection(index, mediaPackets);
-            if (fecDecodingEnabled && fecCorrectable) {
-                packet = fecHandler.correctRtp(index, mediaPackets);
+            packet = recoveredPackets.get(number); // restored on the arrival of the FEC packets
+            if (packet != null) {
                 statistics.correctedPackets++;
                 logger.log(Level.INFO, "---> FEC: correctable: " + index);
+            } else if ((packet = partialPackets.get(number)) != null) { // first bytes restored on arrival
+                statistics.partiallyCorrectedPackets++;
+                logger.log(Level.INFO, "---> FEC: first bytes restored: " + index);
             } else {
                 statistics.notCorrectedPackets++;
                 logger.log(Level.INFO, "---> FEC: not correctable: " + index);
@@ -376,40 +686,148 @@ public class RtpHandler {
         return packet;
     }
 
+    /**
+     * Get the first bytes of a lost packet, restored by the unequal error
+     * protection of the FEC on arrival. Only a fragment aligned to restart
+     * intervals is usable: its complete intervals are taken, the cut off one
+     * is concealed.
+     *
+     * @param number extended sequence number of the RTP packet
+     * @return RTP packet with the restored bytes, null if not usable
+     */
+    private RtpPacketView restoredPrefix(final int number) {
+        RtpPacketView packet = fecHandler.correctPrefix(number);
+        if (packet == null || packet.getPayloadLength() < 12) return null; // RFC 2435 and restart header
+        JpegFrame fragment = JpegFrame.getFromRtpPayload(
+                packet.array(), packet.getPayloadStart(), packet.getPayloadLength());
+        if (!fragment.hasRestartCount()) return null; // the whole fragment is needed
+        packet.array()[packet.getPayloadStart() + 10] &= (byte) ~JpegFrame.RESTART_LAST; // interval cut off
+        return packet;
+    }
+
     /**
      * Construct a list of RTP packets which contain the data of one image.
+     * <p>
+     * The fragments of an image are the packets from the playback index up
+     * to the one with the marker bit. The image is complete only if the
+     * marker packet and all packets before it are there, received or
+     * restored. If the marker packet is lost, the image ends before the
+     * first packet of the next timestamp, so its lost fragments are
+     * consumed with it and not played as images of their own. Fragments
+     * of a played image which arrive late are dropped.
      *
-     * @return List of RTP packets for one image
+     * @return List of RTP packets for one image, null for lost packets;
+     * null if the image is lost completely
      */
-    private ArrayList<RTPpacket> packetsForNextImage() {
+    private ArrayList<RtpPacketView> packetsForNextImage() {
         Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
-        ArrayList<RTPpacket> packetList = new ArrayList<>();
-        RTPpacket packet = obtainMediaPacket(playbackIndex);
-        if (packet == null) {
-            statistics.framesLost++;
+        int highest = mediaPackets.getHighest();
+        int first = nextStoredPacket(playbackIndex, highest);
+        while (framePlayed && first != -1 && storedPacket(first).getTimestamp() == playbackTimestamp) {
+            playbackIndex = first + 1; // late fragment of the played image
+            first = nextStoredPacket(playbackIndex, highest);
+        }
+        if (first == -1) return null;
+
+        RtpPacketView known = storedPacket(first);
+        if (first > playbackIndex && JpegFrame.getFromRtpPayload(
+                known.array(), known.getPayloadStart(), known.getPayloadLength()).getOffset() == 0) {
+            // the lost packets in front are a lost image of their own
+            for (int n = playbackIndex; n < first; n++) obtainMediaPacket(n);
+            playbackIndex = first - 1;
             return null;
         }
 
-        packetList.add(packet);
-        int timestamp = packet.gettimestamp();
-        List<Integer> timestamps = sameTimestamps.get(timestamp);
-        if (timestamps == null) {
-            return packetList;
+        int timestamp = known.getTimestamp();
+        int end = first;
+        boolean marker = known.getMarker() == 1;
+        for (int n = first + 1; !marker && n <= highest; n++) {
+            RtpPacketView packet = storedPacket(n);
+            if (packet == null) continue;
+            if (packet.getTimestamp() != timestamp) {
+                end = n - 1; // the lost packets up to the next image belong to this one
+                break;
+            }
+            end = n;
+            marker = packet.getMarker() == 1;
         }
 
-        // egalTODO lost RTPs are not in the list but could perhaps be corrected -> check for snr
-        for (int i = 1; i < timestamps.size(); i++) {
-            packetList.add(obtainMediaPacket(timestamps.get(i)));
+        ArrayList<RtpPacketView> packetList = new ArrayList<>();
+        frameComplete = marker;
+        for (int n = playbackIndex; n <= end; n++) {
+            RtpPacketView packet = obtainMediaPacket(n);
+            if (packet == null) frameComplete = false;
+            packetList.add(packet);
         }
-
-        playbackIndex += timestamps.size() - 1;
-        // egalTODO if list is fragmented return null or implement JPEG error concealment
+        playbackIndex = end;
+        playbackTimestamp = timestamp;
+        framePlayed = true;
 
         logger.log(Level.FINER, "-> Get list of " + packetList.size()
-                + " RTPs with TS: " + (0xFFFFFFFFL & timestamp));
+                + " RTPs with TS: " + (0xFFFFFFFFL & timestamp) + (frameComplete ? "" : ", incomplete"));
         return packetList;
     }
 
+    /**
+     * @param number extended sequence number of a media packet
+     * @return received or restored packet, null if it is lost
+     */
+    private RtpPacketView storedPacket(int number) {
+        RtpPacketView packet = mediaPackets.get(number);
+        if (packet == null) packet = recoveredPackets.get(number);
+        return packet != null ? packet : partialPackets.get(number);
+    }
+
+    /**
+     * @param number  extended sequence number to start the search at
+     * @param highest highest received sequence number
+     * @return extended sequence number of the next received or restored packet, -1 if there is none
+     */
+    private int nextStoredPacket(int number, int highest) {
+        for (int n = number; n <= highest; n++) {
+            if (storedPacket(n) != null) return n;
+        }
+        return -1;
+    }
+
+    /**
+     * Combine the fragments of an image.
+     * <p>
+     * An incomplete image can only be used if its fragments are aligned to
+     * restart intervals: the lost intervals are replaced by the ones of the
+     * previous image.
+     *
+     * @param packetList RTP packets of the image, null for lost packets
+     * @param complete   all fragments up to the marker packet are there
+     * @return JPEG image, null if the image is not usable
+     */
+    private byte[] combineImage(List<RtpPacketView> packetList, boolean complete) {
+        ArrayList<JpegFrame> fragments = new ArrayList<>();
+        for (RtpPacketView packet : packetList) {
+            if (packet != null) { // the fragments refer to the receive buffers until they are combined
+                fragments.add(JpegFrame.getFromRtpPayload(
+                        packet.array(), packet.getPayloadStart(), packet.getPayloadLength()));
+            }
+        }
+        if (fragments.isEmpty()) {
+            return null;
+        }
+
+        if (fragments.get(0).hasRestartCount()) {
+            JpegFrame frame = JpegFrame.combineRestartIntervals(fragments, referenceFrame);
+            if (frame == null) {
+                return null;
+            }
+            if (!complete) statistics.framesConcealed++;
+            referenceFrame = frame;
+            return frame.getJpeg();
+        }
+        if (!complete) {
+            return null;
+        }
+        return JpegFrame.combineToOneFrame(fragments).getJpeg();
+    }
+
     public enum EncryptionMode {
         NONE,
         SRTP,
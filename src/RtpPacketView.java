@@ -0,0 +1,116 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only view of a received RTP packet in a pooled receive buffer.
+ * <p>
+ * In contrast to {@link RTPpacket}, which copies header and payload into
+ * its own arrays, the view reads the header fields directly from the
+ * buffer the datagram was received into. The payload is handed on as a
+ * region of the same array, so a packet is not copied until the fragments
+ * of an image are reassembled.
+ * <p>
+ * The buffer is reference counted: it goes back to its pool when the last
+ * holder, usually the jitter buffer, releases the view. The view must not
+ * be used afterwards.
+ */
+public class RtpPacketView {
+    private final ByteBuffer buffer; // heap buffer, packet from position to limit
+    private final byte[] data;
+    private final int start;
+    private final int length;
+    private final ByteBufferPool pool; // null if the buffer is not pooled
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * @param buffer heap buffer holding the packet between position and limit
+     * @param pool   pool the buffer is returned to, null if not pooled
+     */
+    public RtpPacketView(ByteBuffer buffer, ByteBufferPool pool) {
+        this.buffer = buffer;
+        this.data = buffer.array();
+        this.start = buffer.arrayOffset() + buffer.position();
+        this.length = buffer.remaining();
+        this.pool = pool;
+    }
+
+    /**
+     * @return true if the packet is long enough for a RTP header
+     */
+    public boolean isValid() {
+        return length >= RTPpacket.HEADER_SIZE;
+    }
+
+    public int getMarker() {
+        return (data[start + 1] >> 7) & 1;
+    }
+
+    public int getPayloadType() {
+        return data[start + 1] & 0x7F;
+    }
+
+    public int getSequenceNumber() {
+        return (data[start + 2] & 0xFF) << 8 | (data[start + 3] & 0xFF);
+    }
+
+    public int getTimestamp() {
+        return (data[start + 4] & 0xFF) << 24 | (data[start + 5] & 0xFF) << 16
+                | (data[start + 6] & 0xFF) << 8 | (data[start + 7] & 0xFF);
+    }
+
+    /**
+     * @return array holding the packet, must not be modified
+     */
+    public byte[] array() {
+        return data;
+    }
+
+    /**
+     * @return index of the payload in {@link #array()}
+     */
+    public int getPayloadStart() {
+        return start + RTPpacket.HEADER_SIZE;
+    }
+
+    public int getPayloadLength() {
+        return length - RTPpacket.HEADER_SIZE;
+    }
+
+    /**
+     * @return length of the whole packet including the header
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Copy the packet, for code which still works on {@link RTPpacket}.
+     *
+     * @return copy of the packet
+     */
+    public RTPpacket toRtpPacket() {
+        byte[] packet = new byte[length];
+        System.arraycopy(data, start, packet, 0, length);
+        return new RTPpacket(packet, length);
+    }
+
+    /**
+     * Add a holder of the view.
+     *
+     * @return this view
+     */
+    public RtpPacketView retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Remove a holder of the view. The buffer goes back to the pool when no
+     * holder is left.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0 && pool != null) {
+            pool.release(buffer);
+        }
+    }
+}
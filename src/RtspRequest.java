@@ -0,0 +1,93 @@
+import java.util.StringTokenizer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parsed RTSP request of a client.
+ * <p>
+ * Only the fields which are used by the server are extracted:
+ * the method, the requested video file, CSeq and the Transport header.
+ */
+public class RtspRequest {
+    // rtsp message types
+    static final int SETUP = 3;
+    static final int PLAY = 4;
+    static final int PAUSE = 5;
+    static final int TEARDOWN = 6;
+    static final int OPTIONS = 7;
+    static final int DESCRIBE = 8;
+
+    int type = -1; // RTSP-Request Type (SETUP, PLAY, etc.), -1 if unknown
+    String videoFileName = null; // only for SETUP and DESCRIBE
+    int seqNb = 0; // CSeq
+    String transportLine = null; // Transport header, only for SETUP
+    int clientPort = 0; // RTP port of the client, only for SETUP
+    int clientRtcpPort = 0; // RTCP port of the client, the RTP port + 1 if not given, only for SETUP
+
+    private RtspRequest() {
+    }
+
+    /**
+     * Parse the request line and the header lines of an RTSP request.
+     *
+     * @param lines request line followed by the header lines, without the empty line
+     * @return parsed request
+     * @throws IllegalArgumentException if the request line is empty or malformed
+     */
+    public static RtspRequest parse(Iterable<String> lines) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        RtspRequest request = new RtspRequest();
+        boolean requestLine = true;
+
+        for (String line : lines) {
+            if (requestLine) {
+                request.parseRequestLine(line);
+                requestLine = false;
+                continue;
+            }
+            logger.log(Level.FINE, line);
+            if (line.contains("CSeq")) {
+                StringTokenizer tokens = new StringTokenizer(line);
+                tokens.nextToken();
+                request.seqNb = Integer.parseInt(tokens.nextToken());
+            } else if (line.contains("Transport")) {
+                request.transportLine = line;
+                String[] ports = line.split("=")[1].split(";")[0].split("-");
+                request.clientPort = Integer.parseInt(ports[0]);
+                request.clientRtcpPort = ports.length > 1 ? Integer.parseInt(ports[1]) : request.clientPort + 1;
+                logger.log(Level.FINE, "Client-Port: " + request.clientPort + "-" + request.clientRtcpPort);
+            }
+            // else is any other field, not checking for now
+        }
+        if (requestLine) throw new IllegalArgumentException("Empty RTSP request");
+
+        return request;
+    }
+
+    private void parseRequestLine(String line) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        logger.log(Level.CONFIG, line);
+
+        StringTokenizer tokens = new StringTokenizer(line);
+        if (!tokens.hasMoreTokens()) throw new IllegalArgumentException("Empty RTSP request line");
+        String request_type_string = tokens.nextToken();
+
+        // convert to request_type structure:
+        type = switch ((request_type_string)) {
+            case "SETUP" -> SETUP;
+            case "PLAY" -> PLAY;
+            case "PAUSE" -> PAUSE;
+            case "TEARDOWN" -> TEARDOWN;
+            case "OPTIONS" -> OPTIONS;
+            case "DESCRIBE" -> DESCRIBE;
+            default -> -1;
+        };
+
+        if (type == SETUP || type == DESCRIBE) {
+            // extract VideoFileName from RequestLine
+            String[] tok = tokens.nextToken().split("/");
+            if (tok.length < 4) throw new IllegalArgumentException("Invalid RTSP URL: " + line);
+            videoFileName = tok[3];
+        }
+    }
+}
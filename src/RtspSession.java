@@ -0,0 +1,645 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One RTSP session of the server.
+ * <p>
+ * Each accepted control connection gets its own session object, which owns
+ * the RTSP state machine, the RTP and RTCP sockets (from SETUP to TEARDOWN) and handlers, the video
+ * reader and the pacers sending the frames, packets and reports. The session does not read from the
+ * control connection itself: a control engine of the {@link SessionManager}
+ * frames the requests and passes them to {@link #handle(RtspRequest)}.
+ */
+public class RtspSession {
+    // RTSP variables
+    // ----------------
+    // rtsp states
+    static final int INIT = 0;
+    static final int READY = 1;
+    static final int PLAYING = 2;
+    // rtsp message types
+    static final int SETUP = RtspRequest.SETUP;
+    static final int PLAY = RtspRequest.PLAY;
+    static final int PAUSE = RtspRequest.PAUSE;
+    static final int TEARDOWN = RtspRequest.TEARDOWN;
+    static final int OPTIONS = RtspRequest.OPTIONS;
+    static final int DESCRIBE = RtspRequest.DESCRIBE;
+    static final String CRLF = "\r\n";
+    static final String VideoDir = "videos/";
+    static final int DEFAULT_FRAME_PERIOD = 40; // Frame period of the video to stream, in ms
+    static final int RTCP_BUFFER_SIZE = 1500; // larger reports are truncated
+    static final int PORT_PAIR_ATTEMPTS = 100; // to find a free port for RTCP next to the RTP port
+    static final int READ_AHEAD_FRAMES = 4; // frames read before they are sent
+    private static final byte[] END_OF_VIDEO = new byte[0];
+
+    private final StreamingServer server; // settings and observers of the server
+    private final SessionManager manager;
+    private final int sessionId; // ID of the RTSP session
+    private int state; // RTSP Server state == INIT or READY or PLAYING
+    private final Closeable control; // connection used to send/receive RTSP messages
+    private String VideoFileName = ""; // video file requested from the client
+    private int RTSPSeqNb = 0; // Sequence number of RTSP messages within the session
+    private String sdpTransportLine = "";
+    private volatile boolean closed = false;
+
+    // Video variables:
+    // ----------------
+    private int imageNb = 0; // image nb of the image currently transmitted
+    private int setupPacketCount = 0; // media packets sent before the video was set up, counted by RTCP
+    private VideoMetadata videoMeta = null;
+    private VideoReader video; // VideoStream object used to access video frames
+    private volatile ArrayBlockingQueue<byte[]> frames; // read ahead from the video, replaced with it
+    private Pacer pacer; // sends the images at the video frame rate
+    private PacketPacer packetPacer; // spreads the packets of an image
+
+    // RTP variables:
+    // ----------------
+    private volatile DatagramChannel RTPchannel; // connected to the client, RTP and RTP-FEC packets, from SETUP to TEARDOWN
+    private final InetAddress ClientIPAddr; // Client IP address
+    private int RTP_dest_port = 0; // destination port for RTP packets  (given by the RTSP Client)
+    private final RtpHandler rtpHandler;
+    private final ByteBufferPool sendBuffers;
+    private final ArrayList<ByteBuffer> packets = new ArrayList<>(); // packets of the current image
+    private final Random random = new Random(123456); // fixed seed for debugging
+
+    // RTCP variables:
+    // ----------------
+    private volatile DatagramChannel RTCPchannel; // RTP port + 1, sender and receiver reports
+    private InetSocketAddress clientRtcpAddress = null; // given by the RTSP Client
+    private final RtcpHandler rtcpHandler;
+    private Pacer rtcpPacer; // sends the sender reports
+    private final FecController fecController; // FEC group size from the receiver reports
+
+    /**
+     * Create a new session for an accepted RTSP connection.
+     *
+     * @param server     Server providing the settings for channel errors, FEC and encryption
+     * @param manager    Manager of all sessions, notified when the session ends
+     * @param clientAddr IP address of the client
+     * @param control    RTSP connection of the client, closed together with the session
+     * @param sessionId  Unique ID of the session
+     */
+    public RtspSession(StreamingServer server, SessionManager manager, InetAddress clientAddr,
+                       Closeable control, int sessionId) {
+        this.server = server;
+        this.manager = manager;
+        this.control = control;
+        this.sessionId = sessionId;
+        this.ClientIPAddr = clientAddr;
+
+        rtcpHandler = new RtcpHandler(RtpHandler.SSRC, "server-" + sessionId + "@"
+                + InetAddress.getLoopbackAddress().getHostName());
+        sendBuffers = server.getSendBuffers();
+        rtpHandler = new RtpHandler(server.getFecGroupSize(), server.getFecRepairPackets());
+        fecController = new FecController(server.getFecTargetFrameLoss(), server.getFecGroupSize(),
+                Math.max(1, server.getFecRepairPackets()));
+        rtpHandler.setFecDepth(server.getFecDepth());
+        rtpHandler.setFecGroupFrames(server.getFecGroupFrames());
+        rtpHandler.setFecUlp(server.getFecUlpPrefix());
+        rtpHandler.setFecStagger(server.getFecStagger());
+        rtpHandler.setEncryption(server.getEncryptionMode());
+        rtpHandler.setMtu(server.getMtu());
+        rtpHandler.setRestartAligned(server.isRestartAligned());
+        state = INIT;
+    }
+
+    /**
+     * Open the channels for RTP and RTCP on two consecutive ports, as
+     * advertised in the SETUP response (RFC 3550, 11). They are opened
+     * with the first SETUP, so connections without a stream hold no ports.
+     *
+     * @return RTP and RTCP channel
+     * @throws IOException if no free pair of ports was found
+     */
+    private static DatagramChannel[] openChannelPair() throws IOException {
+        for (int i = 0; ; i++) {
+            DatagramChannel rtp = DatagramChannel.open().bind(null);
+            int port = ((InetSocketAddress) rtp.getLocalAddress()).getPort();
+            DatagramChannel rtcp = DatagramChannel.open();
+            try {
+                rtcp.bind(new InetSocketAddress(port + 1));
+                return new DatagramChannel[]{rtp, rtcp};
+            } catch (IOException ex) { // next port in use, try another one
+                rtp.close();
+                rtcp.close();
+                if (i == PORT_PAIR_ATTEMPTS) throw ex;
+            }
+        }
+    }
+
+    /**
+     * Get the metadata from a video file.
+     * <p>
+     * If no metadata is available, all fields are zero-initialized with
+     * exception of the framerate. Because the framerate is strongly required,
+     * it is set to a default value.
+     *
+     * @param filename Name of the video file
+     * @return metadata structure containing the extracted information
+     */
+    static VideoMetadata getVideoMetadata(String filename) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        VideoMetadata meta = null;
+
+        String[] splitFilename = filename.split("\\.");
+        switch (splitFilename[splitFilename.length - 1]) {
+            case "avi":
+                meta = AviMetadataParser.parse(filename);
+                break;
+            case "mov":
+                meta = QuickTimeMetadataParser.parse(filename);
+                break;
+            default:
+                logger.log(Level.WARNING, "File extension not recognized: " + filename);
+            case "mjpg":
+            case "mjpeg":
+                meta = new VideoMetadata(1000 / DEFAULT_FRAME_PERIOD);
+                break;
+        }
+
+        assert meta != null : "VideoMetadata of file " + filename + " was not initialized correctly";
+        return meta;
+    }
+
+    /**
+     * @return ID of this RTSP session
+     */
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return current RTSP state of the session
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * @return RTP handler of this session
+     */
+    public RtpHandler getRtpHandler() {
+        return rtpHandler;
+    }
+
+    /**
+     * @return reception quality reported by the client in RTCP receiver reports
+     */
+    public ReceptionFeedback getReceptionFeedback() {
+        return rtcpHandler.getFeedback();
+    }
+
+    /**
+     * @return true if the session was closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stop streaming and release all resources of the session.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        stopTimer();
+        if (packetPacer != null) packetPacer.close();
+        if (video != null) video.close();
+        closeChannels();
+        try {
+            control.close();
+        } catch (IOException ignored) {
+        }
+        manager.sessionClosed(this);
+    }
+
+    /**
+     * Close the RTP and RTCP channels, which ends the receive loop.
+     */
+    private void closeChannels() {
+        DatagramChannel rtp = RTPchannel;
+        DatagramChannel rtcp = RTCPchannel;
+        RTPchannel = null;
+        RTCPchannel = null;
+        try {
+            if (rtp != null) rtp.close();
+            if (rtcp != null) rtcp.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Run the RTSP state machine for one request.
+     *
+     * @param request parsed RTSP request
+     * @return RTSP response for the client, null if the request is not answered
+     * @throws IOException if the video or the RTP channels could not be opened
+     */
+    public synchronized String handle(RtspRequest request) throws IOException {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        String response = null;
+        RTSPSeqNb = request.seqNb;
+        if (request.videoFileName != null) {
+            VideoFileName = VideoDir + request.videoFileName;
+            logger.log(Level.CONFIG, "File: " + VideoFileName);
+        }
+        if (request.transportLine != null) {
+            sdpTransportLine = request.transportLine;
+            RTP_dest_port = request.clientPort;
+            if (RTPchannel == null) {
+                DatagramChannel[] channels = openChannelPair();
+                RTPchannel = channels[0];
+                RTCPchannel = channels[1];
+                DatagramChannel rtcp = RTCPchannel;
+                manager.execute(() -> receiveRtcp(rtcp));
+            }
+            if (RTPchannel.isConnected()) RTPchannel.disconnect();
+            RTPchannel.connect(new InetSocketAddress(ClientIPAddr, RTP_dest_port));
+            clientRtcpAddress = new InetSocketAddress(ClientIPAddr, request.clientRtcpPort);
+        }
+
+        switch (request.type) {
+            case SETUP:
+                // Wait for the SETUP message from the client
+                setState(READY);
+
+                if (videoMeta == null) {
+                    videoMeta = getVideoMetadata(VideoFileName);
+                }
+
+                // Send response
+                response = RTSP_response(SETUP);
+
+                // init the VideoStream object:
+                if (video != null) video.close();
+                video = new VideoReader(VideoFileName);
+                imageNb = 0;
+                setupPacketCount = rtcpHandler.getPacketCount();
+                ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(READ_AHEAD_FRAMES);
+                frames = queue;
+                VideoReader reader = video;
+                manager.execute(() -> readAhead(reader, queue));
+
+                break;
+
+            case PLAY:
+                if (state == READY) {
+                    // send back response
+                    response = RTSP_response(PLAY);
+                    // start timer
+                    startTimer();
+                    // update state
+                    setState(PLAYING);
+                }
+                break;
+
+            case PAUSE:
+                if (state == PLAYING) {
+                    // send back response
+                    response = RTSP_response(PAUSE);
+                    // stop timer
+                    stopTimer();
+                    // update state
+                    setState(READY);
+                }
+                break;
+
+            case TEARDOWN:
+                setState(INIT);
+                // send back response
+                response = RTSP_response(TEARDOWN);
+                // stop timer
+                stopTimer();
+                // release the video, the read ahead ends with the replaced queue
+                if (video != null) video.close();
+                video = null;
+                frames = null;
+                videoMeta = null;
+                imageNb = 0;
+                pacer = null;
+                rtcpPacer = null;
+                if (packetPacer != null) packetPacer.close();
+                packetPacer = null;
+                closeChannels(); // opened again by the next SETUP
+                break;
+
+            case OPTIONS:
+                logger.log(Level.INFO, "Options request");
+                response = RTSP_response(OPTIONS);
+                break;
+
+            case DESCRIBE:
+                logger.log(Level.INFO, "DESCRIBE Request");
+                response = RTSP_response(DESCRIBE);
+                break;
+
+            default:
+                logger.log(Level.WARNING, "Wrong request");
+        }
+        return response;
+    }
+
+    private void setState(int newState) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        state = newState;
+        String name = switch (newState) {
+            case READY -> "READY";
+            case PLAYING -> "PLAYING";
+            default -> "INIT";
+        };
+        logger.log(Level.INFO, "Session " + sessionId + ": new RTSP state: " + name);
+        server.stateChanged(sessionId, name);
+    }
+
+    /**
+     * Send the frames with the exact frame rate of the video, starting immediately.
+     */
+    private void startTimer() {
+        if (pacer == null) {
+            pacer = server.newPacer("pacer-" + sessionId, videoMeta.getFramePeriodNanos(), this::sendNextFrame);
+            packetPacer = server.newPacketPacer(this::sendPacket, this::sendFailed, videoMeta.getFramePeriodNanos());
+            rtcpPacer = server.newPacer("rtcp-" + sessionId, RtcpHandler.REPORT_INTERVAL * 1_000_000.0,
+                    this::sendSenderReport);
+        }
+        pacer.start();
+        rtcpPacer.start();
+    }
+
+    private void stopTimer() {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        if (pacer != null) {
+            pacer.stop();
+            rtcpPacer.stop();
+            logger.log(Level.INFO, "Session " + sessionId + ": " + pacer.getStatistic());
+            logger.log(Level.INFO, "Session " + sessionId + ": " + packetPacer);
+            logger.log(Level.INFO, "Session " + sessionId + ": " + rtcpHandler.getFeedback());
+        }
+    }
+
+    /**
+     * @return statistic of the time the packets waited for sending, null if the session never played
+     */
+    public JitterStatistic getQueueDelay() {
+        return packetPacer != null ? packetPacer.getQueueDelay() : null;
+    }
+
+    /**
+     * @return statistic of the frame send times, null if the session never played
+     */
+    public JitterStatistic getSendJitter() {
+        return pacer != null ? pacer.getStatistic() : null;
+    }
+
+    /**
+     * Read the frames of a video ahead of sending them, so the timer
+     * thread does not wait for the file. Ends at the end of the video,
+     * when the session reads another video or with TEARDOWN.
+     *
+     * @param reader video of the session
+     * @param queue  receives the frames, {@link #END_OF_VIDEO} at the end
+     */
+    private void readAhead(VideoReader reader, ArrayBlockingQueue<byte[]> queue) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        byte[] frame;
+        do {
+            try {
+                frame = reader.readNextImage();
+            } catch (IOException ex) {
+                if (frames == queue) logger.log(Level.SEVERE, "Session " + sessionId + ": exception caught: " + ex);
+                frame = null;
+            }
+            if (frame == null) frame = END_OF_VIDEO;
+            try {
+                while (!queue.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+                    if (frames != queue || closed) return; // paused video replaced
+                }
+            } catch (InterruptedException ex) {
+                return;
+            }
+        } while (frame != END_OF_VIDEO && frames == queue && !closed);
+    }
+
+    /**
+     * Send the next frame of the video, called by the timer. Does not
+     * block: if the frame is not read yet, it is sent with the next run.
+     */
+    private synchronized void sendNextFrame() {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        if (frames == null) return; // torn down while the run was waiting
+        byte[] frame = frames.poll();
+        if (frame == null) {
+            logger.log(Level.FINE, "Session " + sessionId + ": frame not read yet");
+            return;
+        }
+        imageNb++; // image counter
+
+        try {
+            if (frame != END_OF_VIDEO) {
+                logger.log(Level.FINE, "Frame size: " + frame.length);
+
+                // the packets are written into pooled buffers and sent over the connected channel
+                packets.clear();
+                rtpHandler.jpegToRtpBuffers(frame, videoMeta.getExactFramerate(), sendBuffers, packets);
+
+                while (rtpHandler.isFecPacketAvailable()) {
+                    logger.log(Level.FINE, "FEC-Encoder ready...");
+                    packets.add(rtpHandler.createFecPacket()); // same port as RTP
+                }
+                packetPacer.send(packets); // spread over the frame interval
+
+                // update GUI
+                server.frameSent(sessionId, imageNb);
+            } else stopTimer();
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Session " + sessionId + ": exception caught: " + ex);
+            close();
+        }
+    }
+
+    /**
+     * Close the session when the packet pacer could not send a queued
+     * packet, like a failed frame in {@link #sendNextFrame()}.
+     *
+     * @param ex exception of the channel
+     */
+    private void sendFailed(IOException ex) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        logger.log(Level.SEVERE, "Session " + sessionId + ": exception caught: " + ex);
+        close();
+    }
+
+    /**
+     * Send a packet released by the packet pacer.
+     *
+     * @param packet RTP packet to send
+     * @throws IOException if the packet could not be sent
+     */
+    private void sendPacket(ByteBuffer packet) throws IOException {
+        rtcpHandler.packetSent(packet); // counted before the simulated loss, which the client reports
+        int payloadType = packet.get(packet.position() + 1) & 0x7F;
+        boolean fec = payloadType == RtpHandler.RTP_PAYLOAD_FEC || payloadType == RtpHandler.RTP_PAYLOAD_RS;
+        sendPacketWithError(packet, fec); // Send with packet loss
+    }
+
+    /**
+     * @param packet RTP packet to send
+     * @throws IOException if the packet could not be sent
+     */
+    private void sendPacketWithError(ByteBuffer packet, boolean fec) throws IOException {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        String label;
+        if (fec) label = " fec ";
+        else label = " media ";
+        if (random.nextDouble() > server.getLossRate()) {
+            if (logger.isLoggable(Level.FINE)) logger.log(Level.FINE, "Send frame: " + imageNb + label);
+            DatagramChannel channel = RTPchannel;
+            if (channel == null) return; // torn down
+            try {
+                channel.write(packet);
+            } catch (PortUnreachableException ex) { // ICMP of an earlier packet, client not listening yet
+                logger.log(Level.FINE, "Port unreachable: " + RTP_dest_port);
+            }
+        } else {
+            System.err.println("Dropped frame: " + imageNb + label);
+        }
+    }
+
+    /**
+     * Send a sender report to the client, called by the RTCP pacer.
+     */
+    private void sendSenderReport() {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        DatagramChannel channel = RTCPchannel;
+        if (!rtcpHandler.isSender() || channel == null) return;
+        try {
+            channel.send(ByteBuffer.wrap(rtcpHandler.createSenderReport()), clientRtcpAddress);
+        } catch (IOException ex) {
+            logger.log(Level.FINE, "Session " + sessionId + ": RTCP not sent: " + ex);
+        }
+    }
+
+    /**
+     * Receive the RTCP packets of the client until the session is closed.
+     * Runs on its own thread, so the arrival time of a receiver report is
+     * exact enough for the round-trip time.
+     *
+     * @param channel channel of the session, the loop ends when it is closed
+     */
+    private void receiveRtcp(DatagramChannel channel) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        ByteBuffer buffer = ByteBuffer.allocate(RTCP_BUFFER_SIZE);
+
+        while (channel.isOpen()) {
+            buffer.clear();
+            try {
+                SocketAddress sender = channel.receive(buffer); // blocking
+                if (!(sender instanceof InetSocketAddress)
+                        || !((InetSocketAddress) sender).getAddress().equals(ClientIPAddr)) {
+                    continue; // not from the client of this session
+                }
+            } catch (IOException ex) {
+                if (channel.isOpen()) logger.log(Level.WARNING, "Session " + sessionId + ": " + ex);
+                continue;
+            }
+            if (rtcpHandler.processRtcpPacket(buffer.array(), buffer.position())) {
+                server.receiverReport(sessionId, rtcpHandler.getFeedback());
+                if (server.isAdaptiveFec()) adaptFecGroupSize();
+            }
+        }
+    }
+
+    /**
+     * Adapt the FEC group size to the latest receiver report.
+     */
+    private void adaptFecGroupSize() {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        int oldSize = fecController.getGroupSize();
+        // packets and images since the last SETUP
+        double packetsPerFrame = (rtcpHandler.getPacketCount() - setupPacketCount) / (double) Math.max(1, imageNb);
+        int newSize = fecController.update(rtcpHandler.getFeedback(), packetsPerFrame);
+        rtpHandler.setFecGroupSize(newSize); // applied with the next FEC group
+        if (newSize != oldSize) {
+            logger.log(Level.INFO, "Session " + sessionId + ": FEC group size " + oldSize + " -> " + newSize
+                    + " (" + rtcpHandler.getFeedback() + ")");
+        }
+    }
+
+    /**
+     * Create RTSP Response
+     *
+     * @param method RTSP-Method
+     * @return response text including the terminating empty line
+     */
+    private String RTSP_response(int method) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        logger.log(Level.INFO, "*** send RTSP-Response ***");
+        StringBuilder response = new StringBuilder();
+        response.append("RTSP/1.0 200 OK" + CRLF);
+        response.append("CSeq: " + RTSPSeqNb + CRLF);
+
+        // 3th line depends on Request
+        switch (method) {
+            case OPTIONS:
+                response.append(options());
+                break;
+            case DESCRIBE:
+                response.append(describe());
+                break;
+            case SETUP:
+                response.append(sdpTransportLine + ";server_port=");
+                response.append(RTPchannel.socket().getLocalPort() + "-");
+                response.append((RTPchannel.socket().getLocalPort() + 1) + "" + CRLF);
+            default:
+                response.append("Session: " + sessionId + ";timeout=30000" + CRLF);
+                break;
+        }
+
+        // Send end of response
+        if (method != DESCRIBE) response.append(CRLF);
+
+        return response.toString();
+    }
+
+    /**
+     * Creates a OPTIONS response string
+     *
+     * @return Options string, starting with: Public: ...
+     */
+    private String options() {
+        return "Public: DESCRIBE, SETUP, TEARDOWN, PLAY, PAUSE" + CRLF + CRLF;
+    }
+
+    /**
+     * Creates a DESCRIBE response string in SDP format for current media
+     */
+    private String describe() {
+        StringWriter rtspHeader = new StringWriter();
+        StringWriter rtspBody = new StringWriter();
+        VideoMetadata meta = getVideoMetadata(VideoFileName);
+
+        // Write the body first, so we can get the size later
+        rtspBody.write("v=0" + CRLF);
+        rtspBody.write("o=- " + sessionId + " " + sessionId + " IN IP4 localhost" + CRLF);
+        rtspBody.write("s=HTW Video" + CRLF);
+        rtspBody.write("c=IN IP4 localhost" + CRLF);
+        rtspBody.write("t=0 0" + CRLF);
+        rtspBody.write("m=video 8554 RTP/AVP 26" + CRLF);
+        rtspBody.write("a=rtpmap:26 JPEG/90000" + CRLF);
+        rtspBody.write("a=framerate:" + meta.getFramerate() + CRLF);
+
+        rtspHeader.write("Content-Base: " + "rtsp://localhost:8554/htw.mjpeg" + CRLF);
+        rtspHeader.write("Content-Type: " + "application/sdp" + CRLF);
+        rtspHeader.write("Content-Length: " + rtspBody.toString().getBytes().length + CRLF);
+        rtspHeader.write(CRLF);
+
+        return rtspHeader.toString() + rtspBody.toString();
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.logging.Level;
+
+/**
+ * Settings of the streaming server, read from the command line and
+ * optionally from a properties file.
+ * <p>
+ * usage: [RTSP listening port] [--option=value ...]
+ * <ul>
+ *     <li>--config=file: properties file with the same keys as the options (without --)</li>
+ *     <li>--engine=blocking|nio: control engine for the RTSP connections</li>
+ *     <li>--scheduler=wheel|thread: shared timing wheel or one pacer thread per session</li>
+ *     <li>--workers=n: worker threads of the timing wheel</li>
+ *     <li>--tick=us: resolution of the timing wheel in microseconds</li>
+ *     <li>--spread=part: part of the frame interval to spread the packets of a frame over, 0 disables pacing</li>
+ *     <li>--burst=n: packets which may be sent back to back</li>
+ *     <li>--loss=rate: simulated packet loss rate, 0.0 ... 1.0</li>
+ *     <li>--mtu=bytes: maximum size of the IP packets, larger frames are fragmented; at most the receive buffer
+ *     of the client plus the IP and UDP headers</li>
+ *     <li>--packetizer=restart|offset: cut fragments at restart markers (if the video has them) or anywhere</li>
+ *     <li>--fec=k|auto: FEC group size, 0 disables FEC, auto adapts it to the receiver reports</li>
+ *     <li>--fec-target=rate: frame loss after the FEC correction the adaptive group size aims at</li>
+ *     <li>--fec-frames=n: FEC groups end with every n-th frame at the latest, 0 for groups of the group size only</li>
+ *     <li>--fec-depth=D: rows of the 2D XOR parity, column FEC over D packets spaced by the group size</li>
+ *     <li>--fec-ulp=bytes: unequal error protection, the RFC 2435 headers and the following bytes of each packet
+ *     get a FEC packet per half group, -1 disables</li>
+ *     <li>--fec-stagger=s: staggered rows, a FEC packet after every k packets protects the last s * k packets,
+ *     1 for consecutive rows</li>
+ *     <li>--fec-repair=m: Reed-Solomon repair packets per group, 0 uses the XOR parity of RFC 5109</li>
+ *     <li>--encryption=none|srtp|jpeg: encryption of the stream</li>
+ *     <li>--log=level: logging level, e.g. INFO or ALL</li>
+ * </ul>
+ * Options on the command line override the values of the properties file.
+ */
+public class ServerConfig {
+    public static final int MAX_MTU = RtpHandler.RECEIVE_BUFFER_SIZE + RtpHandler.IP_UDP_HEADER_SIZE; // client receive buffer
+
+    public int port = 8554;
+    public boolean nioEngine = false;
+    public int nioSelectorThreads = 2;
+    public boolean timingWheel = true;
+    public int wheelWorkers = 2;
+    public long wheelTickMicros = 1000;
+    public double packetSpread = 0.5;
+    public int burstPackets = 4;
+    public double lossRate = 0.0;
+    public int fecGroupSize = 2;
+    public boolean adaptiveFec = false;
+    public double fecTargetFrameLoss = 0.01;
+    public int fecRepairPackets = 0;
+    public int fecGroupFrames = 0;
+    public int fecDepth = 0;
+    public int fecUlpPrefix = -1;
+    public int fecStagger = 1;
+    public int mtu = RtpHandler.DEFAULT_MTU;
+    public boolean restartAligned = true;
+    public RtpHandler.EncryptionMode encryptionMode = RtpHandler.EncryptionMode.NONE;
+    public Level logLevel = Level.ALL;
+
+    /**
+     * Parse the command line arguments.
+     *
+     * @param argv command line arguments
+     * @return configuration
+     * @throws IllegalArgumentException if an option is unknown or has an invalid value
+     * @throws IOException              if the properties file could not be read
+     */
+    public static ServerConfig parse(String[] argv) throws IOException {
+        ServerConfig config = new ServerConfig();
+        Properties options = new Properties();
+
+        for (String arg : argv) {
+            if (arg.startsWith("--")) {
+                String[] option = arg.substring(2).split("=", 2);
+                options.setProperty(option[0], option.length > 1 ? option[1] : "true");
+            } else if (arg.equals("nio") || arg.equals("blocking")) {
+                options.setProperty("engine", arg); // positional form of older versions
+            } else {
+                options.setProperty("port", arg);
+            }
+        }
+
+        String file = options.getProperty("config");
+        if (file != null) {
+            Properties fileOptions = new Properties();
+            try (FileInputStream in = new FileInputStream(file)) {
+                fileOptions.load(in);
+            }
+            config.apply(fileOptions);
+        }
+        config.apply(options);
+        // options depending on others, given in any order
+        if (config.fecUlpPrefix > config.mtu - RtpHandler.IP_UDP_HEADER_SIZE - RTPpacket.HEADER_SIZE) {
+            throw new IllegalArgumentException("FEC ULP prefix larger than the payload: " + config.fecUlpPrefix);
+        }
+        return config;
+    }
+
+    private void apply(Properties options) {
+        for (String key : options.stringPropertyNames()) {
+            String value = options.getProperty(key).trim();
+            switch (key) {
+                case "config" -> {
+                }
+                case "port" -> port = Integer.parseInt(value);
+                case "engine" -> nioEngine = switch (value) {
+                    case "nio" -> true;
+                    case "blocking" -> false;
+                    default -> throw new IllegalArgumentException("Unknown engine: " + value);
+                };
+                case "selectors" -> nioSelectorThreads = Integer.parseInt(value);
+                case "scheduler" -> timingWheel = switch (value) {
+                    case "wheel" -> true;
+                    case "thread" -> false;
+                    default -> throw new IllegalArgumentException("Unknown scheduler: " + value);
+                };
+                case "workers" -> wheelWorkers = Integer.parseInt(value);
+                case "tick" -> {
+                    wheelTickMicros = Long.parseLong(value);
+                    if (wheelTickMicros <= 0) {
+                        throw new IllegalArgumentException("Tick out of range: " + value);
+                    }
+                }
+                case "spread" -> {
+                    packetSpread = Double.parseDouble(value);
+                    if (packetSpread < 0 || packetSpread > 1) {
+                        throw new IllegalArgumentException("Spread out of range: " + value);
+                    }
+                }
+                case "burst" -> {
+                    burstPackets = Integer.parseInt(value);
+                    if (burstPackets < 1) {
+                        throw new IllegalArgumentException("Burst out of range: " + value);
+                    }
+                }
+                case "loss" -> {
+                    lossRate = Double.parseDouble(value);
+                    if (lossRate < 0 || lossRate > 1) {
+                        throw new IllegalArgumentException("Loss rate out of range: " + value);
+                    }
+                }
+                case "mtu" -> {
+                    mtu = Integer.parseInt(value);
+                    if (mtu < 576 || mtu > MAX_MTU) { // minimum of IPv4 hosts, RFC 791
+                        throw new IllegalArgumentException("MTU out of range: " + value);
+                    }
+                }
+                case "packetizer" -> restartAligned = switch (value) {
+                    case "restart" -> true;
+                    case "offset" -> false;
+                    default -> throw new IllegalArgumentException("Unknown packetizer: " + value);
+                };
+                case "fec" -> {
+                    adaptiveFec = value.equals("auto");
+                    fecGroupSize = adaptiveFec ? FecController.MIN_GROUP_SIZE : Integer.parseInt(value);
+                    if (fecGroupSize < 0 || fecGroupSize > FecHandler.maxGroupSize) {
+                        throw new IllegalArgumentException("FEC group size out of range: " + value);
+                    }
+                }
+                case "fec-target" -> {
+                    fecTargetFrameLoss = Double.parseDouble(value);
+                    if (fecTargetFrameLoss <= 0 || fecTargetFrameLoss >= 1) {
+                        throw new IllegalArgumentException("FEC target out of range: " + value);
+                    }
+                }
+                case "fec-frames" -> {
+                    fecGroupFrames = Integer.parseInt(value);
+                    if (fecGroupFrames < 0) {
+                        throw new IllegalArgumentException("FEC frames out of range: " + value);
+                    }
+                }
+                case "fec-depth" -> {
+                    fecDepth = Integer.parseInt(value);
+                    if (fecDepth < 0 || fecDepth > FecHandler.maxGroupSize / 2) {
+                        throw new IllegalArgumentException("FEC depth out of range: " + value);
+                    }
+                }
+                case "fec-ulp" -> {
+                    fecUlpPrefix = Integer.parseInt(value);
+                    if (fecUlpPrefix < -1) { // the maximum depends on the MTU
+                        throw new IllegalArgumentException("FEC ULP prefix out of range: " + value);
+                    }
+                }
+                case "fec-stagger" -> {
+                    fecStagger = Integer.parseInt(value);
+                    if (fecStagger < 1 || fecStagger > FecHandler.maxGroupSize / FecController.MIN_GROUP_SIZE) {
+                        throw new IllegalArgumentException("FEC stagger out of range: " + value);
+                    }
+                }
+                case "fec-repair" -> {
+                    fecRepairPackets = Integer.parseInt(value);
+                    if (fecRepairPackets < 0 || fecRepairPackets > RsFecHandler.MAX_REPAIR_PACKETS) {
+                        throw new IllegalArgumentException("FEC repair packets out of range: " + value);
+                    }
+                }
+                case "encryption" -> encryptionMode = switch (value.toLowerCase()) {
+                    case "none", "keine" -> RtpHandler.EncryptionMode.NONE;
+                    case "srtp" -> RtpHandler.EncryptionMode.SRTP;
+                    case "jpeg" -> RtpHandler.EncryptionMode.JPEG;
+                    default -> throw new IllegalArgumentException("Unknown encryption: " + value);
+                };
+                case "log" -> logLevel = Level.parse(value.toUpperCase());
+                default -> throw new IllegalArgumentException("Unknown option: " + key);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Observer of the streaming server, e.g. a GUI.
+ * <p>
+ * The methods are called from the threads of the sessions and must not block.
+ */
+public interface ServerObserver {
+    /**
+     * A session sent a frame.
+     *
+     * @param sessionId ID of the sending session
+     * @param imageNb   number of the frame
+     */
+    void frameSent(int sessionId, int imageNb);
+
+    /**
+     * The RTSP state of a session changed.
+     *
+     * @param sessionId ID of the session
+     * @param state     name of the new state
+     */
+    void stateChanged(int sessionId, String state);
+
+    /**
+     * A session was opened or closed.
+     *
+     * @param count number of active sessions
+     */
+    void sessionCountChanged(int count);
+
+    /**
+     * The client of a session sent a RTCP receiver report.
+     *
+     * @param sessionId ID of the session
+     * @param feedback  reception quality reported by the client
+     */
+    void receiverReport(int sessionId, ReceptionFeedback feedback);
+}
@@ -0,0 +1,206 @@
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts RTSP connections continuously and manages one {@link RtspSession}
+ * per client.
+ * <p>
+ * Two control engines are available: the blocking engine reads the requests
+ * of every connection on its own thread (virtual threads if the JVM supports
+ * them, otherwise a cached thread pool), the NIO engine multiplexes all
+ * connections on a few selector threads, see {@link NioRtspServer}.
+ */
+public class SessionManager {
+    private static final int FIRST_SESSION_ID = 123456;
+
+    private final StreamingServer server;
+    private final int port;
+    private final ConcurrentHashMap<Integer, RtspSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSessionId = new AtomicInteger(FIRST_SESSION_ID);
+    private final ExecutorService controlExecutor = newControlExecutor();
+    private ServerSocket listenSocket;
+    private NioRtspServer nioServer;
+
+    /**
+     * @param server Server providing the settings and observers
+     * @param port   RTSP listening port
+     */
+    public SessionManager(StreamingServer server, int port) {
+        this.server = server;
+        this.port = port;
+    }
+
+    /**
+     * Create an executor which starts a virtual thread per task.
+     * <p>
+     * Virtual threads are looked up via reflection to keep the code
+     * compilable with JDKs which do not provide them yet.
+     *
+     * @return executor for the RTSP request loops
+     */
+    private static ExecutorService newControlExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Create a session for a new control connection.
+     *
+     * @param clientAddr IP address of the client
+     * @param control    control connection, closed together with the session
+     * @return the new session
+     */
+    RtspSession createSession(InetAddress clientAddr, Closeable control) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        int sessionId = nextSessionId.getAndIncrement();
+        RtspSession session = new RtspSession(server, this, clientAddr, control, sessionId);
+        sessions.put(sessionId, session);
+        logger.log(Level.INFO, "New session " + sessionId + " from " + clientAddr
+                + " (" + sessions.size() + " active)");
+        server.sessionCountChanged(sessions.size());
+        return session;
+    }
+
+    /**
+     * Run a blocking task of a session, e.g. a receive loop, on the threads
+     * of the blocking engine.
+     *
+     * @param task task to run
+     */
+    void execute(Runnable task) {
+        controlExecutor.execute(task);
+    }
+
+    /**
+     * Accept RTSP connections with the NIO engine until the manager
+     * is closed (blocking).
+     *
+     * @param selectorThreads number of threads multiplexing the connections
+     * @throws IOException if the listening channel could not be opened
+     */
+    public void runNio(int selectorThreads) throws IOException {
+        nioServer = new NioRtspServer(this, port, selectorThreads);
+        nioServer.run();
+    }
+
+    /**
+     * Accept RTSP connections with the blocking engine until the manager
+     * is closed (blocking).
+     *
+     * @throws IOException if the listening socket could not be opened
+     */
+    public void run() throws IOException {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        listenSocket = new ServerSocket(port);
+        logger.log(Level.INFO, "RTSP server listening on port " + port);
+
+        while (!listenSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = listenSocket.accept();
+            } catch (IOException ex) {
+                if (listenSocket.isClosed()) break;
+                logger.log(Level.WARNING, "Accept failed: " + ex);
+                continue;
+            }
+
+            RtspSession session = createSession(socket.getInetAddress(), socket);
+            controlExecutor.execute(() -> serve(socket, session));
+        }
+    }
+
+    /**
+     * Request loop of the blocking engine for one connection.
+     *
+     * @param socket  RTSP socket of the client
+     * @param session session of the connection
+     */
+    private void serve(Socket socket, RtspSession session) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        try {
+            // Set input and output stream filters:
+            BufferedReader RTSPBufferedReader =
+                    new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            BufferedWriter RTSPBufferedWriter =
+                    new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            ArrayList<String> lines = new ArrayList<>();
+
+            while (!session.isClosed()) {
+                logger.log(Level.INFO, "*** wait for RTSP-Request ***");
+                lines.clear();
+                String line = RTSPBufferedReader.readLine(); // blocking
+                while (line != null && !line.equals("")) {
+                    lines.add(line);
+                    line = RTSPBufferedReader.readLine();
+                }
+                if (line == null) throw new EOFException();
+                if (lines.isEmpty()) continue;
+                logger.log(Level.INFO, "*** Request received ***\n");
+
+                String response = session.handle(RtspRequest.parse(lines));
+                if (response != null) {
+                    RTSPBufferedWriter.write(response);
+                    RTSPBufferedWriter.flush();
+                    logger.log(Level.FINE, "*** RTSP-Server - Sent response to Client ***");
+                }
+            }
+        } catch (EOFException eof) {
+            logger.log(Level.INFO, "Session " + session.getSessionId() + ": connection closed by client");
+        } catch (Exception ex) {
+            if (!session.isClosed()) {
+                logger.log(Level.SEVERE, "Session " + session.getSessionId() + ": exception caught: " + ex);
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Stop accepting connections and close all sessions.
+     */
+    public void close() {
+        try {
+            if (listenSocket != null) listenSocket.close();
+        } catch (IOException ignored) {
+        }
+        if (nioServer != null) nioServer.close();
+        sessions.values().forEach(RtspSession::close);
+        controlExecutor.shutdown();
+    }
+
+    /**
+     * Called by a session after it was closed.
+     *
+     * @param session the closed session
+     */
+    void sessionClosed(RtspSession session) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        if (sessions.remove(session.getSessionId()) != null) {
+            logger.log(Level.INFO, "Session " + session.getSessionId() + " closed ("
+                    + sessions.size() + " active)");
+            server.sessionCountChanged(sessions.size());
+        }
+    }
+
+    /**
+     * @return all currently active sessions
+     */
+    public Collection<RtspSession> getSessions() {
+        return sessions.values();
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer and one consumer thread.
+ * <p>
+ * The elements are kept in a ring whose size is a power of 2. The producer
+ * only writes the tail, the consumer only the head; each index is
+ * published with a release store (<code>lazySet</code>) after the slot was
+ * written or cleared, so neither side takes a lock or waits for the other.
+ * Each side caches the last index read from the other side and reads it
+ * again only if the ring looks full or empty.
+ *
+ * @param <E> type of the elements
+ */
+public class SpscQueue<E> {
+    private final Object[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next element to poll, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next free slot, written by the producer
+    private long headCache = 0; // producer only
+    private long tailCache = 0; // consumer only
+
+    /**
+     * @param capacity maximum number of elements, rounded up to a power of 2
+     */
+    public SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        ring = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Append an element. Must only be called by the producer thread.
+     *
+     * @param element element to append, not null
+     * @return false if the queue is full
+     */
+    public boolean offer(E element) {
+        long t = tail.get();
+        if (t - headCache == ring.length) {
+            headCache = head.get();
+            if (t - headCache == ring.length) return false;
+        }
+        ring[(int) t & mask] = element;
+        tail.lazySet(t + 1); // publishes the element
+        return true;
+    }
+
+    /**
+     * Remove the oldest element. Must only be called by the consumer thread.
+     *
+     * @return oldest element, null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head.get();
+        if (h == tailCache) {
+            tailCache = tail.get();
+            if (h == tailCache) return null;
+        }
+        int slot = (int) h & mask;
+        E element = (E) ring[slot];
+        ring[slot] = null;
+        head.lazySet(h + 1); // frees the slot
+        return element;
+    }
+
+    /**
+     * @return number of elements, only a snapshot while the threads are running
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * @return maximum number of elements
+     */
+    public int capacity() {
+        return ring.length;
+    }
+
+    /**
+     * Measure the throughput between two threads.
+     *
+     * @param args [number of elements] [capacity]
+     * @throws InterruptedException if interrupted while waiting for the producer
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        SpscQueue<Integer> queue = new SpscQueue<>(capacity);
+        Integer[] values = new Integer[1024];
+        for (int i = 0; i < values.length; i++) values[i] = i;
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < n; i++) {
+                while (!queue.offer(values[i & (values.length - 1)])) Thread.yield();
+            }
+        });
+        long start = System.nanoTime();
+        producer.start();
+        boolean ordered = true;
+        for (int i = 0; i < n; i++) {
+            Integer value;
+            while ((value = queue.poll()) == null) Thread.yield();
+            ordered &= value == (i & (values.length - 1));
+        }
+        long nanos = System.nanoTime() - start;
+        producer.join();
+        System.out.println(n + " elements, capacity " + queue.capacity() + ": "
+                + String.format("%.1f", n / (nanos / 1e9) / 1e6) + " million/s, order "
+                + (ordered ? "" : "not ") + "preserved");
+    }
+}
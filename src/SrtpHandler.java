@@ -4,6 +4,8 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
@@ -75,6 +77,9 @@ public class SrtpHandler {
      */
     private byte[] k_e = null; // session encryption key
     private byte[] k_s = null; // session salting key
+    private Cipher ctrCipher = null; // reused by the in place transformations
+    private Key ctrKey = null;
+    private byte[] ctrKeyData = null; // k_e of ctrKey
     /**
      * Create a SrtpHandler with it's cryptographic context.
      *
@@ -137,6 +142,13 @@ public class SrtpHandler {
                     SrtpHandler.MacAlgorithm.NONE, masterKey, masterSalt, 0);
             boolean passedPacketProcessing = testPacketProcessing(srtp2, srtp3);
             System.out.println("Test (Packet processing): " + (passedPacketProcessing ? "" : "not ") + "passed");
+
+            SrtpHandler srtp4 = new SrtpHandler(SrtpHandler.EncryptionAlgorithm.AES_CTR,
+                    SrtpHandler.MacAlgorithm.NONE, masterKey, masterSalt, 0);
+            SrtpHandler srtp5 = new SrtpHandler(SrtpHandler.EncryptionAlgorithm.AES_CTR,
+                    SrtpHandler.MacAlgorithm.NONE, masterKey, masterSalt, 0);
+            boolean passedInPlace = testInPlaceTransformation(srtp4, srtp5);
+            System.out.println("Test (In place transformation): " + (passedInPlace ? "" : "not ") + "passed");
         } catch (InvalidKeyException ikex) {
             System.out.println(ikex);
         } catch (InvalidAlgorithmParameterException iapex) {
@@ -171,6 +183,30 @@ public class SrtpHandler {
         return passed;
     }
 
+    public static boolean testInPlaceTransformation(SrtpHandler inPlace, SrtpHandler copying) {
+        byte[] data = new byte[1024];
+        Arrays.fill(data, (byte) 0x5A);
+        RTPpacket packet = new RTPpacket(26, 1234, 9000, data, data.length);
+        byte[] expected = copying.transformToSrtp(packet);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(RTPpacket.HEADER_SIZE + data.length + 4);
+        buffer.put(packet.header).put(data).flip();
+        boolean passed = inPlace.transformToSrtp(buffer);
+        byte[] srtp = new byte[buffer.remaining()];
+        buffer.get(srtp);
+
+        passed &= Arrays.equals(expected, srtp);
+
+        buffer.rewind();
+        passed &= copying.retrieveFromSrtp(buffer);
+        passed &= buffer.remaining() == RTPpacket.HEADER_SIZE + data.length;
+        buffer.position(RTPpacket.HEADER_SIZE);
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        passed &= Arrays.equals(data, payload);
+        return passed;
+    }
+
     /**
      * Check if the cryptographic context of SRTP is initialized.
      *
@@ -249,6 +285,60 @@ public class SrtpHandler {
         return rtp;
     }
 
+    /**
+     * Transform a SRTP packet to a RTP packet in place.
+     * <p>
+     * Same as {@link #retrieveFromSrtp(byte[])} for a packet in a receive
+     * buffer: the payload is decrypted within the buffer and the limit is
+     * moved before the MKI, the packet is not copied.
+     *
+     * @param packet received packet between position and limit
+     * @return true if the packet was transformed
+     */
+    public boolean retrieveFromSrtp(ByteBuffer packet) {
+        if (!isInitialized() || packet.remaining() < RTPpacket.HEADER_SIZE) {
+            return false;
+        }
+
+        int start = packet.position();
+        int seq = ((packet.get(start + 2) & 0xFF) << 8) | (packet.get(start + 3) & 0xFF);
+        if (s_l == -1) {
+            s_l = (short) seq;
+        }
+
+        long index = indexFromSeq(seq);
+
+        if (key_derivation_rate != 0 && index % key_derivation_rate == 0) {
+            k_e = computeSessionKey(index, Label.ENCRYPTION, n_e);
+            k_s = computeSessionKey(index, Label.SALTING, n_s);
+        }
+
+        // perform MAC authentication here, remove MKI and authentication tag
+        switch (macId) {
+            case NONE:
+                break;
+        }
+        if (masterKeyIndicator) {
+            packet.limit(packet.limit() - 4);
+        }
+
+        if (!cryptPayloadInPlace(Cipher.DECRYPT_MODE, index, packet)) {
+            return false;
+        }
+
+        // update ROC and s_l
+        long v = index - seq;
+        if (v == roc - 1) {
+            // nothing to do
+        } else if (v == roc && seq > s_l) {
+            s_l = (short) seq;
+        } else if (v == roc + 1) {
+            s_l = (short) seq;
+            roc = v;
+        }
+        return true;
+    }
+
     /**
      * Transform a RTP packet to get a SRTP packet.
      * <p>
@@ -300,6 +390,56 @@ public class SrtpHandler {
         return srtpPacket;
     }
 
+    /**
+     * Transform a RTP packet to a SRTP packet in place.
+     * <p>
+     * Same as {@link #transformToSrtp(RTPpacket)} for a packet in a send
+     * buffer: the payload is encrypted within the buffer and the MKI is
+     * appended behind it, the packet is not copied.
+     *
+     * @param packet RTP packet between position and limit, with room for the MKI
+     * @return true if the packet was transformed
+     */
+    public boolean transformToSrtp(ByteBuffer packet) {
+        if (!isInitialized()) {
+            return false;
+        }
+
+        int start = packet.position();
+        int seq = ((packet.get(start + 2) & 0xFF) << 8) | (packet.get(start + 3) & 0xFF);
+        long index = (1 << 16) * roc + seq;
+
+        if (key_derivation_rate != 0 && index % key_derivation_rate == 0) {
+            k_e = computeSessionKey(index, Label.ENCRYPTION, n_e);
+            k_s = computeSessionKey(index, Label.SALTING, n_s);
+        }
+
+        if (!cryptPayloadInPlace(Cipher.ENCRYPT_MODE, index, packet)) {
+            return false;
+        }
+        masterKeyPacketCounter++;
+
+        if (masterKeyIndicator) {
+            int end = packet.limit();
+            packet.limit(end + 4);
+            for (int i = 0; i < 4; i++) { // same byte order as intToByteArray()
+                packet.put(end + i, (byte) (masterKeyIdentifier >> i * 8));
+            }
+        }
+
+        // perform MAC authentication here
+        switch (macId) {
+            case NONE:
+                break;
+        }
+
+        if (seq > (1 << 16)) {
+            roc++;
+            roc %= (1 << 32);
+        }
+        return true;
+    }
+
     private byte[] aesKeyDerivation(int keyLength, byte[] x) {
         assert x.length == 14 : "AES-Key-Derivation: x has not 112 Bit.";
 
@@ -396,7 +536,7 @@ public class SrtpHandler {
         }
     }
 
-    private byte[] aesCrypt(boolean encryption, long index, byte[] payload) {
+    private byte[] aesIv(long index) {
         byte[] indexData = new byte[n_b];
         System.arraycopy(SrtpHandler.longToByteArray(index), 0, indexData, n_b - 10, 8);
         byte[] ivData = new byte[n_b];
@@ -409,12 +549,44 @@ public class SrtpHandler {
 
         // egaltodo: RFC 3711, p. 22: ensure that each IV value is a nonce
         // -> ROC || SEQ and SSRC must be destinct form any key
+        return ivData;
+    }
 
+    /**
+     * Encrypt or decrypt the payload of a packet within its buffer, with a
+     * cipher which is kept for the following packets.
+     */
+    private boolean cryptPayloadInPlace(int mode, long index, ByteBuffer packet) {
+        switch (cipherId) {
+            case AES_CTR:
+                try {
+                    if (ctrCipher == null) ctrCipher = Cipher.getInstance("AES/CTR/NoPadding");
+                    if (ctrKey == null || ctrKeyData != k_e) {
+                        ctrKey = new SecretKeySpec(k_e, "AES");
+                        ctrKeyData = k_e;
+                    }
+                    ctrCipher.init(mode, ctrKey, new IvParameterSpec(aesIv(index)));
+                    ByteBuffer payload = packet.duplicate();
+                    payload.position(packet.position() + RTPpacket.HEADER_SIZE);
+                    ctrCipher.doFinal(payload, payload.duplicate()); // copy-safe for the same memory
+                } catch (GeneralSecurityException ex) {
+                    System.out.println(ex);
+                    return false;
+                }
+                return true;
+            case NONE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private byte[] aesCrypt(boolean encryption, long index, byte[] payload) {
         byte[] ciphertext = null;
         try {
             Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
             Key key = new SecretKeySpec(k_e, "AES");
-            IvParameterSpec iv = new IvParameterSpec(ivData);
+            IvParameterSpec iv = new IvParameterSpec(aesIv(index));
 
             if (encryption) {
                 cipher.init(Cipher.ENCRYPT_MODE, key, iv);
@@ -0,0 +1,281 @@
+/* ------------------
+StreamingServer
+usage: java StreamingServer [RTSP listening port] [--option=value ...]
+options: see ServerConfig
+---------------------- */
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless core of the RTSP server.
+ * <p>
+ * Holds the settings for all sessions, runs the control engine and schedules
+ * the frames of all sessions. It does
+ * not use any AWT or Swing classes, so it can be started on hosts without
+ * a display. A GUI can be attached as {@link ServerObserver}.
+ */
+public class StreamingServer {
+    private static final int POOLED_SEND_BUFFERS = 4096; // about 6 MB with the default MTU
+
+    private final ServerConfig config;
+    private final SessionManager sessionManager;
+    private final TimingWheel timingWheel; // frames (unless paced by threads) and packets of all sessions
+    private final ByteBufferPool sendBuffers; // RTP and FEC packets of all sessions
+    private final CopyOnWriteArrayList<ServerObserver> observers = new CopyOnWriteArrayList<>();
+    // Settings for all sessions
+    private volatile int fecGroupSize;
+    private volatile boolean adaptiveFec;
+    private volatile RtpHandler.EncryptionMode encryptionMode;
+    // Channel errors
+    private volatile double lossRate;
+
+    /**
+     * @param config settings of the server
+     */
+    public StreamingServer(ServerConfig config) {
+        this.config = config;
+        fecGroupSize = config.fecGroupSize;
+        adaptiveFec = config.adaptiveFec;
+        encryptionMode = config.encryptionMode;
+        lossRate = config.lossRate;
+        timingWheel = new TimingWheel(config.wheelWorkers, config.wheelTickMicros * 1000);
+        sendBuffers = new ByteBufferPool(config.mtu, POOLED_SEND_BUFFERS); // room for a SRTP trailer
+        sessionManager = new SessionManager(this, config.port);
+    }
+
+    // ------------------------------------
+    // main
+    // ------------------------------------
+    public static void main(String[] argv) throws Exception {
+        ServerConfig config = ServerConfig.parse(argv);
+        prepareLogger(config.logLevel);
+
+        StreamingServer server = new StreamingServer(config);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.run(); // blocking
+    }
+
+    /**
+     * Install the custom logging handler.
+     *
+     * @param level logging level
+     */
+    static void prepareLogger(Level level) {
+        Logger logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        CustomLoggingHandler.prepareLogger(logger);
+        /* set logging level
+         * Level.CONFIG: default information (incl. RTSP requests)
+         * Level.ALL: debugging information (headers, received packages and so on)
+         */
+        logger.setLevel(level);
+    }
+
+    /**
+     * Accept RTSP connections with the configured engine until the server
+     * is closed (blocking).
+     *
+     * @throws IOException if the listening socket could not be opened
+     */
+    public void run() throws IOException {
+        if (config.nioEngine) {
+            sessionManager.runNio(config.nioSelectorThreads);
+        } else {
+            sessionManager.run();
+        }
+    }
+
+    /**
+     * Stop all sessions, the control engine and the scheduler.
+     */
+    public void close() {
+        sessionManager.close();
+        timingWheel.close();
+    }
+
+    /**
+     * Create the pacer sending the frames of a session, either on the shared
+     * timing wheel or on its own thread.
+     *
+     * @param name        name of the pacer
+     * @param periodNanos time between two frames in nanoseconds
+     * @param task        task sending one frame
+     * @return pacer, not started yet
+     */
+    Pacer newPacer(String name, double periodNanos, Runnable task) {
+        if (config.timingWheel) return timingWheel.newPacer(name, periodNanos, task);
+        return new FramePacer(name, periodNanos, task);
+    }
+
+    /**
+     * Create the pacer spreading the packets of the frames of a session.
+     *
+     * @param sender       sends the packets to the socket
+     * @param errorHandler called when a queued packet could not be sent
+     * @param periodNanos  time between two frames in nanoseconds
+     * @return packet pacer
+     */
+    PacketPacer newPacketPacer(PacketPacer.Sender sender, Consumer<IOException> errorHandler, double periodNanos) {
+        return new PacketPacer(sender, errorHandler, timingWheel, sendBuffers, periodNanos, config.packetSpread,
+                config.burstPackets * config.mtu);
+    }
+
+    /**
+     * @return pool of the send buffers shared by all sessions
+     */
+    ByteBufferPool getSendBuffers() {
+        return sendBuffers;
+    }
+
+    /**
+     * @param observer observer to be notified about the sessions
+     */
+    public void addObserver(ServerObserver observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * @return packet loss rate for channel error simulation
+     */
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    /**
+     * @param lossRate packet loss rate for channel error simulation, 0.0 ... 1.0
+     */
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * @return MTU for fragmenting the frames
+     */
+    public int getMtu() {
+        return config.mtu;
+    }
+
+    /**
+     * @return true if the fragments are aligned to restart intervals
+     */
+    public boolean isRestartAligned() {
+        return config.restartAligned;
+    }
+
+    /**
+     * @return FEC group size for new sessions
+     */
+    public int getFecGroupSize() {
+        return fecGroupSize;
+    }
+
+    /**
+     * Set the FEC group size for new and running sessions.
+     *
+     * @param k FEC group size
+     */
+    public void setFecGroupSize(int k) {
+        fecGroupSize = k;
+        sessionManager.getSessions().forEach(s -> s.getRtpHandler().setFecGroupSize(k));
+    }
+
+    /**
+     * @return true if the sessions adapt their FEC group size to the receiver reports
+     */
+    public boolean isAdaptiveFec() {
+        return adaptiveFec;
+    }
+
+    /**
+     * @param adaptive true: the sessions adapt their FEC group size to the
+     *                 receiver reports, false: they use the set group size
+     */
+    public void setAdaptiveFec(boolean adaptive) {
+        adaptiveFec = adaptive;
+        if (!adaptive) setFecGroupSize(fecGroupSize);
+    }
+
+    /**
+     * @return rows protecting each media packet, 1 for consecutive rows
+     */
+    public int getFecStagger() {
+        return config.fecStagger;
+    }
+
+    /**
+     * @return frames per FEC group at most, 0 if the groups are not aligned to frames
+     */
+    public int getFecGroupFrames() {
+        return config.fecGroupFrames;
+    }
+
+    /**
+     * @return rows of the 2D XOR parity, less than 2 without column FEC
+     */
+    public int getFecDepth() {
+        return config.fecDepth;
+    }
+
+    /**
+     * @return bytes behind the RFC 2435 headers protected by the ULP level 0, -1 without ULP
+     */
+    public int getFecUlpPrefix() {
+        return config.fecUlpPrefix;
+    }
+
+    /**
+     * @return Reed-Solomon repair packets per FEC group, 0 for the XOR parity
+     */
+    public int getFecRepairPackets() {
+        return config.fecRepairPackets;
+    }
+
+    /**
+     * @return frame loss after the FEC correction the adaptive group size aims at
+     */
+    public double getFecTargetFrameLoss() {
+        return config.fecTargetFrameLoss;
+    }
+
+    /**
+     * @return encryption mode for new sessions
+     */
+    public RtpHandler.EncryptionMode getEncryptionMode() {
+        return encryptionMode;
+    }
+
+    /**
+     * Set the encryption mode for new sessions and for running sessions
+     * which did not start streaming yet.
+     *
+     * @param mode encryption mode
+     * @return true if all running sessions use the new mode
+     */
+    public boolean setEncryptionMode(RtpHandler.EncryptionMode mode) {
+        encryptionMode = mode;
+        boolean encryptionSet = true;
+        for (RtspSession session : sessionManager.getSessions()) {
+            encryptionSet &= session.getRtpHandler().setEncryption(mode);
+        }
+        return encryptionSet;
+    }
+
+    void frameSent(int sessionId, int imageNb) {
+        for (ServerObserver observer : observers) observer.frameSent(sessionId, imageNb);
+    }
+
+    void stateChanged(int sessionId, String state) {
+        for (ServerObserver observer : observers) observer.stateChanged(sessionId, state);
+    }
+
+    void sessionCountChanged(int count) {
+        for (ServerObserver observer : observers) observer.sessionCountChanged(count);
+    }
+
+    void receiverReport(int sessionId, ReceptionFeedback feedback) {
+        for (ServerObserver observer : observers) observer.receiverReport(sessionId, feedback);
+    }
+}
@@ -0,0 +1,293 @@
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hierarchical timing wheel shared by all sessions for sending the frames.
+ * <p>
+ * One timer thread advances the wheel by one tick at a time. The wheel has
+ * {@link #LEVELS} levels of {@link #SLOTS} slots, level <code>l</code>
+ * covers <code>SLOTS^(l+1)</code> ticks. A task is stored in the slot of
+ * its deadline tick on the lowest level which reaches it and moves down
+ * (cascades) when the lower level wraps around. Adding, cancelling and
+ * expiring a task are O(1), independent of the number of sessions.
+ * <p>
+ * The due tasks of a tick are handed in batches to a small fixed pool of
+ * worker threads, which run them and register the next deadline. Besides
+ * the periodic frame tasks, one-shot timeouts can be scheduled. Like
+ * {@link FramePacer}, the deadlines are absolute
+ * (<code>start + n * period</code>), so the resolution of the ticks causes
+ * jitter but no drift.
+ */
+public class TimingWheel {
+    static final int SLOTS = 64; // slots per level, power of 2
+    static final int SLOT_BITS = 6;
+    static final int LEVELS = 4; // 64^4 ticks, more than 4 h with 1 ms ticks
+    static final int BATCH_SIZE = 32; // tasks per job of a worker
+    static final long DEFAULT_TICK = 1_000_000; // ns
+
+    private final long tickNanos;
+    private final long startNanos;
+    @SuppressWarnings({"unchecked", "rawtypes"}) // no generic array creation
+    private final ArrayList<Task>[][] wheel = new ArrayList[LEVELS][SLOTS];
+    private final ConcurrentLinkedQueue<Task> added = new ConcurrentLinkedQueue<>(); // from other threads
+    private final AtomicInteger size = new AtomicInteger(); // scheduled tasks
+    private final ExecutorService workers;
+    private final Thread timer;
+    private volatile boolean running = true;
+    private long currentTick = 0; // last expired tick, only used by the timer thread
+    private int inWheel = 0; // tasks in the slots, only used by the timer thread
+
+    /**
+     * @param workerThreads number of threads running the due tasks
+     * @param tickNanos     resolution of the wheel in nanoseconds
+     */
+    public TimingWheel(int workerThreads, long tickNanos) {
+        this.tickNanos = tickNanos;
+        for (int l = 0; l < LEVELS; l++) {
+            for (int s = 0; s < SLOTS; s++) {
+                wheel[l][s] = new ArrayList<>();
+            }
+        }
+        AtomicInteger workerNb = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), r -> {
+            Thread t = new Thread(r, "wheel-worker-" + workerNb.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        });
+        startNanos = System.nanoTime();
+        timer = new Thread(this::run, "wheel-timer");
+        timer.setDaemon(true);
+        timer.setPriority(Thread.MAX_PRIORITY);
+        timer.start();
+    }
+
+    /**
+     * @param workerThreads number of threads running the due tasks
+     */
+    public TimingWheel(int workerThreads) {
+        this(workerThreads, DEFAULT_TICK);
+    }
+
+    /**
+     * Create a periodic task running on this wheel. The task must not block
+     * either, e.g. a session sends frames which are read ahead by another
+     * thread.
+     *
+     * @param name        name of the task for logging
+     * @param periodNanos time between two runs of the task in nanoseconds
+     * @param task        task to run, e.g. sending one frame
+     * @return pacer of the task, not started yet
+     */
+    public Pacer newPacer(String name, double periodNanos, Runnable task) {
+        return new Task(name, periodNanos, task);
+    }
+
+    /**
+     * Run a task once at the given time. The task must not block, it runs
+     * on a worker thread shared with the frames of all sessions.
+     *
+     * @param deadline absolute time on the nanoTime clock
+     * @param task     task to run
+     */
+    public void schedule(long deadline, Runnable task) {
+        Task timeout = new Task("timeout", 0, task);
+        timeout.active = true;
+        timeout.scheduled = true;
+        timeout.deadline = deadline;
+        schedule(timeout);
+    }
+
+    /**
+     * @return number of scheduled tasks
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Stop the timer and the worker threads. Scheduled tasks are not run anymore.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(timer);
+        workers.shutdownNow();
+    }
+
+    private void schedule(Task task) {
+        added.add(task);
+        if (size.getAndIncrement() == 0) LockSupport.unpark(timer); // timer sleeps while empty
+    }
+
+    // ------------------------------------
+    // timer thread
+    // ------------------------------------
+    private void run() {
+        ArrayList<Task> due = new ArrayList<>();
+        while (running) {
+            if (size.get() == 0) {
+                LockSupport.park(this); // nothing to do until a task is scheduled
+            } else {
+                LockSupport.parkNanos(this, startNanos + (currentTick + 1) * tickNanos - System.nanoTime());
+            }
+            long nowTick = (System.nanoTime() - startNanos) / tickNanos;
+
+            if (inWheel == 0) {
+                currentTick = Math.max(currentTick, nowTick - 1); // wheel is empty, skip the idle ticks
+            }
+            Task task;
+            while ((task = added.poll()) != null) {
+                insert(task, due);
+            }
+            while (currentTick < nowTick) {
+                currentTick++;
+                expire(due);
+            }
+            dispatch(due);
+        }
+    }
+
+    /**
+     * Put a task into the slot of its deadline tick, or into the list of
+     * due tasks if the tick has already expired.
+     */
+    private void insert(Task task, ArrayList<Task> due) {
+        long deadlineTick = Math.max(0, (task.deadline - startNanos + tickNanos - 1) / tickNanos);
+        long delta = deadlineTick - currentTick;
+        if (delta <= 0) {
+            due.add(task);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+            deadlineTick = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1; // cascades again later
+        }
+        int slot = (int) (deadlineTick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        wheel[level][slot].add(task);
+        inWheel++;
+    }
+
+    /**
+     * Move the tasks of the higher levels down if a lower level wrapped
+     * around and collect the tasks of the current tick.
+     */
+    private void expire(ArrayList<Task> due) {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) break;
+            int slot = (int) (currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+            ArrayList<Task> tasks = wheel[level][slot];
+            if (tasks.isEmpty()) continue;
+            ArrayList<Task> cascade = new ArrayList<>(tasks);
+            inWheel -= tasks.size();
+            tasks.clear();
+            for (Task task : cascade) insert(task, due);
+        }
+        ArrayList<Task> tasks = wheel[0][(int) currentTick & (SLOTS - 1)];
+        due.addAll(tasks);
+        inWheel -= tasks.size();
+        tasks.clear();
+    }
+
+    /**
+     * Hand the due tasks in batches to the workers.
+     */
+    private void dispatch(ArrayList<Task> due) {
+        for (int from = 0; from < due.size(); from += BATCH_SIZE) {
+            Task[] batch = due.subList(from, Math.min(due.size(), from + BATCH_SIZE)).toArray(new Task[0]);
+            size.addAndGet(-batch.length);
+            try {
+                workers.execute(() -> {
+                    for (Task task : batch) task.fire();
+                });
+            } catch (RuntimeException ex) { // rejected after close()
+                return;
+            }
+        }
+        due.clear();
+    }
+
+    /**
+     * Periodic task on the wheel, runs at most on one worker at a time.
+     * A period of 0 marks a one-shot timeout.
+     */
+    private class Task implements Pacer {
+        final String name;
+        final double periodNanos;
+        final Runnable runnable;
+        final JitterStatistic statistic = new JitterStatistic();
+        volatile boolean active = false;
+        boolean scheduled = false; // in the wheel or running, guarded by this
+        long start;
+        long n; // number of the next run since start
+        long deadline;
+
+        Task(String name, double periodNanos, Runnable runnable) {
+            this.name = name;
+            this.periodNanos = periodNanos;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public synchronized void start() {
+            if (active) return;
+            active = true;
+            if (scheduled) return; // still in the wheel from the last start, reuse it
+            scheduled = true;
+            start = System.nanoTime();
+            n = 0;
+            deadline = start;
+            schedule(this);
+        }
+
+        @Override
+        public synchronized void stop() {
+            active = false; // removed from the wheel when it is due
+        }
+
+        @Override
+        public JitterStatistic getStatistic() {
+            return statistic;
+        }
+
+        /**
+         * Run the task and register the next deadline. Called by a worker.
+         */
+        void fire() {
+            if (!active) {
+                synchronized (this) {
+                    if (!active) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+            }
+            if (periodNanos != 0) statistic.add(System.nanoTime() - deadline);
+            try {
+                runnable.run();
+            } catch (RuntimeException ex) {
+                Logger.getLogger(Logger.GLOBAL_LOGGER_NAME).log(Level.SEVERE, name + ": exception caught: " + ex);
+            }
+            if (periodNanos == 0) return; // one-shot
+            n++;
+            deadline = start + (long) (n * periodNanos);
+
+            long now = System.nanoTime();
+            if (now - deadline > FramePacer.MAX_LATE_FRAMES * periodNanos) {
+                statistic.resyncs++;
+                start = now;
+                n = 0;
+                deadline = now;
+            }
+            schedule(this);
+        }
+    }
+}
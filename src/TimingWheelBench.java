@@ -0,0 +1,50 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Benchmark of the {@link TimingWheel}: send jitter and CPU time for many
+ * periodic tasks with the frame rates of common videos.
+ */
+public class TimingWheelBench {
+    /**
+     * Measure jitter and CPU time for many tasks with mixed frame rates.
+     *
+     * @param args [number of tasks] [seconds] [worker threads]
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int workerThreads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        double[] framerates = {23.976, 25, 29.97, 30, 50, 60};
+
+        TimingWheel wheel = new TimingWheel(workerThreads);
+        Pacer[] pacers = new Pacer[tasks];
+        JitterStatistic total = new JitterStatistic();
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+        for (int i = 0; i < tasks; i++) {
+            pacers[i] = wheel.newPacer("task-" + i, 1e9 / framerates[i % framerates.length], () -> {
+            });
+            pacers[i].start();
+        }
+        long cpuStart = os.getProcessCpuTime();
+        Thread.sleep(seconds * 1000L);
+        for (Pacer pacer : pacers) pacer.stop();
+
+        long cpu = os.getProcessCpuTime() - cpuStart;
+        double mean = 0;
+        for (Pacer pacer : pacers) {
+            JitterStatistic s = pacer.getStatistic();
+            total.samples += s.samples;
+            total.resyncs += s.resyncs;
+            total.maxNanos = Math.max(total.maxNanos, s.maxNanos);
+            mean += s.getMeanMicros() / tasks;
+        }
+        System.out.println(tasks + " tasks, " + total.samples + " runs, mean lateness "
+                + String.format("%.0f", mean) + " us, max "
+                + total.maxNanos / 1000 + " us, " + total.resyncs + " resyncs, CPU "
+                + String.format("%.1f %%", 100.0 * cpu / (seconds * 1e9)));
+        wheel.close();
+    }
+}
@@ -4,10 +4,16 @@
  */
 public class VideoMetadata {
     private int framerate;
+    private double exactFramerate; // e.g. 29.97 for NTSC
     private double duration; // in seconds
 
     public VideoMetadata(int framerate, double duration) {
-        this.framerate = framerate;
+        this((double) framerate, duration);
+    }
+
+    public VideoMetadata(double exactFramerate, double duration) {
+        this.framerate = (int) exactFramerate;
+        this.exactFramerate = exactFramerate;
         this.duration = duration;
     }
 
@@ -19,8 +25,18 @@ public class VideoMetadata {
         return this.framerate;
     }
 
+    public double getExactFramerate() {
+        return this.exactFramerate;
+    }
+
+    /**
+     * @return time between two frames in nanoseconds, not rounded
+     */
+    public double getFramePeriodNanos() {
+        return 1e9 / this.exactFramerate;
+    }
+
     public double getDuration() {
         return this.duration;
     }
 }
-
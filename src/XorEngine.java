@@ -0,0 +1,133 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * XOR of byte arrays for the FEC encoding and decoding.
+ * <p>
+ * The arrays are processed in lanes of 8 bytes, read and written as
+ * {@code long} through a {@link VarHandle} view of the byte array; only the
+ * tail of less than 8 bytes is processed byte by byte. The byte order does
+ * not matter for XOR, so the native order is used.
+ */
+public class XorEngine {
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle BUFFER_LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * XOR the first bytes of the source into the destination.
+     *
+     * @param dst    destination, at least length bytes
+     * @param src    source, at least length bytes
+     * @param length number of bytes
+     */
+    public static void xor(byte[] dst, byte[] src, int length) {
+        xor(dst, 0, src, 0, length);
+    }
+
+    /**
+     * XOR a range of the source into a range of the destination, e.g. the
+     * bytes behind the protection length of a ULP level.
+     *
+     * @param dst      destination
+     * @param dstIndex index of the first destination byte
+     * @param src      source
+     * @param srcIndex index of the first source byte
+     * @param length   number of bytes
+     */
+    public static void xor(byte[] dst, int dstIndex, byte[] src, int srcIndex, int length) {
+        int i = 0;
+        for (int end = length - Long.BYTES; i <= end; i += Long.BYTES) {
+            LONGS.set(dst, dstIndex + i, (long) LONGS.get(dst, dstIndex + i) ^ (long) LONGS.get(src, srcIndex + i));
+        }
+        for (; i < length; i++) {
+            dst[dstIndex + i] ^= src[srcIndex + i];
+        }
+    }
+
+    /**
+     * XOR bytes of a buffer, e.g. a direct send buffer, into an array.
+     *
+     * @param dst      destination, at least length bytes
+     * @param src      source, not modified
+     * @param srcIndex absolute index of the first source byte
+     * @param length   number of bytes
+     */
+    public static void xor(byte[] dst, ByteBuffer src, int srcIndex, int length) {
+        int i = 0;
+        for (int end = length - Long.BYTES; i <= end; i += Long.BYTES) {
+            LONGS.set(dst, i, (long) LONGS.get(dst, i) ^ (long) BUFFER_LONGS.get(src, srcIndex + i));
+        }
+        for (; i < length; i++) {
+            dst[i] ^= src.get(srcIndex + i);
+        }
+    }
+
+    /**
+     * Byte by byte XOR, as reference for the benchmark.
+     */
+    static void xorBytes(byte[] dst, byte[] src, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[i] ^= src[i];
+        }
+    }
+
+    /**
+     * Compare the throughput with the byte loop.
+     *
+     * @param args [milliseconds per measurement]
+     */
+    public static void main(String[] args) {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 500;
+        int[] sizes = {100, 1000, 1400, 8 * 1024, 64 * 1024};
+        Random random = new Random(1);
+
+        // results must match for all lengths, also with a tail
+        for (int length = 0; length < 100; length++) {
+            byte[] src = new byte[length];
+            byte[] a = new byte[length];
+            random.nextBytes(src);
+            random.nextBytes(a);
+            byte[] b = a.clone();
+            xor(a, src, length);
+            xorBytes(b, src, length);
+            if (!Arrays.equals(a, b)) throw new AssertionError("XOR differs for " + length + " bytes");
+        }
+
+        System.out.println("size      byte loop     long lanes   (MB/s)");
+        for (int size : sizes) {
+            byte[] dst = new byte[size];
+            byte[] src = new byte[size];
+            random.nextBytes(src);
+            double bytes = measure(dst, src, size, false, millis / 2); // warm up
+            double lanes = measure(dst, src, size, true, millis / 2);
+            bytes = measure(dst, src, size, false, millis);
+            lanes = measure(dst, src, size, true, millis);
+            System.out.printf("%6d %12.0f %14.0f   x%.1f%n", size, bytes, lanes, lanes / bytes);
+        }
+    }
+
+    /**
+     * @return throughput in MB/s
+     */
+    private static double measure(byte[] dst, byte[] src, int size, boolean lanes, long millis) {
+        long duration = millis * 1_000_000;
+        long bytes = 0;
+        long start = System.nanoTime();
+        long now;
+        do {
+            for (int n = 0; n < 1000; n++) {
+                if (lanes) xor(dst, src, size);
+                else xorBytes(dst, src, size);
+            }
+            bytes += 1000L * size;
+        } while ((now = System.nanoTime()) - start < duration);
+        if (dst[size / 2] == 42 && dst[0] == 42) System.out.print(""); // keep the result alive
+        return bytes / ((now - start) / 1e3);
+    }
+}
@@ -0,0 +1,133 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class FecAccumulatorTest {
+
+  private static RTPpacket media(int seqNr, int length, Random random) {
+    byte[] payload = new byte[length];
+    random.nextBytes(payload);
+    RTPpacket rtp = new RTPpacket(RtpHandler.RTP_PAYLOAD_JPEG, seqNr, 3600 * seqNr, payload, length);
+    rtp.Marker = seqNr % 3 == 0 ? 1 : 0;
+    rtp.setRtpHeader();
+    return rtp;
+  }
+
+  private static byte[] write(FecAccumulator accumulator, int seqNr) {
+    ByteBuffer dst = ByteBuffer.allocate(2 * RtpHandler.DEFAULT_MTU);
+    accumulator.write(dst, seqNr);
+    return Arrays.copyOf(dst.array(), dst.position());
+  }
+
+  /** FEC packet of the FECpacket class over the packets of the mask, starting at snBase */
+  private static byte[] fecPacket(RTPpacket[] packets, int snBase, long mask, int maxGroupSize) {
+    int last = snBase + Long.SIZE - 1 - Long.numberOfTrailingZeros(mask);
+    FECpacket fec = new FECpacket(RtpHandler.RTP_PAYLOAD_FEC, 7, 3600 * last, maxGroupSize, snBase);
+    fec.setUlpLevelMask(0, 0, mask);
+    for (RTPpacket rtp : packets) {
+      if ((mask << (rtp.getsequencenumber() - snBase)) < 0) fec.addRtp(rtp);
+    }
+    return fec.getpacket();
+  }
+
+  @Test
+  void rowEqualsFecPacket() {
+    Random random = new Random(1);
+    RTPpacket[] packets = new RTPpacket[4];
+    FecAccumulator row = new FecAccumulator(RtpHandler.DEFAULT_MTU);
+    row.reset(100, -1L << 60);
+    int[] lengths = {1000, 1400, 300, 1400};
+    for (int i = 0; i < packets.length; i++) {
+      packets[i] = media(100 + i, lengths[i], random);
+      row.add(ByteBuffer.wrap(packets[i].getpacket()));
+    }
+    assertEquals(4, row.size());
+    assertArrayEquals(fecPacket(packets, 100, -1L << 60, 16), write(row, 7));
+  }
+
+  @Test
+  void columnEqualsFecPacket() {
+    Random random = new Random(2);
+    RTPpacket[] packets = new RTPpacket[32];
+    long mask = 0;
+    FecAccumulator column = new FecAccumulator(RtpHandler.DEFAULT_MTU);
+    column.reset(200, 0);
+    for (int i = 0; i < packets.length; i++) {
+      packets[i] = media(200 + i, 100 + random.nextInt(1300), random);
+      if (i % 8 == 0) {
+        column.add(ByteBuffer.wrap(packets[i].getpacket()));
+        mask |= Long.MIN_VALUE >>> i;
+      }
+    }
+    column.setMask(mask); // long mask, packets beyond the first 16
+    assertArrayEquals(fecPacket(packets, 200, mask, FecHandler.maxGroupSize), write(column, 7));
+  }
+
+  @Test
+  void resetClearsGroup() {
+    Random random = new Random(3);
+    FecAccumulator row = new FecAccumulator(RtpHandler.DEFAULT_MTU);
+    row.reset(0, -1L << 62);
+    row.add(ByteBuffer.wrap(media(0, 1400, random).getpacket()));
+    row.add(ByteBuffer.wrap(media(1, 1400, random).getpacket()));
+    write(row, 1);
+
+    RTPpacket[] packets = {media(2, 500, random), media(3, 200, random)};
+    row.reset(2, -1L << 62);
+    for (RTPpacket rtp : packets) row.add(ByteBuffer.wrap(rtp.getpacket()));
+    assertArrayEquals(fecPacket(packets, 2, -1L << 62, 16), write(row, 7));
+  }
+
+  @Test
+  void ulpLevels() {
+    Random random = new Random(4);
+    int protection = 20;
+    RTPpacket[] packets = new RTPpacket[4];
+    FecAccumulator first = new FecAccumulator(RtpHandler.DEFAULT_MTU); // level 0 of the first half row
+    FecAccumulator second = new FecAccumulator(RtpHandler.DEFAULT_MTU); // level 0 of the second half row
+    first.reset(300, -1L << 62);
+    second.reset(302, -1L << 62);
+    int[] lengths = {800, 10, 1400, 600};
+    byte[] level0 = new byte[protection];
+    for (int i = 0; i < packets.length; i++) {
+      packets[i] = media(300 + i, lengths[i], random);
+      (i < 2 ? first : second).add(ByteBuffer.wrap(packets[i].getpacket()));
+      byte[] payload = packets[i].getpayload();
+      if (i < 2) XorEngine.xor(level0, payload, Math.min(protection, payload.length));
+    }
+    first.setUlp(protection, second, -1L << 60);
+    second.setUlp(protection, null, 0);
+
+    byte[] bits = write(first, 8);
+    FECpacket fec = new FECpacket(bits, bits.length);
+    assertEquals(300, fec.snBase);
+    assertEquals(protection, fec.protectionLength);
+    assertEquals(-1L << 62, fec.mask);
+    assertArrayEquals(level0, fec.payload);
+
+    byte[] bits1 = write(second, 9); // level 0 only
+    fec = new FECpacket(bits1, bits1.length);
+    assertEquals(302, fec.snBase);
+    assertEquals(protection, fec.protectionLength);
+    byte[] expected = new byte[protection];
+    for (int i = 2; i < 4; i++) XorEngine.xor(expected, packets[i].getpayload(), protection);
+    assertArrayEquals(expected, fec.payload);
+
+    // level 1 through the receiver: the prefix of the lost packet is completed by the bytes behind it
+    FecHandler receiver = new FecHandler(true);
+    JitterBuffer media = new JitterBuffer(64);
+    for (int i = 1; i < packets.length; i++) {
+      receiver.mediaReceived(media.put(new RtpPacketView(ByteBuffer.wrap(packets[i].getpacket()), null)));
+    }
+    receiver.rcvFecPacket(new RtpPacketView(ByteBuffer.wrap(bits), null), media);
+    receiver.rcvFecPacket(new RtpPacketView(ByteBuffer.wrap(bits1), null), media);
+    receiver.recover(media);
+    RtpPacketView restored = receiver.correctRtp(media.extend(300), media);
+    assertNotNull(restored);
+    int start = restored.getPayloadStart() - RTPpacket.HEADER_SIZE;
+    assertArrayEquals(packets[0].getpacket(), Arrays.copyOfRange(restored.array(), start, start + restored.getLength()));
+  }
+}
@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class FecHandlerTest {
+  private final Random random = new Random(1);
+  private final FecHandler receiver = new FecHandler(true);
+  private final JitterBuffer media = new JitterBuffer(4096);
+
+  /** Media packets of one frame, each followed by the FEC packets completed with it */
+  private List<byte[]> send(FecHandler sender, int first, int count) {
+    List<byte[]> wire = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      byte[] payload = new byte[i == count - 1 ? 300 : 1000];
+      random.nextBytes(payload);
+      payload[4] = 0; // RFC 2435 type 0 and Q 0: 8 byte header
+      payload[5] = 0;
+      ByteBuffer packet = ByteBuffer.allocate(RTPpacket.HEADER_SIZE + payload.length);
+      RTPpacket.putRtpHeader(packet, i == count - 1 ? 1 : 0, RtpHandler.RTP_PAYLOAD_JPEG, first + i, 3600 * first,
+          RtpHandler.SSRC);
+      packet.put(payload).flip();
+      sender.setRtp(packet);
+      wire.add(packet.array());
+      while (sender.isReady()) {
+        ByteBuffer fec = ByteBuffer.allocate(2 * RtpHandler.DEFAULT_MTU);
+        sender.getPacket(fec);
+        wire.add(Arrays.copyOf(fec.array(), fec.position()));
+      }
+    }
+    return wire;
+  }
+
+  private static int seqNr(byte[] packet) {
+    return (packet[2] & 0xFF) << 8 | (packet[3] & 0xFF);
+  }
+
+  private static boolean isMedia(byte[] packet) {
+    return (packet[1] & 0x7F) == RtpHandler.RTP_PAYLOAD_JPEG;
+  }
+
+  /** Hand the packets to the receiver in order, except the lost media packets */
+  private void receive(List<byte[]> wire, Set<Integer> lost) {
+    for (byte[] packet : wire) {
+      if (isMedia(packet)) {
+        if (lost.contains(seqNr(packet))) continue;
+        receiver.mediaReceived(media.put(new RtpPacketView(ByteBuffer.wrap(packet), null)));
+      } else {
+        receiver.rcvFecPacket(new RtpPacketView(ByteBuffer.wrap(packet), null), media);
+      }
+      receiver.recover(media);
+    }
+  }
+
+  private Set<Integer> restored() {
+    Set<Integer> restored = new HashSet<>();
+    for (int nr = receiver.nextRestored(); nr != -1; nr = receiver.nextRestored()) restored.add(nr & 0xFFFF);
+    return restored;
+  }
+
+  private static byte[] bytes(RtpPacketView packet) {
+    int start = packet.getPayloadStart() - RTPpacket.HEADER_SIZE;
+    return Arrays.copyOfRange(packet.array(), start, start + packet.getLength());
+  }
+
+  private void assertRestored(List<byte[]> wire, int seqNr) {
+    RtpPacketView packet = receiver.correctRtp(media.extend(seqNr), media);
+    assertNotNull(packet);
+    for (byte[] original : wire) {
+      if (isMedia(original) && seqNr(original) == seqNr) assertArrayEquals(original, bytes(packet));
+    }
+  }
+
+  @Test
+  void restoreSingleLossOfRow() {
+    List<byte[]> wire = send(new FecHandler(4), 1000, 8);
+    receive(wire, Set.of(1002, 1007));
+    assertEquals(Set.of(1002, 1007), restored());
+    assertRestored(wire, 1002);
+    assertRestored(wire, 1007); // marker and length of the last packet
+  }
+
+  @Test
+  void peelRowsAndColumns() {
+    FecHandler sender = new FecHandler(4);
+    sender.setDepth(2);
+    List<byte[]> wire = send(sender, 2000, 8);
+    // the first row misses two packets, the second row and the columns restore them
+    receive(wire, Set.of(2000, 2001, 2004));
+    assertEquals(Set.of(2000, 2001, 2004), restored());
+    for (int seqNr : new int[]{2000, 2001, 2004}) assertRestored(wire, seqNr);
+  }
+
+  @Test
+  void lateMediaCompletesGroup() {
+    List<byte[]> wire = send(new FecHandler(4), 65534, 4); // wraps around
+    byte[] late = wire.remove(1);
+    receive(wire, Set.of(0));
+    assertEquals(Set.of(), restored());
+    receive(List.of(late), Set.of());
+    assertEquals(Set.of(0), restored());
+    assertRestored(wire, 0);
+  }
+
+  @Test
+  void restoreUlpPrefixAndTail() {
+    FecHandler sender = new FecHandler(4);
+    sender.setUlp(100);
+    List<byte[]> wire = send(sender, 3000, 4);
+    receive(wire, Set.of(3000));
+    assertEquals(Set.of(3000), restored());
+    assertRestored(wire, 3000);
+  }
+
+  @Test
+  void restoreUlpPrefixOnly() {
+    FecHandler sender = new FecHandler(4);
+    sender.setUlp(100);
+    List<byte[]> wire = send(sender, 4000, 4);
+    receive(wire, Set.of(4000, 4002)); // one in each half row, level 1 misses two packets
+    assertEquals(Set.of(4000, 4002), restored());
+    int nr = media.extend(4002);
+    assertNull(receiver.correctRtp(nr, media));
+    RtpPacketView prefix = receiver.correctPrefix(nr);
+    assertEquals(100 + 8, prefix.getPayloadLength()); // with the RFC 2435 header
+    byte[] original = wire.stream().filter(p -> isMedia(p) && seqNr(p) == 4002).findFirst().get();
+    assertArrayEquals(Arrays.copyOf(original, prefix.getLength()), bytes(prefix));
+  }
+
+  @Test
+  void restoreBuffersAreReused() {
+    FecHandler sender = new FecHandler(2);
+    for (int first = 0; first < 400; first += 2) {
+      receive(send(sender, first, 2), Set.of(first));
+      assertEquals(Set.of(first), restored());
+      receiver.evictBefore(media.getHighest() + 1);
+      media.evictBefore(media.getHighest() + 1);
+    }
+    assertEquals(1, receiver.restoreBuffers.getAllocated());
+  }
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+class JitterBufferTest {
+
+  private static RtpPacketView packet(int seqNr, ByteBufferPool pool) {
+    ByteBuffer buffer = pool == null ? ByteBuffer.allocate(RTPpacket.HEADER_SIZE) : pool.acquire();
+    RTPpacket.putRtpHeader(buffer, 0, RtpHandler.RTP_PAYLOAD_JPEG, seqNr & 0xFFFF, 0, RtpHandler.SSRC);
+    return new RtpPacketView(buffer.flip(), pool);
+  }
+
+  @Test
+  void extendOverWrapAround() {
+    JitterBuffer buffer = new JitterBuffer(64);
+    int first = buffer.put(packet(65534, null));
+    assertEquals(first + 1, buffer.put(packet(65535, null)));
+    assertEquals(first + 2, buffer.put(packet(0, null)));
+    assertEquals(first + 3, buffer.put(packet(1, null)));
+    assertEquals(first + 1, buffer.extend(65535)); // reordered from before the wrap around
+    assertEquals(first + 3, buffer.getHighest());
+    assertEquals(1, buffer.get(first + 3).getSequenceNumber());
+    assertNull(buffer.get(first + 3 + 65536)); // same slot, other cycle
+  }
+
+  @Test
+  void evictBeforeReleasesPackets() {
+    ByteBufferPool pool = new ByteBufferPool(64, 8, false);
+    JitterBuffer buffer = new JitterBuffer(64);
+    int first = buffer.put(packet(100, pool));
+    for (int i = 1; i < 4; i++) buffer.put(packet(100 + i, pool));
+
+    buffer.evictBefore(first + 2);
+    assertFalse(buffer.contains(first + 1));
+    assertTrue(buffer.contains(first + 2));
+    assertEquals(2, buffer.size());
+    buffer.put(packet(100, pool)); // too late, released at once
+    assertFalse(buffer.contains(first));
+
+    // the released buffers are reused
+    for (int i = 0; i < 2; i++) pool.acquire();
+    assertEquals(4, pool.getAllocated());
+  }
+
+  @Test
+  void overwriteOldestWhenFull() {
+    JitterBuffer buffer = new JitterBuffer(64);
+    int first = buffer.put(packet(0, null));
+    for (int i = 1; i < 70; i++) buffer.put(packet(i, null));
+    assertEquals(64, buffer.size());
+    assertFalse(buffer.contains(first + 5));
+    assertTrue(buffer.contains(first + 6));
+    assertEquals(6, buffer.get(first + 6).getSequenceNumber());
+  }
+
+  @Test
+  void receivedMask() {
+    JitterBuffer buffer = new JitterBuffer(64);
+    int first = buffer.put(packet(60, null)); // slots 60 ... 63, 0 ... 3 of the ring
+    for (int i = 61; i < 68; i++) {
+      if (i != 62) buffer.put(packet(i, null));
+    }
+    assertEquals(0xDFL << 56, buffer.receivedMask(first));
+    assertEquals(0x37L << 56 | 0xC0L << 48, buffer.receivedMask(first - 2)); // before the oldest packet
+    assertEquals(0x80L << 56, buffer.receivedMask(first + 7)); // behind the highest packet
+  }
+
+  @Test
+  void startAtKeepsRoomForOlderPackets() {
+    JitterBuffer buffer = new JitterBuffer(64);
+    buffer.startAt(1000 - 10);
+    buffer.put(packet(1000, null), 1000);
+    buffer.put(packet(995, null), 995); // restored later, but older
+    assertTrue(buffer.contains(995));
+    assertEquals(1000, buffer.getHighest());
+    assertEquals(0x84L << 56, buffer.receivedMask(995));
+  }
+}
@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class JpegFrameTest {
+  private static final int MAX_SIZE = 1000;
+  private static final int[] INTERVALS = {300, 500, 200, 2500, 100, 900, 40}; // the fourth one needs three fragments
+
+  /** Frame with one quantization table and restart markers behind each interval */
+  private final JpegFrame frame;
+  private final int[] bounds = new int[INTERVALS.length + 1];
+  private final byte[] payload;
+
+  JpegFrameTest() {
+    byte[] header = new byte[8 + 4 + 4 + 64];
+    header[4] = 65; // type 1 with restart header
+    header[5] = (byte) 255; // Q with quantization table header
+    header[6] = 640 / 8;
+    header[7] = 480 / 8;
+    header[9] = 4; // restart interval
+    header[10] = (byte) 0xFF; // F, L and restart count unknown
+    header[11] = (byte) 0xFF;
+    header[15] = 64; // length of the table
+    for (int i = 0; i < INTERVALS.length; i++) bounds[i + 1] = bounds[i] + INTERVALS[i];
+    payload = new byte[bounds[INTERVALS.length]];
+    Arrays.fill(payload, (byte) 0x11);
+    for (int i = 0; i < INTERVALS.length; i++) {
+      payload[bounds[i + 1] - 2] = (byte) 0xFF;
+      payload[bounds[i + 1] - 1] = (byte) (i == INTERVALS.length - 1 ? 0xD9 : 0xD0 + i % 8);
+    }
+    byte[] rtpPayload = Arrays.copyOf(header, header.length + payload.length);
+    System.arraycopy(payload, 0, rtpPayload, header.length, payload.length);
+    frame = JpegFrame.getFromRtpPayload(rtpPayload);
+  }
+
+  /** The fragments cover the payload without gaps and fit into MAX_SIZE */
+  private static void assertCovers(JpegFrame frame, int[] plan, int payloadLength) {
+    int pos = 0;
+    for (int i = 0; i < plan.length / JpegFrame.PLAN_FIELDS; i++) {
+      assertEquals(pos, plan[JpegFrame.PLAN_FIELDS * i]);
+      assertTrue(frame.getRfc2435FragmentLength(plan, i) <= MAX_SIZE);
+      pos += plan[JpegFrame.PLAN_FIELDS * i + 1];
+    }
+    assertEquals(payloadLength, pos);
+  }
+
+  @Test
+  void parseRestartHeader() {
+    assertTrue(frame.hasRestartMarkers());
+    assertFalse(frame.hasRestartCount());
+    assertArrayEquals(payload, frame.getPayload());
+  }
+
+  @Test
+  void fragmentsWithoutAlignment() {
+    int[] plan = frame.planRfc2435Fragments(MAX_SIZE, false);
+    assertCovers(frame, plan, payload.length);
+    for (int i = 0; i < plan.length / JpegFrame.PLAN_FIELDS; i++) {
+      assertEquals(JpegFrame.RESTART_FIRST | JpegFrame.RESTART_LAST, plan[JpegFrame.PLAN_FIELDS * i + 2]);
+      assertEquals(JpegFrame.RESTART_COUNT_UNKNOWN, plan[JpegFrame.PLAN_FIELDS * i + 3]);
+      if (i < plan.length / JpegFrame.PLAN_FIELDS - 1) assertEquals(MAX_SIZE, frame.getRfc2435FragmentLength(plan, i));
+    }
+  }
+
+  @Test
+  void fragmentsAlignedToRestartIntervals() {
+    int[] plan = frame.planRfc2435Fragments(MAX_SIZE, true);
+    assertCovers(frame, plan, payload.length);
+    int[][] expected = { // offset, length, flags, count
+        {0, 800, 0xC0, 0}, {800, 200, 0xC0, 2}, // the first fragment carries the quantization table
+        {1000, 988, 0x80, 3}, {1988, 988, 0x00, 3}, {2976, 524, 0x40, 3},
+        {3500, 100, 0xC0, 4}, {3600, 940, 0xC0, 5}};
+    assertEquals(expected.length, plan.length / JpegFrame.PLAN_FIELDS);
+    for (int i = 0; i < expected.length; i++) {
+      assertArrayEquals(expected[i], Arrays.copyOfRange(plan, JpegFrame.PLAN_FIELDS * i, JpegFrame.PLAN_FIELDS * (i + 1)),
+          "fragment " + i);
+    }
+  }
+
+  @Test
+  void restartFragmentsRoundTrip() {
+    List<byte[]> fragments = frame.getAsRfc2435RestartFragments(MAX_SIZE);
+    int pos = 0;
+    for (byte[] fragment : fragments) {
+      JpegFrame received = JpegFrame.getFromRtpPayload(fragment);
+      assertEquals(pos, received.getOffset());
+      assertTrue(received.hasRestartCount());
+      byte[] data = received.getPayload();
+      assertArrayEquals(Arrays.copyOfRange(payload, pos, pos + data.length), data);
+      pos += data.length;
+    }
+    assertEquals(payload.length, pos);
+  }
+}
@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ReedSolomonTest {
+  private static final int K = 6;
+  private static final int M = 3;
+  private static final int LENGTH = 1400;
+
+  private final byte[][] data = new byte[K][LENGTH];
+  private final byte[][] repairs = new byte[M][LENGTH];
+
+  ReedSolomonTest() {
+    Random random = new Random(1);
+    for (byte[] symbol : data) random.nextBytes(symbol);
+    for (int j = 0; j < M; j++) ReedSolomon.encode(data, K, M, j, repairs[j], LENGTH);
+  }
+
+  @Test
+  void field() {
+    for (int a = 1; a < 256; a++) {
+      assertEquals(1, ReedSolomon.mul(a, ReedSolomon.inverse(a)));
+      assertEquals(a, ReedSolomon.mul(a, 1));
+      assertEquals(0, ReedSolomon.mul(a, 0));
+    }
+  }
+
+  @Test
+  void decodeWithoutLoss() {
+    byte[][] received = data.clone();
+    assertTrue(ReedSolomon.decode(received, new byte[M][], LENGTH));
+    for (int i = 0; i < K; i++) assertSame(data[i], received[i]);
+  }
+
+  @Test
+  void decodeAsManyLossesAsRepairs() {
+    // every combination of M lost data symbols, with all repair symbols
+    for (int lost = 0; lost < 1 << K; lost++) {
+      if (Integer.bitCount(lost) != M) continue;
+      byte[][] received = data.clone();
+      for (int i = 0; i < K; i++) {
+        if ((lost & 1 << i) != 0) received[i] = null;
+      }
+      assertTrue(ReedSolomon.decode(received, repairs.clone(), LENGTH));
+      for (int i = 0; i < K; i++) assertArrayEquals(data[i], received[i]);
+    }
+  }
+
+  @Test
+  void decodeWithSomeRepairsLost() {
+    byte[][] received = data.clone();
+    received[1] = null;
+    received[4] = null;
+    byte[][] receivedRepairs = repairs.clone();
+    receivedRepairs[0] = null;
+    assertTrue(ReedSolomon.decode(received, receivedRepairs, LENGTH));
+    assertArrayEquals(data[1], received[1]);
+    assertArrayEquals(data[4], received[4]);
+  }
+
+  @Test
+  void tooManyLosses() {
+    byte[][] received = data.clone();
+    received[0] = null;
+    received[2] = null;
+    byte[][] receivedRepairs = repairs.clone();
+    receivedRepairs[1] = null;
+    receivedRepairs[2] = null;
+    assertFalse(ReedSolomon.decode(received, receivedRepairs, LENGTH));
+  }
+}
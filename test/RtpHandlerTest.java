@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class RtpHandlerTest {
+  private static final long FRAME_NANOS = 40_000_000; // 25 Hz, 3600 timestamp units
+  private final Random random = new Random(1);
+  private final RtpHandler client = new RtpHandler(true);
+
+  private ByteBuffer media(int seqNr, int marker, int timestamp) {
+    ByteBuffer packet = client.acquireReceiveBuffer();
+    RTPpacket.putRtpHeader(packet, marker, RtpHandler.RTP_PAYLOAD_JPEG, seqNr & 0xFFFF, timestamp, RtpHandler.SSRC);
+    byte[] payload = new byte[500];
+    random.nextBytes(payload);
+    payload[1] = payload[2] = payload[3] = 0; // fragment offset 0
+    payload[4] = 0; // RFC 2435 type 0 and Q 0
+    payload[5] = 0;
+    return packet.put(payload).flip();
+  }
+
+  @Test
+  void extendedSequenceNumbers() {
+    for (int i = 0; i < 4; i++) client.processRtpPacket(media(65534 + i, 1, 3600 * i), FRAME_NANOS * i);
+    ReceptionStatistic statistic = client.getReceptionStatistic();
+    assertEquals(4, statistic.receivedPackets);
+    assertEquals(3, statistic.latestSequenceNumber - statistic.firstSequenceNumber); // over the wrap around
+  }
+
+  @Test
+  void jitterOfConstantTransit() {
+    for (int i = 0; i < 100; i++) client.processRtpPacket(media(i, 1, 3600 * i), 1_000_000_000L + FRAME_NANOS * i);
+    assertEquals(0, client.getReceptionStatistic().jitter, 1e-9);
+  }
+
+  @Test
+  void jitterOfAlternatingTransit() {
+    // every second packet 5 ms late: the difference of the transit times is 5 ms (RFC 3550, 6.4.1)
+    for (int i = 0; i < 200; i++) {
+      client.processRtpPacket(media(i, 1, 3600 * i), FRAME_NANOS * i + (i % 2) * 5_000_000);
+    }
+    assertEquals(5, client.getReceptionStatistic().jitter, 0.01);
+  }
+
+  @Test
+  void jitterOfPacedFragments() {
+    // four fragments per frame, spread over half the frame period by the sender: no network jitter
+    for (int i = 0; i < 400; i++) {
+      int frame = i / 4;
+      client.processRtpPacket(media(i, i % 4 == 3 ? 1 : 0, 3600 * frame), FRAME_NANOS * frame + (i % 4) * 5_000_000);
+    }
+    assertEquals(0, client.getReceptionStatistic().jitter, 1e-9);
+  }
+
+  @Test
+  void restoreOnArrival() {
+    FecHandler sender = new FecHandler(2);
+    for (int i = 0; i < 4; i++) {
+      ByteBuffer packet = media(10 + i, i % 2, 3600 * (i / 2));
+      sender.setRtp(packet);
+      if (i != 2) client.processRtpPacket(packet, FRAME_NANOS * i); // the first packet of the second frame is lost
+      while (sender.isReady()) {
+        ByteBuffer fec = client.acquireReceiveBuffer();
+        sender.getPacket(fec);
+        client.processRtpPacket(fec.flip(), FRAME_NANOS * i + 1_000_000);
+      }
+    }
+    ReceptionStatistic statistic = client.getReceptionStatistic();
+    assertEquals(1, statistic.recoveryLatency, 1e-6); // lost since the next packet, restored 1 ms later
+
+    client.nextPlaybackImage();
+    client.nextPlaybackImage();
+    statistic = client.getReceptionStatistic();
+    assertEquals(1, statistic.packetsLost);
+    assertEquals(1, statistic.correctedPackets);
+    assertEquals(0, statistic.notCorrectedPackets);
+  }
+
+  /** JPEG with the headers parsed by JpegFrame and 60 kB of entropy coded data */
+  private byte[] image() {
+    ByteBuffer jpeg = ByteBuffer.allocate(61000);
+    jpeg.putShort((short) 0xFFD8); // SOI
+    jpeg.putShort((short) 0xFFDB).putShort((short) (2 + 2 * 65)); // DQT with two tables
+    for (int table = 0; table < 2; table++) {
+      jpeg.put((byte) table);
+      for (int i = 0; i < 64; i++) jpeg.put((byte) (1 + i));
+    }
+    jpeg.putShort((short) 0xFFC0).putShort((short) 17).put((byte) 8).putShort((short) 480).putShort((short) 640);
+    jpeg.put((byte) 3).put(new byte[]{1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1}); // SOF0, yuvj420p
+    jpeg.putShort((short) 0xFFDA).putShort((short) 12).put(new byte[10]); // SOS
+    while (jpeg.remaining() > 2) jpeg.put((byte) random.nextInt(0xFF)); // without markers
+    jpeg.putShort((short) 0xFFD9); // EOI
+    return jpeg.array();
+  }
+
+  /** Largest UDP payload of the media and FEC packets of a few frames */
+  private int largestDatagram(RtpHandler server, byte[] image) {
+    ByteBufferPool pool = new ByteBufferPool(2 * ServerConfig.MAX_MTU, 64, false);
+    List<ByteBuffer> packets = new ArrayList<>();
+    int largest = 0;
+    for (int frame = 0; frame < 3; frame++) {
+      packets.clear();
+      server.jpegToRtpBuffers(image, 25, pool, packets);
+      while (server.isFecPacketAvailable()) packets.add(server.createFecPacket());
+      for (ByteBuffer packet : packets) largest = Math.max(largest, packet.remaining());
+    }
+    return largest;
+  }
+
+  @Test
+  void fecPacketsFitTheMtu() {
+    byte[] image = image();
+    for (int mtu : new int[]{RtpHandler.DEFAULT_MTU, ServerConfig.MAX_MTU}) {
+      for (int ulp : new int[]{-1, 100, 1440}) { // up to the largest prefix of the configuration
+        RtpHandler server = new RtpHandler(24); // long masks
+        server.setEncryption(RtpHandler.EncryptionMode.NONE);
+        server.setFecUlp(ulp);
+        server.setMtu(mtu);
+        int largest = largestDatagram(server, image);
+        assertTrue(largest <= mtu - RtpHandler.IP_UDP_HEADER_SIZE, "mtu " + mtu + " ulp " + ulp + ": " + largest);
+        assertTrue(largest <= RtpHandler.RECEIVE_BUFFER_SIZE);
+      }
+    }
+  }
+}
@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+  private static final long TICK = 100_000; // ns, level 0 covers 6.4 ms, level 1 409.6 ms
+  private static final long TOLERANCE = 50_000_000; // ns, late start of a busy test machine
+
+  @Test
+  void timeoutsCascadeDown() throws InterruptedException {
+    TimingWheel wheel = new TimingWheel(1, TICK);
+    long[] delays = {1_000_000, 20_000_000, 450_000_000}; // on level 0, 1 and 2
+    AtomicLongArray fired = new AtomicLongArray(delays.length);
+    CountDownLatch done = new CountDownLatch(delays.length);
+    long start = System.nanoTime();
+    for (int i = delays.length - 1; i >= 0; i--) {
+      int task = i;
+      wheel.schedule(start + delays[i], () -> {
+        fired.set(task, System.nanoTime());
+        done.countDown();
+      });
+    }
+    assertTrue(done.await(2, TimeUnit.SECONDS));
+    for (int i = 0; i < delays.length; i++) {
+      long lateness = fired.get(i) - (start + delays[i]);
+      assertTrue(lateness >= 0, "task " + i + " too early: " + lateness + " ns");
+      assertTrue(lateness < TOLERANCE, "task " + i + " too late: " + lateness + " ns");
+    }
+    assertEquals(0, wheel.size());
+    wheel.close();
+  }
+
+  @Test
+  void pastDeadlineRunsAtOnce() throws InterruptedException {
+    TimingWheel wheel = new TimingWheel(1, TICK);
+    CountDownLatch done = new CountDownLatch(1);
+    wheel.schedule(System.nanoTime() - 1_000_000, done::countDown);
+    assertTrue(done.await(TOLERANCE, TimeUnit.NANOSECONDS));
+    wheel.close();
+  }
+
+  @Test
+  void pacerRunsPeriodically() throws InterruptedException {
+    TimingWheel wheel = new TimingWheel(2, TICK);
+    AtomicInteger runs = new AtomicInteger();
+    Pacer pacer = wheel.newPacer("test", 5_000_000, runs::incrementAndGet);
+    pacer.start();
+    Thread.sleep(200);
+    pacer.stop();
+    int stopped = runs.get();
+    assertTrue(stopped >= 20 && stopped <= 45, stopped + " runs in 200 ms");
+    Thread.sleep(20);
+    assertTrue(runs.get() <= stopped + 1); // at most one run in progress
+    wheel.close();
+  }
+}